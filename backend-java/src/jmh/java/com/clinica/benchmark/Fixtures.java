@@ -0,0 +1,95 @@
+package com.clinica.benchmark;
+
+import com.clinica.model.*;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Datos representativos de una receta: textos con acentos y notas en la mitad de los items
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    static AppointmentDTO appointment() {
+        AppointmentDTO appointment = new AppointmentDTO();
+        appointment.setId(42L);
+        appointment.setPatientId("8d3f2a6e-1c7b-4b0e-9a51-3f6c2d9e7b10");
+        appointment.setDoctorId("5b1e9c4a-7d2f-4e83-b6a0-9c8d7e6f5a41");
+        appointment.setAppointmentTime(LocalDateTime.of(2025, 10, 20, 15, 0));
+        appointment.setDiagnosis("Faringitis aguda con fiebre moderada y malestar general");
+
+        ProfileDTO patient = new ProfileDTO();
+        patient.setId(appointment.getPatientId());
+        patient.setFullName("Juan Quispe Mamani");
+        appointment.setPatient(patient);
+
+        SpecialtyDTO specialty = new SpecialtyDTO();
+        specialty.setId(2);
+        specialty.setName("Cardiología");
+        ProfileDTO doctor = new ProfileDTO();
+        doctor.setId(appointment.getDoctorId());
+        doctor.setFullName("Dra. Ana Pérez Núñez");
+        doctor.setLicenseNumber("CMP-12345");
+        doctor.setSpecialtyId(2);
+        doctor.setSpecialties(specialty);
+        appointment.setDoctor(doctor);
+        return appointment;
+    }
+
+    static List<PrescriptionItemDTO> items(int count) {
+        List<PrescriptionItemDTO> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            PrescriptionItemDTO item = new PrescriptionItemDTO();
+            item.setId((long) i + 1);
+            item.setPrescriptionId(7L);
+            item.setMedication("Amoxicilina " + (i + 1) + " 500 mg cápsulas");
+            item.setDosage("1 cápsula");
+            item.setFrequency("cada 8 horas");
+            item.setDuration("7 días");
+            item.setNotes(i % 2 == 0 ? "Tomar después de las comidas con abundante agua" : null);
+            items.add(item);
+        }
+        return items;
+    }
+
+    // Filas de prescription_items tal como las devuelve PostgREST (snake_case)
+    static List<Map<String, Object>> itemRows(int count) {
+        List<Map<String, Object>> rows = new ArrayList<>(count);
+        for (PrescriptionItemDTO item : items(count)) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("id", item.getId());
+            row.put("medication", item.getMedication());
+            row.put("dosage", item.getDosage());
+            row.put("frequency", item.getFrequency());
+            row.put("duration", item.getDuration());
+            row.put("notes", item.getNotes());
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    // Respuesta de /appointments con la selección embebida de la exportación
+    static List<Map<String, Object>> exportAppointmentRows(int itemCount) {
+        Map<String, Object> prescription = new LinkedHashMap<>();
+        prescription.put("id", 7);
+        prescription.put("items", itemRows(itemCount));
+
+        Map<String, Object> patient = new LinkedHashMap<>();
+        patient.put("id", "8d3f2a6e-1c7b-4b0e-9a51-3f6c2d9e7b10");
+        patient.put("full_name", "Juan Quispe Mamani");
+
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("id", 42);
+        row.put("patient_id", "8d3f2a6e-1c7b-4b0e-9a51-3f6c2d9e7b10");
+        row.put("doctor_id", "5b1e9c4a-7d2f-4e83-b6a0-9c8d7e6f5a41");
+        row.put("appointment_time", "2025-10-20T20:00:00+00:00");
+        row.put("diagnosis", "Faringitis aguda con fiebre moderada y malestar general");
+        row.put("prescriptions", List.of(prescription));
+        row.put("patient", patient);
+        return List.of(row);
+    }
+}
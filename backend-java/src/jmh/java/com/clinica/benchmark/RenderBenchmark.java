@@ -0,0 +1,69 @@
+package com.clinica.benchmark;
+
+import com.clinica.model.AppointmentDTO;
+import com.clinica.model.PrescriptionItemDTO;
+import com.clinica.service.DocxTemplateRegistry;
+import com.clinica.service.ExportMetrics;
+import com.clinica.service.PdfBoxRenderingService;
+import com.clinica.service.PdfGenerationService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Renderizado de una receta completa a byte[] (docx desde plantilla y pdf nativo).
+// Los servicios se crean en un contexto Spring mínimo con la configuración por defecto.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderBenchmark {
+
+    @Param({ "0", "5", "50", "500" })
+    private int rows;
+
+    private AnnotationConfigApplicationContext context;
+    private PdfGenerationService docx;
+    private PdfBoxRenderingService pdf;
+    private AppointmentDTO appointment;
+    private List<PrescriptionItemDTO> items;
+
+    @Setup
+    public void setup() {
+        context = new AnnotationConfigApplicationContext();
+        context.registerBean(SimpleMeterRegistry.class);
+        context.register(ExportMetrics.class, DocxTemplateRegistry.class, PdfGenerationService.class,
+                PdfBoxRenderingService.class);
+        context.refresh();
+        docx = context.getBean(PdfGenerationService.class);
+        pdf = context.getBean(PdfBoxRenderingService.class);
+
+        appointment = Fixtures.appointment();
+        items = Fixtures.items(rows);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public byte[] docx() throws IOException {
+        return docx.generatePrescriptionPdf(appointment, items);
+    }
+
+    @Benchmark
+    public byte[] pdf() throws IOException {
+        return pdf.render(appointment, items);
+    }
+
+    @Benchmark
+    public String fingerprint() {
+        return docx.fingerprint(appointment, items);
+    }
+}
@@ -0,0 +1,83 @@
+package com.clinica.benchmark;
+
+import com.clinica.config.SupabaseClientConfig;
+import com.clinica.model.AppointmentDTO;
+import com.clinica.model.PrescriptionItemDTO;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Mapeo de respuestas de PostgREST a DTO con el ObjectMapper de SupabaseClientConfig:
+// - mapAppointment / mapItems: ObjectMapper sobre el array completo
+// - decodeAppointment / decodeItems: Jackson2JsonDecoder sobre buffers, como WebClient
+// - readTree: árbol JsonNode de la misma respuesta, referencia del enfoque anterior
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SupabaseMappingBenchmark {
+
+    private static final ResolvableType APPOINTMENT = ResolvableType.forClass(AppointmentDTO.class);
+    private static final ResolvableType ITEM = ResolvableType.forClass(PrescriptionItemDTO.class);
+
+    @Param({ "1", "5", "50", "500" })
+    private int items;
+
+    private ObjectMapper mapper;
+    private Jackson2JsonDecoder decoder;
+    private byte[] appointmentJson;
+    private byte[] itemsJson;
+
+    @Setup
+    public void setup() throws IOException {
+        mapper = SupabaseClientConfig.supabaseObjectMapper();
+        decoder = new Jackson2JsonDecoder(mapper);
+        decoder.setMaxInMemorySize(-1);
+
+        ObjectMapper writer = new ObjectMapper();
+        appointmentJson = writer.writeValueAsBytes(Fixtures.exportAppointmentRows(items));
+        itemsJson = writer.writeValueAsBytes(Fixtures.itemRows(items));
+    }
+
+    @Benchmark
+    public AppointmentDTO[] mapAppointment() throws IOException {
+        return mapper.readValue(appointmentJson, AppointmentDTO[].class);
+    }
+
+    @Benchmark
+    public PrescriptionItemDTO[] mapItems() throws IOException {
+        return mapper.readValue(itemsJson, PrescriptionItemDTO[].class);
+    }
+
+    @Benchmark
+    public List<Object> decodeAppointment() {
+        return decode(appointmentJson, APPOINTMENT);
+    }
+
+    @Benchmark
+    public List<Object> decodeItems() {
+        return decode(itemsJson, ITEM);
+    }
+
+    @Benchmark
+    public JsonNode readTree() throws IOException {
+        return mapper.readTree(appointmentJson);
+    }
+
+    private List<Object> decode(byte[] json, ResolvableType type) {
+        DataBuffer buffer = DefaultDataBufferFactory.sharedInstance.wrap(json);
+        return decoder.decode(Flux.just(buffer), type, MediaType.APPLICATION_JSON, null).collectList().block();
+    }
+}
@@ -0,0 +1,165 @@
+package com.clinica.loadtest;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Tablas de Supabase en memoria para el stub: mismas columnas que PostgREST y las filas de
+// appointments ya traen los embeds que pide SupabaseService (prescriptions/items y patient).
+// Los datos son deterministas, así que dos corridas con los mismos parámetros son comparables
+// (las citas programadas caen siempre en la semana siguiente a la corrida).
+final class Dataset {
+
+    private static final String[] SPECIALTIES = {"Medicina General", "Cardiología", "Pediatría", "Dermatología", "Neurología"};
+    private static final String[] FIRST_NAMES = {"Juan", "María", "Rosa", "Luis", "Ana", "Carlos", "Lucía", "Jorge"};
+    private static final String[] LAST_NAMES = {"Quispe", "Mamani", "Pérez", "Núñez", "Huamán", "Rojas", "Flores", "Torres"};
+    private static final String[] MEDICATIONS = {"Amoxicilina 500mg cápsulas", "Paracetamol 500mg", "Ibuprofeno 400mg", "Loratadina 10mg", "Omeprazol 20mg"};
+    private static final ZoneId LIMA = ZoneId.of("America/Lima");
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssxxx");
+
+    private static final int DOCTORS = 20;
+    private static final int PATIENTS = 200;
+    private static final int DEPENDENTS = 40;
+
+    private Dataset() {
+    }
+
+    // appointments = nº de citas (ids 1..n), items = máximo de medicamentos por receta
+    static Map<String, List<Map<String, Object>>> generate(int appointments, int items) {
+        Map<String, List<Map<String, Object>>> tables = new HashMap<>();
+
+        List<Map<String, Object>> specialties = new ArrayList<>();
+        for (int i = 0; i < SPECIALTIES.length; i++) {
+            specialties.add(row("id", i + 1, "name", SPECIALTIES[i], "description", null));
+        }
+
+        // 1. Perfiles: doctores (con su especialidad embebida) y pacientes
+        List<Map<String, Object>> profiles = new ArrayList<>();
+        for (int i = 0; i < DOCTORS; i++) {
+            Map<String, Object> specialty = specialties.get(i % specialties.size());
+            Map<String, Object> doctor = row("id", uuid(1, i), "full_name", "Dr. " + name(i),
+                    "email", "doctor" + i + "@monteluz.pe", "role", "doctor",
+                    "license_number", "CMP-" + (10000 + i), "specialty_id", specialty.get("id"));
+            doctor.put("specialties", row("id", specialty.get("id"), "name", specialty.get("name")));
+            profiles.add(doctor);
+        }
+        for (int i = 0; i < PATIENTS; i++) {
+            profiles.add(row("id", uuid(2, i), "full_name", name(i + 3), "email", "paciente" + i + "@correo.pe",
+                    "role", "patient", "license_number", null, "specialty_id", null));
+        }
+
+        // Dependientes (hijos, etc.) de los primeros pacientes, con sus propias citas
+        List<Map<String, Object>> dependents = new ArrayList<>();
+        for (int i = 0; i < DEPENDENTS; i++) {
+            dependents.add(row("id", uuid(3, i), "full_name", name(i + 7), "guardian_id", uuid(2, i)));
+        }
+
+        // 2. Citas con su receta; el nº de items rota entre 0 y `items`
+        List<Map<String, Object>> appointmentRows = new ArrayList<>();
+        List<Map<String, Object>> prescriptions = new ArrayList<>();
+        List<Map<String, Object>> prescriptionItems = new ArrayList<>();
+        LocalDateTime first = LocalDateTime.of(2025, 1, 6, 8, 0);
+        long itemId = 1;
+        for (int id = 1; id <= appointments; id++) {
+            boolean dependent = id % 10 == 0;
+            String patientId = dependent ? uuid(3, (id / 10) % DEPENDENTS) : uuid(2, id % PATIENTS);
+            String patientName = dependent ? name((id / 10) % DEPENDENTS + 7) : name(id % PATIENTS + 3);
+            String doctorId = uuid(1, id % DOCTORS);
+            String time = first.plusMinutes(30L * id).atOffset(ZoneOffset.UTC).format(TIMESTAMP);
+
+            List<Map<String, Object>> rxItems = new ArrayList<>();
+            for (int n = 0; n < id % (items + 1); n++, itemId++) {
+                Map<String, Object> item = row("id", itemId, "prescription_id", (long) id,
+                        "medication", MEDICATIONS[n % MEDICATIONS.length], "dosage", "1 tableta",
+                        "frequency", "cada 8 horas", "duration", (5 + n) + " días",
+                        "notes", n % 2 == 0 ? "Tomar después de las comidas" : null);
+                rxItems.add(item);
+                prescriptionItems.add(item);
+            }
+            prescriptions.add(row("id", (long) id, "appointment_id", (long) id, "patient_id", patientId,
+                    "doctor_id", doctorId, "created_at", time));
+
+            Map<String, Object> appointment = row("id", (long) id, "patient_id", patientId, "doctor_id", doctorId,
+                    "appointment_time", time, "status", "completed",
+                    "diagnosis", "Control de rutina " + id, "rating", id % 3 == 0 ? null : 1 + (id / DOCTORS) % 5,
+                    "feedback", null, "created_at", time);
+            appointment.put("prescriptions", List.of(row("id", (long) id, "items", rxItems)));
+            appointment.put("patient", row("id", patientId, "full_name", patientName));
+            appointmentRows.add(appointment);
+        }
+
+        // 3. Horarios: todos los doctores de lunes a viernes 08:00-13:00 (hora de Lima) y los
+        //    pares también los sábados 09:00-12:00. Cada doctor tiene además una cita programada
+        //    por día laborable de la semana siguiente, a las 09:00, para el índice de disponibilidad
+        List<Map<String, Object>> schedules = new ArrayList<>();
+        long scheduleId = 1;
+        for (int i = 0; i < DOCTORS; i++) {
+            for (int day = 1; day <= 5; day++) {
+                schedules.add(row("id", scheduleId++, "doctor_id", uuid(1, i), "day_of_week", day,
+                        "start_time", "08:00:00", "end_time", "13:00:00"));
+            }
+            if (i % 2 == 0) {
+                schedules.add(row("id", scheduleId++, "doctor_id", uuid(1, i), "day_of_week", 6,
+                        "start_time", "09:00:00", "end_time", "12:00:00"));
+            }
+        }
+        LocalDate nextMonday = LocalDate.now(LIMA).with(TemporalAdjusters.next(DayOfWeek.MONDAY));
+        long scheduledId = appointments;
+        for (int i = 0; i < DOCTORS; i++) {
+            for (int day = 0; day < 5; day++) {
+                String patientId = uuid(2, (i * 5 + day) % PATIENTS);
+                String time = nextMonday.plusDays(day).atTime(9, 0).atZone(LIMA).toOffsetDateTime()
+                        .withOffsetSameInstant(ZoneOffset.UTC).format(TIMESTAMP);
+                Map<String, Object> appointment = row("id", ++scheduledId, "patient_id", patientId,
+                        "doctor_id", uuid(1, i), "appointment_time", time, "status", "scheduled",
+                        "diagnosis", null, "rating", null, "feedback", null, "created_at", time);
+                appointment.put("prescriptions", List.of());
+                appointment.put("patient", row("id", patientId, "full_name", name((i * 5 + day) % PATIENTS + 3)));
+                appointmentRows.add(appointment);
+            }
+        }
+
+        // Columna updated_at de las tablas de referencia (la marca de agua de ReferenceDataSync)
+        // y de appointments (la de AnalyticsService)
+        for (List<Map<String, Object>> reference : List.of(specialties, profiles, dependents, appointmentRows)) {
+            for (Map<String, Object> row : reference) {
+                row.put("updated_at", "2025-01-01T00:00:00+00:00");
+            }
+        }
+
+        tables.put("appointments", appointmentRows);
+        tables.put("schedules", schedules);
+        tables.put("profiles", profiles);
+        tables.put("dependents", dependents);
+        tables.put("specialties", specialties);
+        tables.put("prescriptions", prescriptions);
+        tables.put("prescription_items", prescriptionItems);
+        return tables;
+    }
+
+    private static String name(int i) {
+        return FIRST_NAMES[i % FIRST_NAMES.length] + " " + LAST_NAMES[i % LAST_NAMES.length]
+                + " " + LAST_NAMES[(i / LAST_NAMES.length) % LAST_NAMES.length];
+    }
+
+    private static String uuid(int kind, int i) {
+        return String.format("%08x-0000-4000-8000-%012x", kind, i);
+    }
+
+    private static Map<String, Object> row(Object... pairs) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            row.put((String) pairs[i], pairs[i + 1]);
+        }
+        return row;
+    }
+}
@@ -0,0 +1,227 @@
+package com.clinica.loadtest;
+
+import com.clinica.ClinicaApplication;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Prueba de carga de /api/appointments/{id}/export-pdf de principio a fin: levanta el stub de
+// Supabase y la aplicación en este mismo proceso y lanza peticiones a ritmo fijo (lazo abierto).
+// La latencia se mide desde el instante en que la petición *debía* salir, así que una
+// aplicación saturada no esconde su cola (coordinated omission).
+//
+//   mvn -Ploadtest test-compile exec:exec
+//   mvn -Ploadtest test-compile exec:exec -Dloadtest.args="--rates=100,200,400 --latency=40ms --clinica.export.cache.max-bytes=0"
+//
+// Las citas del dataset están completadas: tras la primera pasada se sirven desde el archivo
+// de recetas. Para medir el camino con render: --clinica.archive.enabled=false
+//
+// Opciones del arnés (el resto de --clave=valor se pasa tal cual a la aplicación):
+//   --rates=50,100,200   peticiones por segundo de cada escalón
+//   --duration=20s       duración medida de cada escalón
+//   --warmup=10s         calentamiento previo al primer ritmo (no se mide)
+//   --latency=20ms       latencia inyectada en cada respuesta del stub
+//   --jitter=5ms         variación uniforme ± sobre la latencia
+//   --tail=0.02:300ms    fracción de respuestas del stub con latencia extra (cola lenta), p. ej.
+//                        para comparar --clinica.supabase.hedge.enabled=true/false
+//   --appointments=1000  citas del dataset; las peticiones las recorren en orden
+//   --items=8            máximo de medicamentos por receta
+//   --format=docx        docx | pdf
+//   --burst=1            peticiones simultáneas a la misma cita en cada llegada (p. ej. 3:
+//                        doctor, paciente y apoderado abriendo la receta a la vez)
+//   --hgrm=<dir>         escribe la distribución completa de cada escalón (<ritmo>.hgrm)
+public final class LoadTest {
+
+    private static final long MAX_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(2);
+
+    private List<Integer> rates = List.of(50, 100, 200);
+    private Duration duration = Duration.ofSeconds(20);
+    private Duration warmup = Duration.ofSeconds(10);
+    private Duration latency = Duration.ofMillis(20);
+    private Duration jitter = Duration.ofMillis(5);
+    private double tailRatio = 0;
+    private Duration tailLatency = Duration.ZERO;
+    private int appointments = 1000;
+    private int items = 8;
+    private String format = "docx";
+    private int burst = 1;
+    private Path hgrm;
+    private final List<String> appArgs = new ArrayList<>();
+
+    private HttpClient client;
+    private String baseUrl;
+
+    public static void main(String[] args) throws Exception {
+        LoadTest test = new LoadTest();
+        test.parse(args);
+        test.run();
+        System.exit(0);
+    }
+
+    private void parse(String[] args) {
+        for (String arg : args) {
+            String[] pair = arg.replaceFirst("^--", "").split("=", 2);
+            String value = pair.length > 1 ? pair[1] : "";
+            switch (pair[0]) {
+                case "rates" -> rates = Arrays.stream(value.split(",")).map(String::trim).map(Integer::valueOf).toList();
+                case "duration" -> duration = DurationStyle.detectAndParse(value);
+                case "warmup" -> warmup = DurationStyle.detectAndParse(value);
+                case "latency" -> latency = DurationStyle.detectAndParse(value);
+                case "jitter" -> jitter = DurationStyle.detectAndParse(value);
+                case "tail" -> {
+                    String[] tail = value.split(":", 2);
+                    tailRatio = Double.parseDouble(tail[0]);
+                    tailLatency = DurationStyle.detectAndParse(tail[1]);
+                }
+                case "appointments" -> appointments = Integer.parseInt(value);
+                case "items" -> items = Integer.parseInt(value);
+                case "format" -> format = value;
+                case "burst" -> burst = Integer.parseInt(value);
+                case "hgrm" -> hgrm = Path.of(value);
+                default -> appArgs.add(arg);
+            }
+        }
+    }
+
+    private void run() throws Exception {
+        // 1. Stub de Supabase con el dataset
+        try (SupabaseStub stub = new SupabaseStub(Dataset.generate(appointments, items), latency, jitter,
+                tailRatio, tailLatency)) {
+            String supabaseUrl = stub.start();
+
+            // 2. Aplicación en un puerto libre apuntando al stub (sin el reinicio de devtools)
+            System.setProperty("spring.devtools.restart.enabled", "false");
+            List<String> args = new ArrayList<>(appArgs);
+            args.add("--supabase.url=" + supabaseUrl);
+            args.add("--server.port=0");
+            args.add("--spring.devtools.livereload.enabled=false");
+            // Archivo y trabajos en un directorio temporal, salvo que se indiquen otros
+            Path data = Files.createTempDirectory("clinica-loadtest");
+            for (String property : List.of("clinica.archive.dir", "clinica.jobs.dir")) {
+                if (appArgs.stream().noneMatch(arg -> arg.startsWith("--" + property + "="))) {
+                    args.add("--" + property + "=" + data.resolve(property.substring("clinica.".length(), property.lastIndexOf('.'))));
+                }
+            }
+            try (ConfigurableApplicationContext app = SpringApplication.run(ClinicaApplication.class, args.toArray(String[]::new))) {
+                int port = ((WebServerApplicationContext) app).getWebServer().getPort();
+                baseUrl = "http://localhost:" + port + "/api/appointments/";
+                client = HttpClient.newBuilder()
+                        .version(HttpClient.Version.HTTP_1_1)
+                        .connectTimeout(Duration.ofSeconds(5))
+                        .build();
+
+                System.out.printf("%nStub %s (latencia %d ms ± %d ms, %.1f%% con +%d ms), %d citas, formato %s, ráfagas de %d, app %s%n",
+                        supabaseUrl, latency.toMillis(), jitter.toMillis(), tailRatio * 100, tailLatency.toMillis(),
+                        appointments, format, burst, appArgs);
+                if (!warmup.isZero()) {
+                    step(rates.get(0), warmup);
+                }
+
+                // 3. Escalones de carga
+                List<String> report = new ArrayList<>();
+                report.add(String.format("%8s %8s %8s %8s %8s %10s %9s %9s %9s %9s %9s",
+                        "ritmo/s", "enviadas", "ok", "503", "errores", "logrado/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+                for (int rate : rates) {
+                    Step result = step(rate, duration);
+                    Histogram h = result.histogram();
+                    report.add(String.format("%8d %8d %8d %8d %8d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f",
+                            rate, result.sent(), result.ok(), result.rejected(), result.errors(), result.throughput(),
+                            millis(h.getValueAtPercentile(50)), millis(h.getValueAtPercentile(90)),
+                            millis(h.getValueAtPercentile(99)), millis(h.getValueAtPercentile(99.9)),
+                            millis(h.getMaxValue())));
+                    if (hgrm != null) {
+                        writeDistribution(rate, h);
+                    }
+                }
+                System.out.println();
+                report.forEach(System.out::println);
+                app.getBean(MeterRegistry.class).find("clinica.export.coalesced").counters().forEach(counter ->
+                        System.out.printf("coalescidas (%s): %.0f%n", counter.getId().getTag("stage"), counter.count()));
+                app.getBean(MeterRegistry.class).find("clinica.supabase.hedges").counters().forEach(counter ->
+                        System.out.printf("hedging %s (%s): %.0f%n", counter.getId().getTag("call"),
+                                counter.getId().getTag("outcome"), counter.count()));
+            }
+        }
+    }
+
+    private record Step(long sent, long ok, long rejected, long errors, double throughput, Histogram histogram) {
+    }
+
+    // Un escalón a ritmo fijo: la petición i sale en start + i/ritmo, responda o no la anterior
+    private Step step(int rate, Duration length) throws InterruptedException {
+        long total = Math.max(1, rate * length.toNanos() / TimeUnit.SECONDS.toNanos(1));
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        Recorder recorder = new Recorder(MAX_LATENCY_MICROS, 3);
+        AtomicLong ok = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        AtomicLong lastCompletion = new AtomicLong();
+        CountDownLatch pending = new CountDownLatch((int) (total * burst));
+
+        long start = System.nanoTime();
+        for (long i = 0; i < total; i++) {
+            long intended = start + i * interval;
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + (1 + i % appointments) + "/export-pdf?format=" + format))
+                    .timeout(Duration.ofSeconds(30))
+                    .GET()
+                    .build();
+            for (int b = 0; b < burst; b++) {
+                client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+                    long now = System.nanoTime();
+                    recorder.recordValue(Math.min(MAX_LATENCY_MICROS, TimeUnit.NANOSECONDS.toMicros(now - intended)));
+                    if (error == null && response.statusCode() == 200) {
+                        ok.incrementAndGet();
+                    } else if (error == null && response.statusCode() == 503) {
+                        rejected.incrementAndGet();
+                    } else {
+                        errors.incrementAndGet();
+                    }
+                    lastCompletion.accumulateAndGet(now, Math::max);
+                    pending.countDown();
+                });
+            }
+        }
+        if (!pending.await(length.toSeconds() + 60, TimeUnit.SECONDS)) {
+            System.out.printf("Ritmo %d/s: %d peticiones sin respuesta al cerrar el escalón%n", rate, pending.getCount());
+        }
+
+        double elapsed = (Math.max(lastCompletion.get(), start + 1) - start) / 1e9;
+        return new Step(total * burst, ok.get(), rejected.get(), errors.get(), ok.get() / elapsed, recorder.getIntervalHistogram());
+    }
+
+    private void writeDistribution(int rate, Histogram histogram) throws IOException {
+        Files.createDirectories(hgrm);
+        try (PrintStream out = new PrintStream(Files.newOutputStream(hgrm.resolve(rate + ".hgrm")))) {
+            histogram.outputPercentileDistribution(out, 1000.0);
+        }
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+}
@@ -0,0 +1,324 @@
+package com.clinica.loadtest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+// Sustituto local de PostgREST (/rest/v1/<tabla>) sobre MockWebServer. Entiende los filtros que
+// usa la aplicación (eq., in.(...), is., gt./gte./lt./lte., también repetidos y dentro de
+// or=(...) / and(...)), order=<col>[.desc],... y limit; el select y los parámetros de los embeds
+// (<embed>.order=...) se ignoran porque las filas ya traen los embeds. POST inserta y PATCH
+// actualiza las filas filtradas, ambos devolviendo la representación. Cada respuesta espera
+// latency ± jitter (y tailLatency en una fracción tailRatio) antes de enviar las cabeceras,
+// como haría la red hasta Supabase.
+final class SupabaseStub implements AutoCloseable {
+
+    private static final Set<String> RESERVED = Set.of("select", "order", "limit", "offset", "or");
+
+    // Valores por defecto de las columnas (y embeds vacíos) para las filas insertadas
+    private static final Map<String, Map<String, Object>> DEFAULTS = Map.of(
+            "appointments", Map.of("status", "scheduled", "prescriptions", List.of()));
+
+    // Índices únicos: una cita programada por doctor y hora (como la restricción de Supabase)
+    private static final Map<String, BiPredicate<Map<String, Object>, Map<String, Object>>> UNIQUE = Map.of(
+            "appointments", (existing, row) -> "scheduled".equals(existing.get("status"))
+                    && "scheduled".equals(row.get("status"))
+                    && Objects.equals(existing.get("doctor_id"), row.get("doctor_id"))
+                    && compare(existing.get("appointment_time"), row.get("appointment_time")) == 0);
+
+    private final Map<String, List<Map<String, Object>>> tables;
+    // Los workers de MockWebServer atienden en paralelo: lecturas compartidas, escrituras exclusivas
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final long latencyMicros;
+    private final long jitterMicros;
+    private final double tailRatio;
+    private final long tailMicros;
+    private final ObjectMapper json = new ObjectMapper();
+    private final MockWebServer server = new MockWebServer();
+
+    SupabaseStub(Map<String, List<Map<String, Object>>> tables, Duration latency, Duration jitter) {
+        this(tables, latency, jitter, 0, Duration.ZERO);
+    }
+
+    // tailRatio de las respuestas (0..1) tarda además tailLatency: la cola lenta de una base de
+    // datos real (pausas, bloqueos, vecinos ruidosos)
+    SupabaseStub(Map<String, List<Map<String, Object>>> tables, Duration latency, Duration jitter,
+            double tailRatio, Duration tailLatency) {
+        this.tables = tables;
+        this.latencyMicros = TimeUnit.NANOSECONDS.toMicros(latency.toNanos());
+        this.jitterMicros = TimeUnit.NANOSECONDS.toMicros(jitter.toNanos());
+        this.tailRatio = tailRatio;
+        this.tailMicros = TimeUnit.NANOSECONDS.toMicros(tailLatency.toNanos());
+    }
+
+    // Devuelve la URL base para supabase.url (sin /rest/v1)
+    String start() throws IOException {
+        Logger.getLogger(MockWebServer.class.getName()).setLevel(Level.WARNING);
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return respond(request);
+            }
+        });
+        server.start();
+        String url = server.url("/").toString();
+        return url.substring(0, url.length() - 1);
+    }
+
+    private MockResponse respond(RecordedRequest request) {
+        HttpUrl url = request.getRequestUrl();
+        List<String> path = url.pathSegments();
+        String name = path.get(path.size() - 1);
+        List<Map<String, Object>> table = tables.get(name);
+        if (table == null) {
+            return delayed(new MockResponse().setResponseCode(404)
+                    .setBody("{\"code\":\"PGRST205\",\"message\":\"not found\"}"));
+        }
+
+        try {
+            return switch (request.getMethod()) {
+                case "GET" -> locked(lock.readLock(), () -> ok(200, select(url, table).toList()));
+                case "POST" -> locked(lock.writeLock(), () -> insert(name, table, request));
+                case "PATCH" -> locked(lock.writeLock(), () -> update(url, table, request));
+                default -> delayed(new MockResponse().setResponseCode(405)
+                        .setBody("{\"code\":\"PGRST117\",\"message\":\"method not allowed\"}"));
+            };
+        } catch (IllegalArgumentException e) {
+            return delayed(new MockResponse().setResponseCode(400)
+                    .setBody("{\"code\":\"PGRST100\",\"message\":\"" + e.getMessage() + "\"}"));
+        }
+    }
+
+    private Stream<Map<String, Object>> select(HttpUrl url, List<Map<String, Object>> table) {
+        // 1. Filtros columna=operador.valor
+        Stream<Map<String, Object>> rows = table.stream();
+        for (String column : url.queryParameterNames()) {
+            if (!RESERVED.contains(column) && !column.contains(".")) {
+                for (String expression : url.queryParameterValues(column)) {
+                    rows = rows.filter(filter(column, expression));
+                }
+            }
+        }
+        String or = url.queryParameter("or");
+        if (or != null) {
+            rows = rows.filter(logical("or", or));
+        }
+
+        // 2. Orden y límite
+        String order = url.queryParameter("order");
+        if (order != null) {
+            Comparator<Map<String, Object>> comparator = null;
+            for (String term : order.split(",")) {
+                String[] parts = term.split("\\.");
+                Comparator<Map<String, Object>> byColumn = Comparator.comparing(row -> row.get(parts[0]),
+                        Comparator.nullsLast(SupabaseStub::compare));
+                if (parts.length > 1 && parts[1].equals("desc")) {
+                    byColumn = byColumn.reversed();
+                }
+                comparator = comparator == null ? byColumn : comparator.thenComparing(byColumn);
+            }
+            rows = rows.sorted(comparator);
+        }
+        String limit = url.queryParameter("limit");
+        if (limit != null) {
+            rows = rows.limit(Long.parseLong(limit));
+        }
+        return rows;
+    }
+
+    // POST: id siguiente si no viene, valores por defecto de la tabla y las restricciones
+    // únicas de UNIQUE (23505 como Postgres). Siempre devuelve la fila (return=representation)
+    private MockResponse insert(String name, List<Map<String, Object>> table, RecordedRequest request) {
+        Map<String, Object> row = new LinkedHashMap<>(read(request));
+        row.putIfAbsent("id", table.stream().map(r -> r.get("id")).filter(Number.class::isInstance)
+                .mapToLong(id -> ((Number) id).longValue()).max().orElse(0) + 1);
+        row.putIfAbsent("created_at", OffsetDateTime.now(ZoneOffset.UTC).toString());
+        if (!table.isEmpty() && table.get(0).containsKey("updated_at")) {
+            row.put("updated_at", row.get("created_at"));
+        }
+        DEFAULTS.getOrDefault(name, Map.of()).forEach(row::putIfAbsent);
+
+        BiPredicate<Map<String, Object>, Map<String, Object>> unique = UNIQUE.get(name);
+        if (unique != null && table.stream().anyMatch(existing -> unique.test(existing, row))) {
+            return delayed(new MockResponse().setResponseCode(409)
+                    .setBody("{\"code\":\"23505\",\"message\":\"duplicate key value violates unique constraint\"}"));
+        }
+        table.add(row);
+        return ok(201, List.of(row));
+    }
+
+    // PATCH: aplica el cuerpo a las filas que cumplen los filtros y las devuelve
+    private MockResponse update(HttpUrl url, List<Map<String, Object>> table, RecordedRequest request) {
+        Map<String, Object> changes = read(request);
+        List<Map<String, Object>> rows = select(url, table).toList();
+        String now = OffsetDateTime.now(ZoneOffset.UTC).toString();
+        rows.forEach(row -> {
+            row.putAll(changes);
+            // Como el trigger de updated_at de las tablas de referencia
+            row.computeIfPresent("updated_at", (column, previous) -> now);
+        });
+        return ok(200, rows);
+    }
+
+    private Map<String, Object> read(RecordedRequest request) {
+        try {
+            return json.readValue(request.getBody().readUtf8(), new TypeReference<Map<String, Object>>() { });
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Cuerpo JSON inválido: " + e.getOriginalMessage());
+        }
+    }
+
+    private MockResponse ok(int status, List<Map<String, Object>> rows) {
+        try {
+            return delayed(new MockResponse().setResponseCode(status).setBody(json.writeValueAsString(rows)));
+        } catch (JsonProcessingException e) {
+            return delayed(new MockResponse().setResponseCode(500).setBody("{\"message\":\"" + e.getOriginalMessage() + "\"}"));
+        }
+    }
+
+    private static MockResponse locked(Lock lock, Supplier<MockResponse> action) {
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static Predicate<Map<String, Object>> filter(String column, String expression) {
+        int dot = expression.indexOf('.');
+        String operator = dot < 0 ? expression : expression.substring(0, dot);
+        String value = dot < 0 ? "" : expression.substring(dot + 1);
+        return switch (operator) {
+            case "eq" -> row -> compare(row.get(column), value) == 0;
+            case "neq" -> row -> compare(row.get(column), value) != 0;
+            case "gt" -> row -> compare(row.get(column), value) > 0;
+            case "gte" -> row -> compare(row.get(column), value) >= 0;
+            case "lt" -> row -> compare(row.get(column), value) < 0;
+            case "lte" -> row -> compare(row.get(column), value) <= 0;
+            case "is" -> row -> value.equals("null") ? row.get(column) == null : String.valueOf(row.get(column)).equals(value);
+            case "in" -> {
+                List<String> values = Arrays.stream(value.substring(1, value.length() - 1).split(","))
+                        .map(v -> v.replace("\"", "").trim())
+                        .toList();
+                yield row -> values.stream().anyMatch(v -> compare(row.get(column), v) == 0);
+            }
+            default -> throw new IllegalArgumentException("Operador no soportado por el stub: " + operator);
+        };
+    }
+
+    // or=(cond,cond,...) / and(...): condiciones col.op.valor o grupos anidados, separados por
+    // comas fuera de paréntesis
+    private static Predicate<Map<String, Object>> logical(String operator, String group) {
+        if (!group.startsWith("(") || !group.endsWith(")")) {
+            throw new IllegalArgumentException("Grupo lógico mal formado: " + group);
+        }
+        List<Predicate<Map<String, Object>>> conditions = new ArrayList<>();
+        String body = group.substring(1, group.length() - 1);
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i <= body.length(); i++) {
+            char c = i < body.length() ? body.charAt(i) : ',';
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                conditions.add(condition(body.substring(start, i)));
+                start = i + 1;
+            }
+        }
+        return operator.equals("and")
+                ? row -> conditions.stream().allMatch(condition -> condition.test(row))
+                : row -> conditions.stream().anyMatch(condition -> condition.test(row));
+    }
+
+    private static Predicate<Map<String, Object>> condition(String condition) {
+        if (condition.startsWith("and(") || condition.startsWith("or(")) {
+            int paren = condition.indexOf('(');
+            return logical(condition.substring(0, paren), condition.substring(paren));
+        }
+        int dot = condition.indexOf('.');
+        if (dot < 0) {
+            throw new IllegalArgumentException("Condición mal formada: " + condition);
+        }
+        return filter(condition.substring(0, dot), condition.substring(dot + 1));
+    }
+
+    // Números por valor, timestamps por instante (el dataset usa +00:00 y la aplicación Z); el
+    // resto como texto
+    private static int compare(Object value, Object other) {
+        if (value == null || other == null) {
+            return value == other ? 0 : -1;
+        }
+        if (value instanceof Number number) {
+            try {
+                return Double.compare(number.doubleValue(), Double.parseDouble(other.toString()));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        Instant instant = instant(value.toString());
+        Instant otherInstant = instant != null ? instant(other.toString()) : null;
+        if (otherInstant != null) {
+            return instant.compareTo(otherInstant);
+        }
+        return value.toString().compareTo(other.toString());
+    }
+
+    private static Instant instant(String value) {
+        if (value.length() < 20 || value.charAt(4) != '-' || value.charAt(10) != 'T') {
+            return null;
+        }
+        try {
+            return OffsetDateTime.parse(value).toInstant();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private MockResponse delayed(MockResponse response) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long delay = latencyMicros + (jitterMicros > 0 ? random.nextLong(-jitterMicros, jitterMicros + 1) : 0)
+                + (tailRatio > 0 && random.nextDouble() < tailRatio ? tailMicros : 0);
+        return response
+                .setHeader("Content-Type", "application/json; charset=utf-8")
+                .setHeadersDelay(Math.max(0, delay), TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.shutdown();
+    }
+}
@@ -0,0 +1,32 @@
+package com.clinica.config;
+
+import com.clinica.service.SupabaseDeadline;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+
+// Cada petición a /api tiene clinica.supabase.deadline para todas sus consultas a Supabase,
+// contado desde que llega (ver SupabaseDeadline). Una consulta lenta ya no arrastra la
+// petición hasta el response-timeout del cliente.
+@Component
+public class DeadlineWebFilter implements WebFilter {
+
+    @Value("${clinica.supabase.deadline:5s}")
+    private Duration deadline;
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        if (deadline.isZero() || !exchange.getRequest().getPath().value().startsWith("/api/")) {
+            return chain.filter(exchange);
+        }
+        Instant expiresAt = Instant.now().plus(deadline);
+        return chain.filter(exchange)
+                .contextWrite(context -> SupabaseDeadline.with(context, expiresAt));
+    }
+}
@@ -0,0 +1,42 @@
+package com.clinica.config;
+
+import com.clinica.service.RenderAdmission;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+
+// Pool acotado para el renderizado (POI / PDFBox), que es CPU y no debe ejecutarse en el
+// event loop de Netty. Con más renders en curso que hilos, las tareas esperan en la cola;
+// RenderAdmission rechaza las exportaciones nuevas cuando hilos y cola están ocupados.
+@Configuration
+public class RenderingConfig {
+
+    @Value("${clinica.render.threads:0}")
+    private int threads;
+
+    @Value("${clinica.render.queue-size:64}")
+    private int queueSize;
+
+    @Bean(destroyMethod = "dispose")
+    public Scheduler renderScheduler() {
+        // La cola del scheduler es el límite duro; se deja holgura para los renders que
+        // RenderAdmission cuenta sin reserva (trabajos, respaldo de un render compartido)
+        return Schedulers.newBoundedElastic(poolSize(), queueSize + poolSize(), "render");
+    }
+
+    @Bean
+    public RenderAdmission renderAdmission(MeterRegistry meterRegistry,
+            @Value("${clinica.render.retry-after:1s}") Duration retryAfter) {
+        return new RenderAdmission(meterRegistry, poolSize(), queueSize, retryAfter);
+    }
+
+    // 0 hilos = nº de CPUs
+    private int poolSize() {
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+}
@@ -0,0 +1,129 @@
+package com.clinica.config;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.deser.std.StdScalarDeserializer;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import io.netty.channel.ChannelOption;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+
+// Cliente HTTP de Supabase: pool de conexiones propio (keep-alive, sin un handshake TLS
+// por consulta), timeouts acotados, gzip y cabeceras de autenticación por defecto.
+// Se parte del WebClient.Builder de Spring Boot, así cada llamada queda medida en
+// /actuator/metrics/http.client.requests (etiquetada por plantilla de URI y estado).
+@Configuration
+public class SupabaseClientConfig {
+
+    // Zona horaria de la clínica: Supabase devuelve timestamptz en UTC y los DTO llevan la
+    // hora local de la clínica
+    public static final ZoneId CLINIC_ZONE = ZoneId.of("America/Lima");
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider supabaseConnectionProvider(
+            @Value("${supabase.client.max-connections:50}") int maxConnections,
+            @Value("${supabase.client.pending-acquire-max-count:500}") int pendingAcquireMaxCount,
+            @Value("${supabase.client.pending-acquire-timeout:5s}") Duration pendingAcquireTimeout,
+            @Value("${supabase.client.max-idle-time:30s}") Duration maxIdleTime,
+            @Value("${supabase.client.max-life-time:5m}") Duration maxLifeTime,
+            @Value("${supabase.client.evict-interval:30s}") Duration evictInterval) {
+        return ConnectionProvider.builder("supabase")
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMaxCount)
+                .pendingAcquireTimeout(pendingAcquireTimeout)
+                .maxIdleTime(maxIdleTime)
+                .maxLifeTime(maxLifeTime)
+                .evictInBackground(evictInterval)
+                .metrics(true) // reactor.netty.connection.provider.* (activas, ociosas, en espera)
+                .build();
+    }
+
+    @Bean
+    public WebClient supabaseWebClient(WebClient.Builder builder, ConnectionProvider supabaseConnectionProvider,
+            @Value("${supabase.url}") String supabaseUrl,
+            @Value("${supabase.key}") String supabaseKey,
+            @Value("${supabase.client.connect-timeout:3s}") Duration connectTimeout,
+            @Value("${supabase.client.response-timeout:10s}") Duration responseTimeout,
+            @Value("${supabase.client.compress:true}") boolean compress,
+            @Value("${supabase.client.max-in-memory-size:2MB}") DataSize maxInMemorySize) {
+        HttpClient httpClient = HttpClient.create(supabaseConnectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis())
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .responseTimeout(responseTimeout)
+                .compress(compress);
+
+        // Carga al arrancar el event loop, el resolver DNS y el contexto TLS en lugar de
+        // en la primera consulta
+        httpClient.warmup().block();
+
+        return builder.clone()
+                .baseUrl(supabaseUrl + "/rest/v1")
+                .defaultHeader("apikey", supabaseKey)
+                .defaultHeader(HttpHeaders.AUTHORIZATION, "Bearer " + supabaseKey)
+                .codecs(codecs -> {
+                    codecs.defaultCodecs().jackson2JsonDecoder(new Jackson2JsonDecoder(supabaseObjectMapper()));
+                    codecs.defaultCodecs().maxInMemorySize((int) maxInMemorySize.toBytes());
+                })
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+    }
+
+    /**
+     * ObjectMapper para las respuestas de PostgREST: enlaza columnas snake_case a los campos
+     * camelCase de los DTO, ignora columnas que el DTO no tiene y convierte los timestamptz
+     * (UTC) a la hora local de la clínica. El decodificador de WebClient lo usa sobre los
+     * buffers de la respuesta, elemento a elemento, sin pasar por String ni JsonNode.
+     * No se expone como bean para no sustituir el ObjectMapper de Spring Boot.
+     */
+    public static ObjectMapper supabaseObjectMapper() {
+        SimpleModule timestamps = new SimpleModule("clinic-timestamps");
+        timestamps.addDeserializer(LocalDateTime.class, new ClinicTimestampDeserializer());
+        return JsonMapper.builder()
+                .propertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE)
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                .addModule(timestamps)
+                .build();
+    }
+
+    static final class ClinicTimestampDeserializer extends StdScalarDeserializer<LocalDateTime> {
+
+        private static final long serialVersionUID = 1L;
+
+        ClinicTimestampDeserializer() {
+            super(LocalDateTime.class);
+        }
+
+        @Override
+        public LocalDateTime deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            String value = parser.getValueAsString();
+            if (value == null || value.isEmpty()) {
+                return null;
+            }
+            try {
+                return OffsetDateTime.parse(value).atZoneSameInstant(CLINIC_ZONE).toLocalDateTime();
+            } catch (DateTimeParseException e) {
+                // timestamp sin zona
+                return LocalDateTime.parse(value);
+            }
+        }
+    }
+}
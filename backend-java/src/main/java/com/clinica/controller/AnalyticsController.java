@@ -0,0 +1,57 @@
+package com.clinica.controller;
+
+import com.clinica.model.AppointmentStatsDTO;
+import com.clinica.service.AnalyticsService;
+import com.clinica.service.AnalyticsService.AnalyticsNotReadyException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+// Estadísticas de citas desde los contadores en memoria de AnalyticsService:
+//   GET /api/analytics/doctors               todos los doctores con citas
+//   GET /api/analytics/doctors/{doctorId}
+//   GET /api/analytics/specialties           todas las especialidades
+//   GET /api/analytics/specialties/{specialtyId}
+// 404 si el doctor o la especialidad no tiene citas; 503 hasta la primera carga.
+@RestController
+@RequestMapping("/api/analytics")
+@CrossOrigin(origins = "http://localhost:4200")
+public class AnalyticsController {
+
+    @Autowired
+    private AnalyticsService analyticsService;
+
+    @GetMapping("/doctors")
+    public ResponseEntity<List<AppointmentStatsDTO>> doctors() {
+        return stats(analyticsService::allDoctorStats);
+    }
+
+    @GetMapping("/doctors/{doctorId}")
+    public ResponseEntity<AppointmentStatsDTO> doctor(@PathVariable String doctorId) {
+        return stats(() -> analyticsService.doctorStats(doctorId));
+    }
+
+    @GetMapping("/specialties")
+    public ResponseEntity<List<AppointmentStatsDTO>> specialties() {
+        return stats(analyticsService::allSpecialtyStats);
+    }
+
+    @GetMapping("/specialties/{specialtyId}")
+    public ResponseEntity<AppointmentStatsDTO> specialty(@PathVariable Integer specialtyId) {
+        return stats(() -> analyticsService.specialtyStats(specialtyId));
+    }
+
+    // Consultas en memoria: se responden en el propio event loop
+    private <T> ResponseEntity<T> stats(Supplier<T> query) {
+        try {
+            T result = query.get();
+            return result != null ? ResponseEntity.ok(result) : ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        } catch (AnalyticsNotReadyException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.clinica.controller;
+
+import com.clinica.service.DocumentArchive;
+import com.clinica.service.PrerenderService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+// Mantenimiento del archivo de recetas (también se ejecuta cada noche, ver
+// clinica.archive.maintenance-cron). Las operaciones leen disco: van fuera del event loop.
+@RestController
+@RequestMapping("/api/archive")
+@CrossOrigin(origins = "http://localhost:4200")
+public class ArchiveController {
+
+    @Autowired
+    private DocumentArchive documentArchive;
+
+    @Autowired
+    private PrerenderService prerenderService;
+
+    @PostMapping("/verify")
+    public Mono<DocumentArchive.VerifyResult> verify() {
+        return Mono.fromCallable(documentArchive::verify)
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @PostMapping("/compact")
+    public Mono<DocumentArchive.CompactResult> compact() {
+        return Mono.fromCallable(documentArchive::compact)
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    // Retira la receta archivada de una cita (p. ej. tras corregirla); se regenera al exportarla
+    @DeleteMapping("/appointments/{id}")
+    public Mono<ResponseEntity<Void>> remove(@PathVariable Long id) {
+        return Mono.fromCallable(() -> documentArchive.removeAppointment(id))
+                .subscribeOn(Schedulers.boundedElastic())
+                .map(removed -> removed > 0
+                        ? ResponseEntity.noContent().<Void>build()
+                        : ResponseEntity.notFound().<Void>build());
+    }
+
+    // Pasada de pre-renderizado fuera de hora (la programada es clinica.prerender.cron); 409 si
+    // ya hay una en curso o está desactivado
+    @PostMapping("/prerender")
+    public ResponseEntity<Void> prerender() {
+        return prerenderService.startRun()
+                ? ResponseEntity.status(HttpStatus.ACCEPTED).build()
+                : ResponseEntity.status(HttpStatus.CONFLICT).build();
+    }
+}
@@ -0,0 +1,105 @@
+package com.clinica.controller;
+
+import com.clinica.model.DoctorSlotsDTO;
+import com.clinica.model.ReservationRequestDTO;
+import com.clinica.service.AvailabilityService;
+import com.clinica.service.AvailabilityService.AvailabilityNotReadyException;
+import com.clinica.service.AvailabilityService.SlotNotAvailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// Huecos libres y reservas contra el índice de disponibilidad en memoria:
+//   GET  /api/availability/doctors/{doctorId}/slots?from=2025-06-02&to=2025-06-08
+//   GET  /api/availability/specialties/{specialtyId}/slots?from=...&to=...
+//   POST /api/availability/doctors/{doctorId}/reservations   (Authorization: Bearer <jwt del usuario>)
+//   POST /api/availability/appointments/{appointmentId}/cancel
+// Un horario ocupado responde 409 con code=SLOT_NOT_AVAILABLE, el código que ya maneja el
+// frontend; los demás errores de Supabase (42501, P0001...) se devuelven tal cual.
+@RestController
+@RequestMapping("/api/availability")
+@CrossOrigin(origins = "http://localhost:4200")
+public class AvailabilityController {
+
+    private static final Logger log = LoggerFactory.getLogger(AvailabilityController.class);
+
+    @Autowired
+    private AvailabilityService availabilityService;
+
+    @GetMapping("/doctors/{doctorId}/slots")
+    public ResponseEntity<DoctorSlotsDTO> doctorSlots(@PathVariable String doctorId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        return slots(() -> availabilityService.freeSlotsForDoctor(doctorId, from, to));
+    }
+
+    @GetMapping("/specialties/{specialtyId}/slots")
+    public ResponseEntity<List<DoctorSlotsDTO>> specialtySlots(@PathVariable Integer specialtyId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        return slots(() -> availabilityService.freeSlotsForSpecialty(specialtyId, from, to));
+    }
+
+    @PostMapping("/doctors/{doctorId}/reservations")
+    public Mono<ResponseEntity<Object>> reserve(@PathVariable String doctorId,
+            @RequestBody ReservationRequestDTO request,
+            @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization) {
+        return availabilityService.reserve(doctorId, request, authorization)
+                .map(created -> ResponseEntity.status(HttpStatus.CREATED).body((Object) created))
+                .onErrorResume(e -> Mono.just(error(e, "reservando un horario del doctor " + doctorId)));
+    }
+
+    @PostMapping("/appointments/{appointmentId}/cancel")
+    public Mono<ResponseEntity<Object>> cancel(@PathVariable Long appointmentId,
+            @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization) {
+        return availabilityService.cancel(appointmentId, authorization)
+                .map(cancelled -> ResponseEntity.ok((Object) cancelled))
+                .defaultIfEmpty(ResponseEntity.notFound().build())
+                .onErrorResume(e -> Mono.just(error(e, "cancelando la cita " + appointmentId)));
+    }
+
+    // Consultas en memoria: microsegundos, se responden en el propio event loop
+    private <T> ResponseEntity<T> slots(Supplier<T> query) {
+        try {
+            return ResponseEntity.ok(query.get());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        } catch (AvailabilityNotReadyException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+    }
+
+    private ResponseEntity<Object> error(Throwable e, String action) {
+        if (e instanceof SlotNotAvailableException) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of("code", "SLOT_NOT_AVAILABLE", "message", e.getMessage()));
+        }
+        if (e instanceof IllegalArgumentException) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("message", e.getMessage()));
+        }
+        if (e instanceof AvailabilityNotReadyException) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        if (e instanceof WebClientResponseException response && response.getStatusCode().is4xxClientError()) {
+            // Error de PostgREST ({code, message, details}): el frontend lo interpreta igual que hoy
+            return ResponseEntity.status(response.getStatusCode())
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(response.getResponseBodyAsString());
+        }
+        log.error("Error {}", action, e);
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+    }
+}
@@ -0,0 +1,41 @@
+package com.clinica.controller;
+
+import com.clinica.service.ReferenceDataCache;
+import com.clinica.service.ReferenceDataSync;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+// Invalidación explícita de la caché de datos de referencia (p. ej. tras editar un perfil).
+// Las métricas de aciertos/fallos/desalojos se publican en /actuator/metrics/cache.* y las
+// del espejo en clinica.mirror.*; DELETE /api/cache además vuelve a cargar el espejo entero.
+@RestController
+@RequestMapping("/api/cache")
+@CrossOrigin(origins = "http://localhost:4200")
+public class CacheController {
+
+    @Autowired
+    private ReferenceDataCache referenceDataCache;
+
+    @Autowired
+    private ReferenceDataSync referenceDataSync;
+
+    @DeleteMapping("/profiles/{id}")
+    public ResponseEntity<Void> invalidateProfile(@PathVariable String id) {
+        referenceDataCache.invalidateProfile(id);
+        return ResponseEntity.noContent().build();
+    }
+
+    @DeleteMapping("/specialties/{id}")
+    public ResponseEntity<Void> invalidateSpecialty(@PathVariable Integer id) {
+        referenceDataCache.invalidateSpecialty(id);
+        return ResponseEntity.noContent().build();
+    }
+
+    @DeleteMapping
+    public ResponseEntity<Void> invalidateAll() {
+        referenceDataCache.invalidateAll();
+        referenceDataSync.reloadAll();
+        return ResponseEntity.noContent().build();
+    }
+}
@@ -0,0 +1,71 @@
+package com.clinica.controller;
+
+import com.clinica.model.AppointmentDTO;
+import com.clinica.model.DoctorPatientPageDTO;
+import com.clinica.service.SupabaseDeadline;
+import com.clinica.service.SupabaseService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Historia clínica desde el backend, en lugar de que el ClinicalHistoryService del frontend
+// descargue todas las citas pasadas del doctor para sacar sus pacientes:
+//   GET /api/doctors/{doctorId}/patients?limit=50&after=<next_cursor>
+//   GET /api/patients/{patientId}/history?doctorId=...   (application/x-ndjson, una cita por línea)
+// El historial se envía según se lee: la primera línea sale tras el primer lote de citas.
+@RestController
+@RequestMapping("/api")
+@CrossOrigin(origins = "http://localhost:4200")
+public class ClinicalHistoryController {
+
+    private static final Logger log = LoggerFactory.getLogger(ClinicalHistoryController.class);
+
+    @Autowired
+    private SupabaseService supabaseService;
+
+    @Value("${clinica.history.max-page-size:100}")
+    private int maxPageSize;
+
+    @Value("${clinica.history.chunk-size:200}")
+    private int chunkSize;
+
+    @Value("${clinica.history.scan-size:1000}")
+    private int scanSize;
+
+    @GetMapping("/doctors/{doctorId}/patients")
+    public Mono<ResponseEntity<DoctorPatientPageDTO>> listPatients(@PathVariable String doctorId,
+            @RequestParam(required = false) String after,
+            @RequestParam(defaultValue = "50") int limit) {
+        if (limit < 1 || limit > maxPageSize) {
+            return Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST).build());
+        }
+
+        return supabaseService.getDoctorPatients(doctorId, after, limit, scanSize)
+                .map(ResponseEntity::ok)
+                .onErrorResume(IllegalArgumentException.class, e -> {
+                    log.info("Petición de pacientes inválida para el doctor {}: {}", doctorId, e.getMessage());
+                    return Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST).build());
+                })
+                .onErrorResume(e -> {
+                    log.error("Error listando los pacientes del doctor {}", doctorId, e);
+                    return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build());
+                });
+    }
+
+    // Un error antes de la primera línea aún llega como 500; después solo puede cortar la respuesta
+    @GetMapping(value = "/patients/{patientId}/history", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<AppointmentDTO> streamHistory(@PathVariable String patientId,
+            @RequestParam(required = false) String doctorId) {
+        return supabaseService.streamPatientHistory(patientId, doctorId, chunkSize)
+                .doOnError(e -> log.error("Error enviando el historial del paciente {}", patientId, e))
+                // La respuesta dura lo que dure el historial: sin el plazo de la petición
+                .contextWrite(SupabaseDeadline::clear);
+    }
+}
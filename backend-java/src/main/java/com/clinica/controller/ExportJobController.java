@@ -0,0 +1,77 @@
+package com.clinica.controller;
+
+import com.clinica.model.ExportJobDTO;
+import com.clinica.service.ExportJobService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.time.Duration;
+
+// Exportación asíncrona de recetas, para documentos grandes o cuando Supabase va lento:
+//   POST /api/export-jobs?appointmentId=42&format=pdf  -> 202 con el trabajo y Location
+//   GET  /api/export-jobs/{jobId}                      -> estado y progreso
+//   GET  /api/export-jobs/{jobId}/download             -> el documento cuando status=done
+@RestController
+@RequestMapping("/api/export-jobs")
+@CrossOrigin(origins = "http://localhost:4200")
+public class ExportJobController {
+
+    @Autowired
+    private ExportJobService exportJobService;
+
+    @Value("${clinica.export.default-format:docx}")
+    private String defaultFormat;
+
+    @Value("${clinica.jobs.retry-after:5s}")
+    private Duration retryAfter;
+
+    @PostMapping
+    public Mono<ResponseEntity<ExportJobDTO>> createJob(@RequestParam Long appointmentId,
+            @RequestParam(required = false) String format) {
+        String requestedFormat = format != null ? format : defaultFormat;
+        if (!exportJobService.supports(requestedFormat)) {
+            return Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST).build());
+        }
+
+        return exportJobService.submit(appointmentId, requestedFormat)
+                .map(job -> ResponseEntity.accepted()
+                        .location(URI.create("/api/export-jobs/" + job.getId()))
+                        .body(job))
+                .defaultIfEmpty(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                        .header(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, retryAfter.toSeconds())))
+                        .build());
+    }
+
+    @GetMapping("/{jobId}")
+    public ResponseEntity<ExportJobDTO> getJob(@PathVariable String jobId) {
+        return exportJobService.get(jobId)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    // 409 mientras el trabajo no ha terminado bien; el fichero se envía sin pasar por el heap
+    @GetMapping("/{jobId}/download")
+    public ResponseEntity<Resource> download(@PathVariable String jobId) {
+        ExportJobDTO job = exportJobService.get(jobId).orElse(null);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!ExportJobService.DONE.equals(job.getStatus())) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType(job.getContentType()));
+        headers.setContentDispositionFormData("attachment", job.getFileName());
+        return new ResponseEntity<>(new FileSystemResource(exportJobService.resultPath(job)), headers, HttpStatus.OK);
+    }
+}
@@ -0,0 +1,112 @@
+package com.clinica.controller;
+
+import com.clinica.service.HistoryExportService;
+import com.clinica.service.HistoryExportService.NoPrescriptionsException;
+import com.clinica.service.PrescriptionRenderer;
+import com.clinica.service.RenderAdmission;
+import com.clinica.service.RenderAdmission.Permit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.function.Function;
+
+// Historial de recetas en un ZIP que se descarga mientras se genera:
+//   GET  /api/patients/{patientId}/prescriptions.zip?format=pdf&includeDependents=true
+//   POST /api/appointments/prescriptions.zip?format=pdf   cuerpo: [42, 43, ...]
+// Los errores anteriores al primer documento (Supabase caído, sin recetas) todavía llegan
+// como código HTTP; una receta que falla después se anota en errores.txt dentro del ZIP.
+@RestController
+@RequestMapping("/api")
+@CrossOrigin(origins = "http://localhost:4200")
+public class HistoryExportController {
+
+    private static final Logger log = LoggerFactory.getLogger(HistoryExportController.class);
+
+    private static final MediaType ZIP = MediaType.parseMediaType("application/zip");
+
+    @Autowired
+    private HistoryExportService historyExportService;
+
+    @Autowired
+    private List<PrescriptionRenderer> renderers;
+
+    @Autowired
+    private RenderAdmission renderAdmission;
+
+    @Value("${clinica.export.default-format:docx}")
+    private String defaultFormat;
+
+    @Value("${clinica.export.batch.max-appointments:1000}")
+    private int maxAppointments;
+
+    @Value("${clinica.export.batch.concurrency:4}")
+    private int concurrency;
+
+    @GetMapping("/patients/{patientId}/prescriptions.zip")
+    public ResponseEntity<Flux<DataBuffer>> exportPatientHistory(@PathVariable String patientId,
+            @RequestParam(required = false) String format,
+            @RequestParam(defaultValue = "true") boolean includeDependents, ServerWebExchange exchange) {
+        return export("recetas-monteluz-" + patientId + ".zip", format, renderer ->
+                historyExportService.patientHistory(patientId, includeDependents, renderer,
+                        exchange.getResponse().bufferFactory()));
+    }
+
+    @PostMapping("/appointments/prescriptions.zip")
+    public ResponseEntity<Flux<DataBuffer>> exportAppointments(@RequestBody List<Long> appointmentIds,
+            @RequestParam(required = false) String format, ServerWebExchange exchange) {
+        if (appointmentIds.isEmpty() || appointmentIds.size() > maxAppointments) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        }
+        return export("recetas-monteluz.zip", format, renderer ->
+                historyExportService.appointments(appointmentIds, renderer, exchange.getResponse().bufferFactory()));
+    }
+
+    private ResponseEntity<Flux<DataBuffer>> export(String fileName, String format,
+            Function<PrescriptionRenderer, Flux<DataBuffer>> zip) {
+        // 1. Motor de renderizado (docx por defecto, o pdf)
+        String requestedFormat = format != null ? format : defaultFormat;
+        PrescriptionRenderer renderer = renderers.stream()
+                .filter(r -> r.format().equalsIgnoreCase(requestedFormat))
+                .findFirst()
+                .orElse(null);
+        if (renderer == null) {
+            log.info("Formato no soportado: {}", requestedFormat);
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        }
+
+        // 2. Con el pool de renderizado lleno se rechaza antes de empezar; una vez enviada la
+        //    primera entrada ya no se puede responder 503. El ZIP reserva una plaza por cada
+        //    documento que puede tener en curso y las libera al terminar la descarga.
+        Permit permit = renderAdmission.tryAdmit(concurrency);
+        if (permit == null) {
+            log.warn("Pool de renderizado lleno, se rechaza el ZIP {}", fileName);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(renderAdmission.retryAfterSeconds()))
+                    .build();
+        }
+
+        // 3. Sin Content-Length: el ZIP se envía por trozos (chunked) según se genera
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(ZIP);
+        headers.setCacheControl(CacheControl.noStore());
+        headers.setContentDispositionFormData("attachment", fileName);
+
+        Flux<DataBuffer> body = renderAdmission.admit(permit, zip.apply(renderer))
+                .onErrorMap(NoPrescriptionsException.class,
+                        e -> new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage()));
+        return new ResponseEntity<>(body, headers, HttpStatus.OK);
+    }
+}
@@ -0,0 +1,56 @@
+package com.clinica.controller;
+
+import com.clinica.model.AppointmentPageDTO;
+import com.clinica.service.SupabaseService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+
+// Citas de un paciente ya enriquecidas (paciente, doctor con especialidad, ids de recetas) en
+// una sola petición, en lugar de las consultas encadenadas del AppointmentDAO del frontend:
+//   GET /api/patients/{patientId}/appointments?from=2025-01-01&to=2025-12-31&limit=20
+//   GET /api/patients/{patientId}/appointments?after=<next_cursor de la página anterior>
+@RestController
+@RequestMapping("/api/patients")
+@CrossOrigin(origins = "http://localhost:4200")
+public class PatientAppointmentController {
+
+    private static final Logger log = LoggerFactory.getLogger(PatientAppointmentController.class);
+
+    @Autowired
+    private SupabaseService supabaseService;
+
+    @Value("${clinica.appointments.max-page-size:100}")
+    private int maxPageSize;
+
+    @GetMapping("/{patientId}/appointments")
+    public Mono<ResponseEntity<AppointmentPageDTO>> listAppointments(@PathVariable String patientId,
+            @RequestParam(defaultValue = "true") boolean includeDependents,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) String after,
+            @RequestParam(defaultValue = "20") int limit) {
+        if (limit < 1 || limit > maxPageSize || (from != null && to != null && from.isAfter(to))) {
+            return Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST).build());
+        }
+
+        return supabaseService.getPatientAppointments(patientId, includeDependents, from, to, after, limit)
+                .map(ResponseEntity::ok)
+                .onErrorResume(IllegalArgumentException.class, e -> {
+                    log.info("Petición de citas inválida para el paciente {}: {}", patientId, e.getMessage());
+                    return Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST).build());
+                })
+                .onErrorResume(e -> {
+                    log.error("Error listando las citas del paciente {}", patientId, e);
+                    return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build());
+                });
+    }
+}
@@ -1,86 +1,320 @@
 package com.clinica.controller;
 
 import com.clinica.model.*;
-import com.clinica.service.PdfGenerationService;
+import com.clinica.service.CapturingOutputStream;
+import com.clinica.service.DocumentArchive;
+import com.clinica.service.DocumentArchive.ArchivedDocument;
+import com.clinica.service.DocumentCache;
+import com.clinica.service.ExportMetrics;
+import com.clinica.service.PrescriptionRenderer;
+import com.clinica.service.RenderAdmission;
+import com.clinica.service.RenderAdmission.Permit;
+import com.clinica.service.SupabaseDeadline;
 import com.clinica.service.SupabaseService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.ZeroCopyHttpOutputMessage;
+import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/api/appointments")
 @CrossOrigin(origins = "http://localhost:4200")
 public class PrescriptionController {
 
+    private static final Logger log = LoggerFactory.getLogger(PrescriptionController.class);
+
     @Autowired
     private SupabaseService supabaseService;
 
     @Autowired
-    private PdfGenerationService pdfGenerationService;
+    private List<PrescriptionRenderer> renderers;
+
+    @Autowired
+    private DocumentCache documentCache;
+
+    @Autowired
+    private DocumentArchive documentArchive;
+
+    @Autowired
+    private Scheduler renderScheduler;
+
+    @Autowired
+    private RenderAdmission renderAdmission;
+
+    @Autowired
+    private ExportMetrics exportMetrics;
+
+    @Value("${clinica.export.default-format:docx}")
+    private String defaultFormat;
 
+    @Value("${clinica.export.streaming:true}")
+    private boolean streamingEnabled;
+
+    @Value("${clinica.export.cache.max-entry-bytes:1048576}")
+    private int cacheMaxEntryBytes;
+
+    // Todo el pipeline es no bloqueante: las consultas a Supabase se componen sobre el
+    // event loop y solo el renderizado (CPU) pasa al renderScheduler acotado
     @GetMapping("/{id}/export-pdf")
-    public ResponseEntity<byte[]> exportPrescriptionPdf(@PathVariable Long id) {
-        try {
-            System.out.println("=== EXPORTANDO RECETA PARA CITA: " + id + " ===");
+    public Mono<ResponseEntity<Flux<DataBuffer>>> exportPrescriptionPdf(@PathVariable Long id,
+            @RequestParam(required = false) String format, ServerWebExchange exchange) {
+        long start = System.nanoTime();
+        log.debug("Exportando receta de la cita {}", id);
 
-            // 1. Obtener datos de Supabase
-            AppointmentDTO appointment = supabaseService.getAppointmentWithDetails(id);
+        // 0. Motor de renderizado según el formato pedido (docx por defecto, o pdf nativo)
+        String requestedFormat = format != null ? format : defaultFormat;
+        PrescriptionRenderer renderer = renderers.stream()
+                .filter(r -> r.format().equalsIgnoreCase(requestedFormat))
+                .findFirst()
+                .orElse(null);
+        if (renderer == null) {
+            log.info("Formato no soportado: {}", requestedFormat);
+            exportMetrics.recordExport("unknown", "bad_request", start);
+            return Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST).build());
+        }
 
-            if (appointment == null) {
-                System.out.println("ERROR: No se encontró la cita");
-                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
-            }
+        // 1. Obtener cita, perfiles, receta e items de Supabase (una sola consulta embebida).
+        //    También con la receta archivada: una cita completada aún puede cambiar, y el
+        //    archivo solo se sirve si coincide con los datos actuales
+        return supabaseService.getAppointmentWithDetails(id)
+                .flatMap(appointment -> export(id, appointment, renderer, exchange, start))
+                .switchIfEmpty(Mono.defer(() -> {
+                    // serveArchived escribe la respuesta él mismo y termina vacío
+                    if (exchange.getResponse().isCommitted()) {
+                        return Mono.empty();
+                    }
+                    log.debug("No se encontró la cita {}", id);
+                    exportMetrics.recordExport(renderer.format(), "not_found", start);
+                    return Mono.just(ResponseEntity.status(HttpStatus.NOT_FOUND).build());
+                }))
+                .onErrorResume(e -> {
+                    // Error enviando un documento archivado: la respuesta ya está comprometida
+                    if (exchange.getResponse().isCommitted()) {
+                        return Mono.error(e);
+                    }
+                    // Supabase no respondió dentro del plazo de la petición (clinica.supabase.deadline)
+                    if (SupabaseDeadline.isExceeded(e)) {
+                        log.warn("Plazo agotado exportando la receta de la cita {}", id);
+                        exportMetrics.recordExport(renderer.format(), "deadline", start);
+                        return Mono.just(ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).build());
+                    }
+                    log.error("Error exportando la receta de la cita {}", id, e);
+                    exportMetrics.recordExport(renderer.format(), "error", start);
+                    return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build());
+                });
+    }
 
-            System.out.println("✓ Cita encontrada");
-            System.out.println("  Paciente: "
-                    + (appointment.getPatient() != null ? appointment.getPatient().getFullName() : "NULL"));
-            System.out.println(
-                    "  Doctor: " + (appointment.getDoctor() != null ? appointment.getDoctor().getFullName() : "NULL"));
+    private Mono<ResponseEntity<Flux<DataBuffer>>> export(Long id, AppointmentDTO appointment,
+            PrescriptionRenderer renderer, ServerWebExchange exchange, long start) {
 
-            // 2. Obtener prescription_id
-            Long prescriptionId = supabaseService.getPrescriptionIdByAppointment(id);
+        // 2. La receta y sus items ya vienen embebidos en la cita
+        if (appointment.getPrescriptions() == null || appointment.getPrescriptions().isEmpty()) {
+            log.debug("La cita {} no tiene receta", id);
+            exportMetrics.recordExport(renderer.format(), "not_found", start);
+            return Mono.just(ResponseEntity.status(HttpStatus.NOT_FOUND).build());
+        }
 
-            if (prescriptionId == null) {
-                System.out.println("ERROR: No se encontró receta para esta cita");
-                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
-            }
+        PrescriptionDTO prescription = appointment.getPrescriptions().get(0);
 
-            System.out.println("✓ Receta encontrada: ID = " + prescriptionId);
+        // 3. Items de la receta
+        List<PrescriptionItemDTO> items = prescription.getItems();
+        log.debug("Cita {}: receta {} con {} items", id, prescription.getId(), items.size());
 
-            // 3. Obtener items
-            List<PrescriptionItemDTO> items = supabaseService.getPrescriptionItems(prescriptionId);
+        // 4. Huella de los datos: si el cliente ya tiene esta versión, 304 sin cuerpo
+        String fingerprint = renderer.fingerprint(appointment, items);
+        String etag = "\"" + fingerprint + "\"";
 
-            System.out.println("✓ Items encontrados: " + items.size());
+        if (exchange.checkNotModified(etag)) {
+            exportMetrics.recordExport(renderer.format(), "not_modified", start);
+            return Mono.just(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build());
+        }
 
-            // 4. Generar PDF
-            byte[] pdfBytes = pdfGenerationService.generatePrescriptionPdf(appointment, items);
+        // 5. Receta ya archivada con esta misma receta y huella: se envía desde disco, sin render
+        ArchivedDocument archived = documentArchive.find(id, renderer.format(), prescription.getId(), fingerprint);
+        if (archived != null) {
+            return serveArchived(id, archived, renderer, exchange, etag, start);
+        }
 
-            System.out.println("✓ Documento generado: " + pdfBytes.length + " bytes");
+        // 6. Configurar headers para descarga
+        HttpHeaders headers = new HttpHeaders();
+        downloadHeaders(headers, id, renderer, etag);
 
-            // 5. Configurar headers para descarga
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
-            headers.setContentDispositionFormData("attachment", "receta-monteluz-" + id + ".docx");
-            headers.setContentLength(pdfBytes.length);
+        DataBufferFactory bufferFactory = exchange.getResponse().bufferFactory();
 
-            System.out.println("=== EXPORTACIÓN COMPLETADA ===");
+        // 7. Documento ya renderizado, o render en curso de otra petición con la misma huella:
+        //    se espera ese resultado en lugar de repetirlo
+        CompletableFuture<byte[]> shared = documentCache.get(fingerprint);
+        if (shared != null) {
+            return Mono.just(shared(shared, appointment, items, renderer, headers, bufferFactory, start));
+        }
 
-            return new ResponseEntity<>(pdfBytes, headers, HttpStatus.OK);
+        // 8. Generar documento en el pool de renderizado; las peticiones que lleguen mientras
+        //    tanto con la misma huella comparten este render. Con el pool lleno se rechaza
+        //    enseguida en lugar de encolar más trabajo del que puede atender; el cupo queda
+        //    reservado hasta que el cuerpo termina.
+        Permit permit = renderAdmission.tryAdmit();
+        if (permit == null) {
+            return Mono.just(rejected(id, renderer, start));
+        }
+        if (!streamingEnabled) {
+            Flux<DataBuffer> body = documentCache.get(fingerprint, () -> render(renderer, appointment, items)
+                            .doOnNext(document -> archive(appointment, prescription, renderer, fingerprint, document)))
+                    .map(bufferFactory::wrap)
+                    .flux();
+            return Mono.just(new ResponseEntity<>(timed(renderAdmission.admit(permit, body), renderer, "rendered", start),
+                    headers, HttpStatus.OK));
+        }
+
+        CompletableFuture<byte[]> pending = documentCache.claim(fingerprint);
+        if (pending == null) {
+            permit.release();
+            return Mono.just(shared(documentCache.get(fingerprint), appointment, items, renderer, headers, bufferFactory,
+                    start));
+        }
+
+        // Modo streaming: el renderer escribe en buffers que se envían según los consume el
+        // cliente (transfer-encoding chunked). outputStreamPublisher aplica backpressure: con
+        // el cliente parado el render espera en lugar de acumular el documento en memoria, así
+        // que ocupa su hilo, y el cupo sigue reservado hasta que el cuerpo termina o se cancela
+        // (la admisión ve a los clientes lentos). La copia capturada completa la reserva de la
+        // caché (y se archiva); si el documento no cabe en el límite por entrada, o este cliente
+        // cancela antes de terminar, la reserva se completa con null y quienes esperaban
+        // renderizan por su cuenta.
+        Flux<DataBuffer> body = renderAdmission.admit(permit, Flux.from(DataBufferUtils.outputStreamPublisher(out -> {
+            try {
+                CapturingOutputStream capture = new CapturingOutputStream(out, cacheMaxEntryBytes);
+                renderer.writePrescription(appointment, items, capture);
+                capture.flush();
+                byte[] captured = capture.getCaptured();
+                pending.complete(captured);
+                if (captured != null) {
+                    archive(appointment, prescription, renderer, fingerprint, captured);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, bufferFactory, renderScheduler::schedule)))
+                .doFinally(signal -> pending.complete(null));
+        return Mono.just(new ResponseEntity<>(timed(body, renderer, "rendered", start), headers, HttpStatus.OK));
+    }
+
+    // Sirve el resultado de un render compartido. Si ya terminó se envía tal cual; si sigue en
+    // curso se espera, y si acaba sin documento (error, cancelado o demasiado grande para la
+    // caché) esta petición lo renderiza por su cuenta.
+    private ResponseEntity<Flux<DataBuffer>> shared(CompletableFuture<byte[]> shared, AppointmentDTO appointment,
+            List<PrescriptionItemDTO> items, PrescriptionRenderer renderer, HttpHeaders headers,
+            DataBufferFactory bufferFactory, long start) {
+        byte[] cached = shared != null && shared.isDone() && !shared.isCompletedExceptionally() ? shared.join() : null;
+        if (cached != null) {
+            headers.setContentLength(cached.length);
+            Flux<DataBuffer> body = Flux.just(bufferFactory.wrap(cached));
+            return new ResponseEntity<>(timed(body, renderer, "cached", start), headers, HttpStatus.OK);
+        }
+
+        exportMetrics.coalesced("render");
+        Mono<byte[]> document;
+        if (shared != null) {
+            // La petición ya esperó al render compartido: el de respaldo cuenta, pero no se rechaza
+            document = Mono.fromFuture(shared, true)
+                    .onErrorResume(e -> Mono.empty())
+                    .switchIfEmpty(Mono.defer(() -> renderAdmission.admit(render(renderer, appointment, items))));
+        } else {
+            Permit permit = renderAdmission.tryAdmit();
+            if (permit == null) {
+                return rejected(appointment.getId(), renderer, start);
+            }
+            document = renderAdmission.admit(permit, render(renderer, appointment, items));
+        }
+        Flux<DataBuffer> body = document
+                .map(bufferFactory::wrap)
+                .flux();
+        return new ResponseEntity<>(timed(body, renderer, "coalesced", start), headers, HttpStatus.OK);
+    }
+
+    // Sin admisión: quien lo llama ya tiene el cupo reservado o lo cuenta con admit
+    private Mono<byte[]> render(PrescriptionRenderer renderer, AppointmentDTO appointment, List<PrescriptionItemDTO> items) {
+        return Mono.fromCallable(() -> renderer.render(appointment, items))
+                .subscribeOn(renderScheduler);
+    }
 
-        } catch (IOException e) {
-            System.out.println("ERROR IO: " + e.getMessage());
-            e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
-        } catch (Exception e) {
-            System.out.println("ERROR GENERAL: " + e.getMessage());
-            e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
+    // Zero-copy: Netty envía el fichero con sendfile, sin copiarlo al heap. El handler escribe
+    // la respuesta directamente y termina sin ResponseEntity, porque un cuerpo Resource no
+    // puede declararse junto a los Flux<DataBuffer> del resto del endpoint. El 304 ya lo
+    // resolvió export() con la misma huella.
+    private Mono<ResponseEntity<Flux<DataBuffer>>> serveArchived(Long id, ArchivedDocument archived,
+            PrescriptionRenderer renderer, ServerWebExchange exchange, String etag, long start) {
+        ServerHttpResponse response = exchange.getResponse();
+        downloadHeaders(response.getHeaders(), id, renderer, etag);
+        response.getHeaders().setContentLength(archived.size());
+        Mono<Void> body = response instanceof ZeroCopyHttpOutputMessage zeroCopy
+                ? zeroCopy.writeWith(archived.path(), 0, archived.size())
+                : response.writeWith(DataBufferUtils.read(archived.path(), response.bufferFactory(), 8192));
+        return body
+                .doOnError(e -> {
+                    log.error("Error enviando el documento archivado de la cita {}", id, e);
+                    documentArchive.discard(archived, e);
+                })
+                .doFinally(signal -> exportMetrics.recordExport(renderer.format(),
+                        switch (signal) {
+                            case ON_COMPLETE -> "archived";
+                            case CANCEL -> "cancelled";
+                            default -> "error";
+                        }, start))
+                .then(Mono.empty());
+    }
+
+    private static void downloadHeaders(HttpHeaders headers, Long id, PrescriptionRenderer renderer, String etag) {
+        headers.setContentType(renderer.contentType());
+        headers.setETag(etag);
+        headers.setCacheControl(CacheControl.noCache().cachePrivate());
+        headers.setContentDispositionFormData("attachment", "receta-monteluz-" + id + "." + renderer.format());
+    }
+
+    // Cita completada con receta completa: se archiva para servirla desde disco mientras sus
+    // datos no cambien (find compara receta y huella)
+    private void archive(AppointmentDTO appointment, PrescriptionDTO prescription, PrescriptionRenderer renderer,
+            String fingerprint, byte[] document) {
+        if (DocumentArchive.archivable(appointment, prescription)) {
+            documentArchive.storeAsync(appointment.getId(), prescription.getId(), renderer.format(), fingerprint, document);
         }
     }
+
+    private <T> ResponseEntity<T> rejected(Long id, PrescriptionRenderer renderer, long start) {
+        log.warn("Pool de renderizado lleno, se rechaza la exportación de la cita {}", id);
+        exportMetrics.recordExport(renderer.format(), "rejected", start);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(renderAdmission.retryAfterSeconds()))
+                .build();
+    }
+
+    // La exportación termina cuando se ha enviado el último buffer del cuerpo
+    private Flux<DataBuffer> timed(Flux<DataBuffer> body, PrescriptionRenderer renderer, String outcome, long start) {
+        return body
+                .doOnError(e -> log.error("Error enviando el documento {}", renderer.format(), e))
+                .doFinally(signal -> exportMetrics.recordExport(renderer.format(),
+                        switch (signal) {
+                            case ON_COMPLETE -> outcome;
+                            case CANCEL -> "cancelled";
+                            default -> "error";
+                        }, start));
+    }
 }
@@ -1,8 +1,14 @@
 package com.clinica.model;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
 import java.time.LocalDateTime;
 import java.util.List;
 
+// Mismos nombres que las columnas de Supabase también al serializar, como los espera el frontend
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
 public class AppointmentDTO {
     private Long id;
     private String patientId;
@@ -12,6 +18,10 @@ public class AppointmentDTO {
     private String diagnosis;
     private Integer rating;
     private String feedback;
+    private LocalDateTime createdAt;
+    // Solo se lee de Supabase (marca de agua de AnalyticsService); no sale en las respuestas
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
+    private LocalDateTime updatedAt;
 
     private ProfileDTO patient;
     private ProfileDTO doctor;
@@ -81,6 +91,22 @@ public class AppointmentDTO {
         this.feedback = feedback;
     }
 
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(LocalDateTime updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
     public ProfileDTO getPatient() {
         return patient;
     }
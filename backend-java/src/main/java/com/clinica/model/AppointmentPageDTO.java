@@ -0,0 +1,29 @@
+package com.clinica.model;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+import java.util.List;
+
+// Página de citas con paginación por cursor: next_cursor se pasa como ?after= para pedir la
+// siguiente; es null en la última página
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public class AppointmentPageDTO {
+    private List<AppointmentDTO> items;
+    private String nextCursor;
+
+    public AppointmentPageDTO() {
+    }
+
+    public AppointmentPageDTO(List<AppointmentDTO> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    // Getters y Setters
+    public List<AppointmentDTO> getItems() { return items; }
+    public void setItems(List<AppointmentDTO> items) { this.items = items; }
+
+    public String getNextCursor() { return nextCursor; }
+    public void setNextCursor(String nextCursor) { this.nextCursor = nextCursor; }
+}
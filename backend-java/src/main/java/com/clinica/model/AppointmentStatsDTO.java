@@ -0,0 +1,73 @@
+package com.clinica.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+import java.time.LocalDate;
+
+// Estadísticas de citas de un doctor (doctor_id) o de una especialidad (specialty_id).
+// Las tasas son sobre las citas ya resueltas (todas menos las programadas) y son null sin
+// ninguna; rating_histogram[i] = valoraciones de i + 1 estrellas. daily_appointments son las
+// citas de cada día desde window_start hasta hoy, y appointments_per_day su media.
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class AppointmentStatsDTO {
+    private String doctorId;
+    private Integer specialtyId;
+    private long appointments;
+    private long scheduled;
+    private long completed;
+    private long cancelled;
+    private Double completionRate;
+    private Double cancellationRate;
+    private long ratings;
+    private Double averageRating;
+    private long[] ratingHistogram;
+    private double appointmentsPerDay;
+    private LocalDate windowStart;
+    private int[] dailyAppointments;
+
+    // Getters y Setters
+    public String getDoctorId() { return doctorId; }
+    public void setDoctorId(String doctorId) { this.doctorId = doctorId; }
+
+    public Integer getSpecialtyId() { return specialtyId; }
+    public void setSpecialtyId(Integer specialtyId) { this.specialtyId = specialtyId; }
+
+    public long getAppointments() { return appointments; }
+    public void setAppointments(long appointments) { this.appointments = appointments; }
+
+    public long getScheduled() { return scheduled; }
+    public void setScheduled(long scheduled) { this.scheduled = scheduled; }
+
+    public long getCompleted() { return completed; }
+    public void setCompleted(long completed) { this.completed = completed; }
+
+    public long getCancelled() { return cancelled; }
+    public void setCancelled(long cancelled) { this.cancelled = cancelled; }
+
+    public Double getCompletionRate() { return completionRate; }
+    public void setCompletionRate(Double completionRate) { this.completionRate = completionRate; }
+
+    public Double getCancellationRate() { return cancellationRate; }
+    public void setCancellationRate(Double cancellationRate) { this.cancellationRate = cancellationRate; }
+
+    public long getRatings() { return ratings; }
+    public void setRatings(long ratings) { this.ratings = ratings; }
+
+    public Double getAverageRating() { return averageRating; }
+    public void setAverageRating(Double averageRating) { this.averageRating = averageRating; }
+
+    public long[] getRatingHistogram() { return ratingHistogram; }
+    public void setRatingHistogram(long[] ratingHistogram) { this.ratingHistogram = ratingHistogram; }
+
+    public double getAppointmentsPerDay() { return appointmentsPerDay; }
+    public void setAppointmentsPerDay(double appointmentsPerDay) { this.appointmentsPerDay = appointmentsPerDay; }
+
+    public LocalDate getWindowStart() { return windowStart; }
+    public void setWindowStart(LocalDate windowStart) { this.windowStart = windowStart; }
+
+    public int[] getDailyAppointments() { return dailyAppointments; }
+    public void setDailyAppointments(int[] dailyAppointments) { this.dailyAppointments = dailyAppointments; }
+}
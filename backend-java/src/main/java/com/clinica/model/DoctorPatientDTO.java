@@ -0,0 +1,38 @@
+package com.clinica.model;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+import java.time.LocalDateTime;
+
+// Paciente atendido por un doctor: su última consulta completada (hora local de la clínica)
+// y cuántas consultas completadas lleva con él
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public class DoctorPatientDTO {
+    private String patientId;
+    private String fullName;
+    private LocalDateTime lastVisit;
+    private int visits;
+
+    public DoctorPatientDTO() {
+    }
+
+    public DoctorPatientDTO(String patientId, LocalDateTime lastVisit, int visits) {
+        this.patientId = patientId;
+        this.lastVisit = lastVisit;
+        this.visits = visits;
+    }
+
+    // Getters y Setters
+    public String getPatientId() { return patientId; }
+    public void setPatientId(String patientId) { this.patientId = patientId; }
+
+    public String getFullName() { return fullName; }
+    public void setFullName(String fullName) { this.fullName = fullName; }
+
+    public LocalDateTime getLastVisit() { return lastVisit; }
+    public void setLastVisit(LocalDateTime lastVisit) { this.lastVisit = lastVisit; }
+
+    public int getVisits() { return visits; }
+    public void setVisits(int visits) { this.visits = visits; }
+}
@@ -0,0 +1,29 @@
+package com.clinica.model;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+import java.util.List;
+
+// Página de pacientes de un doctor: next_cursor se pasa como ?after= para pedir la
+// siguiente; es null en la última página
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public class DoctorPatientPageDTO {
+    private List<DoctorPatientDTO> items;
+    private String nextCursor;
+
+    public DoctorPatientPageDTO() {
+    }
+
+    public DoctorPatientPageDTO(List<DoctorPatientDTO> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    // Getters y Setters
+    public List<DoctorPatientDTO> getItems() { return items; }
+    public void setItems(List<DoctorPatientDTO> items) { this.items = items; }
+
+    public String getNextCursor() { return nextCursor; }
+    public void setNextCursor(String nextCursor) { this.nextCursor = nextCursor; }
+}
@@ -0,0 +1,30 @@
+package com.clinica.model;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+import java.time.Instant;
+import java.util.List;
+
+// Horarios libres de un doctor, como instantes UTC (el mismo valor que el frontend envía
+// en appointment_time al reservar)
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public class DoctorSlotsDTO {
+    private String doctorId;
+    private List<Instant> slots;
+
+    public DoctorSlotsDTO() {
+    }
+
+    public DoctorSlotsDTO(String doctorId, List<Instant> slots) {
+        this.doctorId = doctorId;
+        this.slots = slots;
+    }
+
+    // Getters y Setters
+    public String getDoctorId() { return doctorId; }
+    public void setDoctorId(String doctorId) { this.doctorId = doctorId; }
+
+    public List<Instant> getSlots() { return slots; }
+    public void setSlots(List<Instant> slots) { this.slots = slots; }
+}
@@ -1,5 +1,9 @@
 package com.clinica.model;
 
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
 public class PrescriptionItemDTO {
     private Long id;
     private Long prescriptionId;
@@ -1,12 +1,23 @@
 package com.clinica.model;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+import java.time.LocalDateTime;
+
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
 public class ProfileDTO {
     private String id;
     private String fullName;
     private String email;
     private String role;
     private String licenseNumber;
+    private Integer specialtyId;
     private SpecialtyDTO specialties;
+    // Solo se lee de Supabase (marca de agua del espejo); no sale en las respuestas
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
+    private LocalDateTime updatedAt;
     
     // Getters y Setters
     public String getId() { return id; }
@@ -24,7 +35,13 @@ public class ProfileDTO {
     public String getLicenseNumber() { return licenseNumber; }
     public void setLicenseNumber(String licenseNumber) { this.licenseNumber = licenseNumber; }
     
+    public Integer getSpecialtyId() { return specialtyId; }
+    public void setSpecialtyId(Integer specialtyId) { this.specialtyId = specialtyId; }
+    
     public SpecialtyDTO getSpecialties() { return specialties; }
     public void setSpecialties(SpecialtyDTO specialties) { this.specialties = specialties; }
+    
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
 }
 
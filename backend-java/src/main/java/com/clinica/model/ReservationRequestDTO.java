@@ -0,0 +1,24 @@
+package com.clinica.model;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+import java.time.Instant;
+
+// Reserva de un horario: booked_by_id es el apoderado cuando la cita es para un dependiente
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public class ReservationRequestDTO {
+    private String patientId;
+    private Instant appointmentTime;
+    private String bookedById;
+
+    // Getters y Setters
+    public String getPatientId() { return patientId; }
+    public void setPatientId(String patientId) { this.patientId = patientId; }
+
+    public Instant getAppointmentTime() { return appointmentTime; }
+    public void setAppointmentTime(Instant appointmentTime) { this.appointmentTime = appointmentTime; }
+
+    public String getBookedById() { return bookedById; }
+    public void setBookedById(String bookedById) { this.bookedById = bookedById; }
+}
@@ -0,0 +1,31 @@
+package com.clinica.model;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+// Franja semanal de atención de un doctor. day_of_week como en JavaScript (0 = domingo);
+// start_time / end_time en hora local de la clínica ("08:00:00")
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public class ScheduleDTO {
+    private Long id;
+    private String doctorId;
+    private Integer dayOfWeek;
+    private String startTime;
+    private String endTime;
+
+    // Getters y Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public String getDoctorId() { return doctorId; }
+    public void setDoctorId(String doctorId) { this.doctorId = doctorId; }
+
+    public Integer getDayOfWeek() { return dayOfWeek; }
+    public void setDayOfWeek(Integer dayOfWeek) { this.dayOfWeek = dayOfWeek; }
+
+    public String getStartTime() { return startTime; }
+    public void setStartTime(String startTime) { this.startTime = startTime; }
+
+    public String getEndTime() { return endTime; }
+    public void setEndTime(String endTime) { this.endTime = endTime; }
+}
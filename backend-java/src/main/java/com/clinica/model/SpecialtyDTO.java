@@ -1,9 +1,19 @@
 package com.clinica.model;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+import java.time.LocalDateTime;
+
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
 public class SpecialtyDTO {
     private Integer id;
     private String name;
     private String description;
+    // Solo se lee de Supabase (marca de agua del espejo); no sale en las respuestas
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
+    private LocalDateTime updatedAt;
 
     // Getters y Setters
     public Integer getId() {
@@ -29,4 +39,12 @@ public class SpecialtyDTO {
     public void setDescription(String description) {
         this.description = description;
     }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(LocalDateTime updatedAt) {
+        this.updatedAt = updatedAt;
+    }
 }
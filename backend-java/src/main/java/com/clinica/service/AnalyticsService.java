@@ -0,0 +1,554 @@
+package com.clinica.service;
+
+import com.clinica.config.SupabaseClientConfig;
+import com.clinica.model.AppointmentDTO;
+import com.clinica.model.AppointmentStatsDTO;
+import com.clinica.model.ProfileDTO;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Estadísticas de citas por doctor y por especialidad (valoración media e histograma, tasas
+// de completadas y canceladas, citas por día), sin recorrer las citas en cada consulta:
+//   - Un recorrido completo de appointments (solo cinco columnas, por páginas de page-size)
+//     construye los contadores; se repite cada full-rescan para recoger las citas borradas.
+//   - Cada poll-interval llegan solo las citas con updated_at desde la marca de agua, como en
+//     ReferenceDataSync. Por cita se guarda su estado anterior empaquetado en un long (en una
+//     tabla hash de long a long, sin objetos por cita), así que un cambio resta lo que
+//     contaba antes y suma lo nuevo.
+//   - Los contadores son arrays de long/int por doctor; una especialidad suma los de sus
+//     doctores al consultarla. Una consulta no depende del número de citas.
+// Sin columna updated_at en appointments (PostgREST responde 400) se recorre entero cada
+// fallback-rescan. Los doctores nuevos entran en su especialidad en el siguiente recorrido.
+@Service
+public class AnalyticsService {
+
+    private static final Logger log = LoggerFactory.getLogger(AnalyticsService.class);
+
+    static final int SCHEDULED = 0;
+    static final int COMPLETED = 1;
+    static final int CANCELLED = 2;
+    static final int OTHER = 3;
+
+    static final int NO_DAY = Integer.MIN_VALUE;
+
+    @Autowired
+    private SupabaseService supabaseService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${clinica.analytics.enabled:true}")
+    private boolean enabled;
+
+    @Value("${clinica.analytics.page-size:1000}")
+    private int pageSize;
+
+    @Value("${clinica.analytics.window-days:30}")
+    private int windowDays;
+
+    @Value("${clinica.analytics.full-rescan:6h}")
+    private Duration fullRescan;
+
+    @Value("${clinica.analytics.fallback-rescan:10m}")
+    private Duration fallbackRescan;
+
+    @Value("${clinica.analytics.overlap:5s}")
+    private Duration overlap;
+
+    @Value("${clinica.analytics.timeout:60s}")
+    private Duration timeout;
+
+    // Índice publicado; se sustituye entero en cada recorrido completo
+    private volatile Index index;
+
+    private final AtomicBoolean syncing = new AtomicBoolean();
+    // Estado de la sincronización; solo lo toca el hilo que tiene `syncing`
+    private boolean hasUpdatedAt = true;
+    private Instant watermark;
+    private long scannedAt;
+
+    /** Las estadísticas aún no se han cargado (arranque sin Supabase). */
+    public static class AnalyticsNotReadyException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public AnalyticsNotReadyException() {
+            super("Las estadísticas aún no están cargadas");
+        }
+    }
+
+    @PostConstruct
+    void registerMetrics() {
+        Gauge.builder("clinica.analytics.appointments", this,
+                        service -> service.index != null ? service.index.tracked : 0)
+                .description("Citas contadas en las estadísticas")
+                .register(meterRegistry);
+    }
+
+    // Null si el doctor no tiene ninguna cita
+    public AppointmentStatsDTO doctorStats(String doctorId) {
+        Index current = ready();
+        synchronized (current) {
+            Integer doctor = current.doctorIds.get(doctorId);
+            return doctor != null ? current.doctorStats(doctor) : null;
+        }
+    }
+
+    public List<AppointmentStatsDTO> allDoctorStats() {
+        Index current = ready();
+        synchronized (current) {
+            List<AppointmentStatsDTO> result = new ArrayList<>(current.doctors.size());
+            for (int doctor = 0; doctor < current.doctors.size(); doctor++) {
+                result.add(current.doctorStats(doctor));
+            }
+            return result;
+        }
+    }
+
+    // Null si la especialidad no tiene doctores con citas
+    public AppointmentStatsDTO specialtyStats(Integer specialtyId) {
+        Index current = ready();
+        synchronized (current) {
+            List<Integer> doctors = current.bySpecialty.get(specialtyId);
+            return doctors != null ? current.specialtyStats(specialtyId, doctors) : null;
+        }
+    }
+
+    public List<AppointmentStatsDTO> allSpecialtyStats() {
+        Index current = ready();
+        synchronized (current) {
+            List<AppointmentStatsDTO> result = new ArrayList<>(current.bySpecialty.size());
+            current.bySpecialty.forEach((specialtyId, doctors) -> result.add(current.specialtyStats(specialtyId, doctors)));
+            return result;
+        }
+    }
+
+    private Index ready() {
+        Index current = index;
+        if (current == null) {
+            throw new AnalyticsNotReadyException();
+        }
+        return current;
+    }
+
+    @Scheduled(initialDelay = 0, fixedDelayString = "${clinica.analytics.poll-interval:PT30S}")
+    void poll() {
+        if (!enabled || !syncing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long sinceScan = System.nanoTime() - scannedAt;
+            if (index == null || sinceScan > (hasUpdatedAt ? fullRescan : fallbackRescan).toNanos()) {
+                scan();
+            } else if (hasUpdatedAt) {
+                applyChanges();
+            }
+        } catch (RuntimeException e) {
+            log.warn("No se pudieron actualizar las estadísticas de citas (se mantienen las anteriores): {}",
+                    e.getMessage());
+        } finally {
+            syncing.set(false);
+        }
+    }
+
+    /**
+     * Recorre appointments entero por páginas en orden de id y publica un índice nuevo. Las
+     * especialidades salen de los doctores en ese momento.
+     */
+    private void scan() {
+        long start = System.nanoTime();
+        Instant startedAt = Instant.now();
+        Map<String, Integer> specialtyOf = new HashMap<>();
+        for (ProfileDTO doctor : block(supabaseService.getDoctors().collectList())) {
+            specialtyOf.put(doctor.getId(), doctor.getSpecialtyId());
+        }
+
+        Index next = new Index(specialtyOf);
+        Instant newest = null;
+        Long after = null;
+        List<AppointmentDTO> page;
+        do {
+            page = page(after);
+            for (AppointmentDTO appointment : page) {
+                next.apply(appointment);
+                newest = later(newest, appointment);
+            }
+            if (!page.isEmpty()) {
+                after = page.get(page.size() - 1).getId();
+            }
+        } while (page.size() == pageSize);
+
+        index = next;
+        // Sin citas: los cambios se buscan desde el inicio de este recorrido
+        watermark = newest != null ? newest : startedAt;
+        scannedAt = System.nanoTime();
+        log.info("Estadísticas de citas cargadas: {} citas de {} doctores en {} ms", next.tracked,
+                next.doctors.size(), (scannedAt - start) / 1_000_000);
+    }
+
+    private List<AppointmentDTO> page(Long after) {
+        if (hasUpdatedAt) {
+            try {
+                return block(supabaseService.getReferencePage("appointments", AppointmentDTO.class, true, after, pageSize));
+            } catch (WebClientResponseException.BadRequest e) {
+                if (!SupabaseService.isUndefinedColumn(e)) {
+                    throw e;
+                }
+                log.warn("appointments sin columna updated_at: las estadísticas se recorrerán enteras cada {} ({})",
+                        fallbackRescan, e.getResponseBodyAsString());
+                hasUpdatedAt = false;
+            }
+        }
+        return block(supabaseService.getReferencePage("appointments", AppointmentDTO.class, false, after, pageSize));
+    }
+
+    // Citas cambiadas desde la marca de agua (menos `overlap`: repetir una cita no cambia nada),
+    // por páginas sobre (updated_at, id)
+    private void applyChanges() {
+        Index current = index;
+        Instant since = watermark.minus(overlap);
+        Instant afterUpdatedAt = null;
+        Long afterId = null;
+        int changed = 0;
+        List<AppointmentDTO> page;
+        do {
+            page = block(supabaseService.getReferenceChanges("appointments", AppointmentDTO.class, since,
+                    afterUpdatedAt, afterId, pageSize));
+            synchronized (current) {
+                for (AppointmentDTO appointment : page) {
+                    current.apply(appointment);
+                    watermark = later(watermark, appointment);
+                }
+            }
+            changed += page.size();
+            if (!page.isEmpty()) {
+                AppointmentDTO last = page.get(page.size() - 1);
+                afterUpdatedAt = instant(last.getUpdatedAt());
+                afterId = last.getId();
+            }
+        } while (page.size() == pageSize);
+        log.debug("Estadísticas de citas: {} citas cambiadas desde {}", changed, since);
+    }
+
+    private <T> T block(Mono<T> query) {
+        return query.block(timeout);
+    }
+
+    private static Instant later(Instant current, AppointmentDTO appointment) {
+        if (appointment.getUpdatedAt() == null) {
+            return current;
+        }
+        Instant candidate = instant(appointment.getUpdatedAt());
+        return current == null || candidate.isAfter(current) ? candidate : current;
+    }
+
+    private static Instant instant(LocalDateTime clinicTime) {
+        return clinicTime.atZone(SupabaseClientConfig.CLINIC_ZONE).toInstant();
+    }
+
+    static int status(String status) {
+        if (status == null) {
+            return OTHER;
+        }
+        return switch (status) {
+            case "scheduled" -> SCHEDULED;
+            case "completed" -> COMPLETED;
+            case "cancelled", "canceled" -> CANCELLED;
+            default -> OTHER;
+        };
+    }
+
+    // Estado de una cita en un long (0 = no cuenta: no existe o no tiene doctor):
+    //   bits 0-23 doctor + 1 | 24-25 estado | 26-28 valoración (0 = sin valorar) | 32-63 día
+    static long pack(int doctor, int status, int rating, int day) {
+        return (doctor + 1L) | ((long) status << 24) | ((long) rating << 26) | ((long) day << 32);
+    }
+
+    static int doctorOf(long state) {
+        return (int) (state & 0xFFFFFF) - 1;
+    }
+
+    static int statusOf(long state) {
+        return (int) (state >>> 24) & 3;
+    }
+
+    static int ratingOf(long state) {
+        return (int) (state >>> 26) & 7;
+    }
+
+    static int dayOf(long state) {
+        return (int) (state >>> 32);
+    }
+
+    // Contadores de un doctor: citas por estado, valoraciones de 1 a 5 y citas por día
+    private static final class Stats {
+
+        final long[] byStatus = new long[4];
+        final long[] ratings = new long[5];
+        long ratingSum;
+        final DailyCounts daily = new DailyCounts();
+
+        void add(long state, int sign) {
+            byStatus[statusOf(state)] += sign;
+            int rating = ratingOf(state);
+            if (rating > 0) {
+                ratings[rating - 1] += sign;
+                ratingSum += (long) sign * rating;
+            }
+            int day = dayOf(state);
+            if (day != NO_DAY) {
+                daily.add(day, sign);
+            }
+        }
+    }
+
+    // Citas por día (epoch day) en un int[] contiguo que crece por los dos extremos
+    private static final class DailyCounts {
+
+        private int first;
+        private int[] counts = new int[0];
+
+        void add(int day, int delta) {
+            if (counts.length == 0) {
+                first = day - 32;
+                counts = new int[64];
+            } else if (day < first) {
+                int shift = Math.max(first - day, counts.length);
+                int[] grown = new int[counts.length + shift];
+                System.arraycopy(counts, 0, grown, shift, counts.length);
+                counts = grown;
+                first -= shift;
+            } else if (day - first >= counts.length) {
+                counts = Arrays.copyOf(counts, Math.max(day - first + 1, counts.length * 2));
+            }
+            counts[day - first] += delta;
+        }
+
+        int get(int day) {
+            int i = day - first;
+            return i >= 0 && i < counts.length ? counts[i] : 0;
+        }
+    }
+
+    // Estado de cada cita por id: direccionamiento abierto con sondeo lineal sobre dos long[]
+    // (id y estado), con carga máxima 3/4: entre 21 y 43 bytes por cita, sea cual sea el id
+    // más alto. Una cita que deja de contar se queda con estado 0; el siguiente recorrido completo
+    // empieza con una tabla nueva.
+    static final class StateTable {
+
+        private static final long EMPTY = -1;
+
+        private long[] keys;
+        private long[] values;
+        private int shift;
+        private int size;
+
+        StateTable(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(16, expected * 4 / 3) - 1) << 1;
+            allocate(capacity);
+        }
+
+        // 0 si la cita no está
+        long get(long id) {
+            int mask = keys.length - 1;
+            for (int i = slot(id); ; i = (i + 1) & mask) {
+                if (keys[i] == id) {
+                    return values[i];
+                }
+                if (keys[i] == EMPTY) {
+                    return 0;
+                }
+            }
+        }
+
+        void put(long id, long value) {
+            int mask = keys.length - 1;
+            int i = slot(id);
+            while (keys[i] != EMPTY && keys[i] != id) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == id) {
+                values[i] = value;
+                return;
+            }
+            if (value == 0) {
+                return;
+            }
+            keys[i] = id;
+            values[i] = value;
+            if (++size > keys.length / 4 * 3) {
+                long[] oldKeys = keys;
+                long[] oldValues = values;
+                allocate(keys.length * 2);
+                for (int j = 0; j < oldKeys.length; j++) {
+                    if (oldKeys[j] != EMPTY) {
+                        insert(oldKeys[j], oldValues[j]);
+                    }
+                }
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        int capacity() {
+            return keys.length;
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            values = new long[capacity];
+            shift = Long.numberOfLeadingZeros(capacity - 1);
+        }
+
+        // Solo al crecer: la clave no está y hay sitio
+        private void insert(long id, long value) {
+            int mask = keys.length - 1;
+            int i = slot(id);
+            while (keys[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = id;
+            values[i] = value;
+        }
+
+        // Hash de Fibonacci: los ids consecutivos de un bigserial se reparten por toda la tabla
+        private int slot(long id) {
+            return (int) ((id * 0x9E3779B97F4A7C15L) >>> shift);
+        }
+    }
+
+    private final class Index {
+
+        private final Map<String, Integer> specialtyOf;
+        private final Map<String, Integer> doctorIds = new HashMap<>();
+        private final List<String> doctorIdList = new ArrayList<>();
+        private final List<Stats> doctors = new ArrayList<>();
+        private final Map<Integer, List<Integer>> bySpecialty = new HashMap<>();
+        private final StateTable states = new StateTable(1024);
+        private long tracked;
+
+        Index(Map<String, Integer> specialtyOf) {
+            this.specialtyOf = specialtyOf;
+        }
+
+        // Resta lo que contaba la cita y suma su estado nuevo
+        void apply(AppointmentDTO appointment) {
+            Long id = appointment.getId();
+            if (id == null || id < 0) {
+                log.warn("Cita con id {} no válido, no se cuenta en las estadísticas", id);
+                return;
+            }
+            long previous = states.get(id);
+            long next = 0;
+            if (appointment.getDoctorId() != null) {
+                Integer rating = appointment.getRating();
+                LocalDateTime time = appointment.getAppointmentTime();
+                next = pack(doctor(appointment.getDoctorId()), status(appointment.getStatus()),
+                        rating != null && rating >= 1 && rating <= 5 ? rating : 0,
+                        time != null ? (int) time.toLocalDate().toEpochDay() : NO_DAY);
+            }
+            if (previous == next) {
+                return;
+            }
+            if (previous != 0) {
+                doctors.get(doctorOf(previous)).add(previous, -1);
+                tracked--;
+            }
+            if (next != 0) {
+                doctors.get(doctorOf(next)).add(next, 1);
+                tracked++;
+            }
+            states.put(id, next);
+        }
+
+        private int doctor(String doctorId) {
+            Integer doctor = doctorIds.get(doctorId);
+            if (doctor == null) {
+                doctor = doctors.size();
+                doctorIds.put(doctorId, doctor);
+                doctorIdList.add(doctorId);
+                doctors.add(new Stats());
+                Integer specialtyId = specialtyOf.get(doctorId);
+                if (specialtyId != null) {
+                    bySpecialty.computeIfAbsent(specialtyId, key -> new ArrayList<>()).add(doctor);
+                }
+            }
+            return doctor;
+        }
+
+        AppointmentStatsDTO doctorStats(int doctor) {
+            AppointmentStatsDTO stats = summarize(List.of(doctor));
+            stats.setDoctorId(doctorIdList.get(doctor));
+            stats.setSpecialtyId(specialtyOf.get(doctorIdList.get(doctor)));
+            return stats;
+        }
+
+        AppointmentStatsDTO specialtyStats(Integer specialtyId, List<Integer> doctorsOfSpecialty) {
+            AppointmentStatsDTO stats = summarize(doctorsOfSpecialty);
+            stats.setSpecialtyId(specialtyId);
+            return stats;
+        }
+
+        private AppointmentStatsDTO summarize(List<Integer> group) {
+            long[] byStatus = new long[4];
+            long[] histogram = new long[5];
+            long ratingSum = 0;
+            LocalDate windowStart = LocalDate.now(SupabaseClientConfig.CLINIC_ZONE).minusDays(windowDays - 1L);
+            int firstDay = (int) windowStart.toEpochDay();
+            int[] daily = new int[windowDays];
+            for (int doctor : group) {
+                Stats stats = doctors.get(doctor);
+                for (int i = 0; i < byStatus.length; i++) {
+                    byStatus[i] += stats.byStatus[i];
+                }
+                for (int i = 0; i < histogram.length; i++) {
+                    histogram[i] += stats.ratings[i];
+                }
+                ratingSum += stats.ratingSum;
+                for (int i = 0; i < windowDays; i++) {
+                    daily[i] += stats.daily.get(firstDay + i);
+                }
+            }
+
+            long total = Arrays.stream(byStatus).sum();
+            long resolved = total - byStatus[SCHEDULED];
+            long ratings = Arrays.stream(histogram).sum();
+            AppointmentStatsDTO dto = new AppointmentStatsDTO();
+            dto.setAppointments(total);
+            dto.setScheduled(byStatus[SCHEDULED]);
+            dto.setCompleted(byStatus[COMPLETED]);
+            dto.setCancelled(byStatus[CANCELLED]);
+            dto.setCompletionRate(resolved > 0 ? (double) byStatus[COMPLETED] / resolved : null);
+            dto.setCancellationRate(resolved > 0 ? (double) byStatus[CANCELLED] / resolved : null);
+            dto.setRatings(ratings);
+            dto.setAverageRating(ratings > 0 ? (double) ratingSum / ratings : null);
+            dto.setRatingHistogram(histogram);
+            dto.setAppointmentsPerDay((double) Arrays.stream(daily).sum() / windowDays);
+            dto.setWindowStart(windowStart);
+            dto.setDailyAppointments(daily);
+            return dto;
+        }
+    }
+}
@@ -0,0 +1,503 @@
+package com.clinica.service;
+
+import com.clinica.config.SupabaseClientConfig;
+import com.clinica.model.AppointmentDTO;
+import com.clinica.model.DoctorSlotsDTO;
+import com.clinica.model.ProfileDTO;
+import com.clinica.model.ReservationRequestDTO;
+import com.clinica.model.ScheduleDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Disponibilidad de los doctores en memoria, para no repetir en cada consulta lo que hace
+// el frontend (horarios + citas programadas + generar los huecos de 30 minutos):
+//   - Por doctor, sus franjas semanales en minutos del día (int[] por día de la semana) y
+//     sus citas programadas como minutos desde epoch, en un int[] ordenado.
+//   - Los huecos libres salen de recorrer las franjas y buscar cada hueco en el array con
+//     una búsqueda binaria: microsegundos, sin ir a Supabase.
+//   - Las reservas y cancelaciones hechas a través de este backend actualizan el índice al
+//     momento; lo que se haga por otros caminos (el frontend directo, otro nodo) entra con la
+//     recarga periódica (clinica.availability.refresh).
+//   - Una recarga no pierde las reservas locales: repite sobre el índice nuevo las hechas o
+//     resueltas mientras leía Supabase y las que aún esperan respuesta de la inserción. Una
+//     reserva abandonada por el cliente deja el hueco ocupado (la inserción pudo confirmarse
+//     igualmente); la siguiente recarga lo libera si no llegó a Supabase.
+// Lecturas sin bloqueo: cada doctor publica un array nuevo al cambiar (copy-on-write) y las
+// escrituras se serializan en un único lock, que solo protege unas pocas copias de arrays.
+@Service
+public class AvailabilityService {
+
+    private static final Logger log = LoggerFactory.getLogger(AvailabilityService.class);
+
+    private static final int[] NONE = new int[0];
+    private static final String SLOT_TAKEN = "23505";
+
+    @Autowired
+    private SupabaseService supabaseService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${clinica.availability.slot-minutes:30}")
+    private int slotMinutes;
+
+    @Value("${clinica.availability.max-days:31}")
+    private int maxDays;
+
+    @Value("${clinica.availability.refresh-timeout:30s}")
+    private Duration refreshTimeout;
+
+    // Índice publicado; se sustituye entero en cada recarga
+    private volatile Map<String, DoctorIndex> doctors;
+    private volatile Map<Integer, List<String>> doctorsBySpecialty = Map.of();
+
+    private final Object writeLock = new Object();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    // Cambios locales hechos mientras se recarga: se repiten sobre el índice nuevo antes de publicarlo
+    private List<Change> pendingChanges;
+    // Huecos apartados cuya inserción en Supabase aún no ha respondido (bajo writeLock)
+    private final List<Change> holds = new ArrayList<>();
+
+    private record Change(String doctorId, int minute, boolean booked) {
+    }
+
+    /** La cita no se puede reservar: el hueco está ocupado o no es un horario del doctor. */
+    public static class SlotNotAvailableException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public SlotNotAvailableException(String message) {
+            super(message);
+        }
+    }
+
+    /** El índice aún no se ha cargado (arranque sin Supabase). */
+    public static class AvailabilityNotReadyException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public AvailabilityNotReadyException() {
+            super("La disponibilidad aún no está cargada");
+        }
+    }
+
+    @PostConstruct
+    void registerMetrics() {
+        Gauge.builder("clinica.availability.doctors", this, service -> service.doctors != null ? service.doctors.size() : 0)
+                .description("Doctores en el índice de disponibilidad")
+                .register(meterRegistry);
+    }
+
+    public boolean isReady() {
+        return doctors != null;
+    }
+
+    // Un doctor sin horario registrado no tiene huecos: lista vacía, como en el frontend
+    public DoctorSlotsDTO freeSlotsForDoctor(String doctorId, LocalDate from, LocalDate to) {
+        DoctorIndex doctor = index().get(doctorId);
+        LocalDate last = checkRange(from, to);
+        return new DoctorSlotsDTO(doctorId, doctor != null ? doctor.freeSlots(from, last, now(), slotMinutes) : List.of());
+    }
+
+    public List<DoctorSlotsDTO> freeSlotsForSpecialty(Integer specialtyId, LocalDate from, LocalDate to) {
+        Map<String, DoctorIndex> index = index();
+        LocalDate last = checkRange(from, to);
+        int now = now();
+        List<DoctorSlotsDTO> result = new ArrayList<>();
+        for (String doctorId : doctorsBySpecialty.getOrDefault(specialtyId, List.of())) {
+            DoctorIndex doctor = index.get(doctorId);
+            if (doctor != null) {
+                result.add(new DoctorSlotsDTO(doctorId, doctor.freeSlots(from, last, now, slotMinutes)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reserva un hueco: se comprueba y se aparta en el índice de forma atómica, y solo si
+     * estaba libre se inserta la cita en Supabase (en nombre del usuario, ver
+     * SupabaseService.insertAppointment). Dos reservas del mismo hueco en este nodo no llegan
+     * las dos a Supabase; entre nodos sigue mandando la restricción única de la tabla (23505).
+     */
+    public Mono<AppointmentDTO> reserve(String doctorId, ReservationRequestDTO request, String authorization) {
+        return Mono.defer(() -> {
+            Instant time = request.getAppointmentTime();
+            if (request.getPatientId() == null || time == null) {
+                return Mono.error(new IllegalArgumentException("patient_id y appointment_time son obligatorios"));
+            }
+            int minute = Math.toIntExact(time.getEpochSecond() / 60);
+            if (time.getEpochSecond() % 60 != 0 || time.getNano() != 0) {
+                return Mono.error(new SlotNotAvailableException("El horario no coincide con un hueco de la agenda"));
+            }
+            Change held = hold(doctorId, minute);
+
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("patient_id", request.getPatientId());
+            row.put("doctor_id", doctorId);
+            row.put("appointment_time", time.toString());
+            row.put("status", "scheduled");
+            if (request.getBookedById() != null) {
+                row.put("booked_by_id", request.getBookedById());
+            }
+
+            return supabaseService.insertAppointment(row, authorization)
+                    .doOnSuccess(created -> {
+                        settle(held, true);
+                        reservation("reserved");
+                    })
+                    .onErrorResume(WebClientResponseException.class, e -> {
+                        if (!isSlotTaken(e)) {
+                            return Mono.error(e);
+                        }
+                        // Reservado por otro camino: el hueco queda ocupado en el índice
+                        settle(held, true);
+                        reservation("conflict_remote");
+                        return Mono.error(new SlotNotAvailableException("Este horario ya fue reservado"));
+                    })
+                    .doOnError(e -> !(e instanceof SlotNotAvailableException), e -> {
+                        settle(held, false);
+                        reservation("error");
+                    })
+                    // El cliente se fue: la inserción pudo llegar a Supabase, así que el hueco
+                    // sigue ocupado hasta que la siguiente recarga diga lo contrario
+                    .doOnCancel(() -> settle(held, true));
+        });
+    }
+
+    // Cancela una cita programada y libera su hueco; vacío si no había nada que cancelar
+    public Mono<AppointmentDTO> cancel(Long appointmentId, String authorization) {
+        return supabaseService.cancelAppointment(appointmentId, authorization)
+                .doOnNext(cancelled -> {
+                    if (cancelled.getDoctorId() != null && cancelled.getAppointmentTime() != null) {
+                        release(cancelled.getDoctorId(), toMinute(cancelled));
+                    }
+                });
+    }
+
+    // 1. Comprueba que el hueco existe en la agenda del doctor y está libre
+    // 2. Lo marca ocupado en el mismo paso, para que una segunda reserva ya lo vea tomado
+    private Change hold(String doctorId, int minute) {
+        synchronized (writeLock) {
+            DoctorIndex doctor = index().get(doctorId);
+            if (doctor == null || !doctor.offers(minute, slotMinutes)) {
+                reservation("invalid");
+                throw new SlotNotAvailableException("El doctor no atiende en ese horario");
+            }
+            if (minute <= now() || !doctor.isFree(minute, slotMinutes)) {
+                reservation("conflict_local");
+                throw new SlotNotAvailableException("Este horario ya fue reservado");
+            }
+            Change held = new Change(doctorId, minute, true);
+            apply(doctors, held);
+            holds.add(held);
+            return held;
+        }
+    }
+
+    // La inserción respondió (o se abandonó): el hueco deja de estar en curso y queda ocupado
+    // o se libera. Con una recarga en marcha se anota también el resultado, porque su lectura
+    // de Supabase pudo hacerse antes de que la cita se confirmara.
+    private void settle(Change held, boolean booked) {
+        synchronized (writeLock) {
+            if (!holds.remove(held)) {
+                return;
+            }
+            if (!booked) {
+                release(held.doctorId(), held.minute());
+            } else if (pendingChanges != null) {
+                pendingChanges.add(held);
+            }
+        }
+    }
+
+    private void release(String doctorId, int minute) {
+        synchronized (writeLock) {
+            if (doctors != null) {
+                apply(doctors, new Change(doctorId, minute, false));
+            }
+        }
+    }
+
+    // Siempre bajo writeLock
+    private void apply(Map<String, DoctorIndex> index, Change change) {
+        DoctorIndex doctor = index.get(change.doctorId());
+        if (doctor != null) {
+            doctor.booked = change.booked() ? insert(doctor.booked, change.minute()) : remove(doctor.booked, change.minute());
+        }
+        if (pendingChanges != null && index == doctors) {
+            pendingChanges.add(change);
+        }
+    }
+
+    /**
+     * Recarga el índice completo: horarios, doctores y citas programadas desde ahora. Son tres
+     * consultas para todos los doctores; el índice nuevo se construye aparte y se publica de
+     * una vez, repitiendo antes las reservas y cancelaciones locales hechas mientras tanto.
+     */
+    @Scheduled(initialDelay = 0, fixedDelayString = "${clinica.availability.refresh:PT30S}")
+    void refresh() {
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            synchronized (writeLock) {
+                pendingChanges = new ArrayList<>();
+            }
+            Instant since = Instant.now().minus(Duration.ofMinutes(slotMinutes));
+            Mono<List<ScheduleDTO>> schedules = supabaseService.getSchedules().collectList();
+            Mono<List<ProfileDTO>> doctorProfiles = supabaseService.getDoctors().collectList();
+            Mono<List<AppointmentDTO>> scheduled = supabaseService.getScheduledAppointments(since).collectList();
+            var loaded = Mono.zip(schedules, doctorProfiles, scheduled).block(refreshTimeout);
+
+            Map<String, DoctorIndex> index = build(loaded.getT1(), loaded.getT2(), loaded.getT3());
+            Map<Integer, List<String>> bySpecialty = new HashMap<>();
+            for (ProfileDTO doctor : loaded.getT2()) {
+                if (doctor.getSpecialtyId() != null) {
+                    bySpecialty.computeIfAbsent(doctor.getSpecialtyId(), id -> new ArrayList<>()).add(doctor.getId());
+                }
+            }
+            synchronized (writeLock) {
+                for (Change change : pendingChanges) {
+                    apply(index, change);
+                }
+                // Inserciones aún sin respuesta: la lectura de Supabase no puede incluirlas
+                for (Change held : holds) {
+                    apply(index, held);
+                }
+                pendingChanges = null;
+                doctorsBySpecialty = bySpecialty;
+                doctors = index;
+            }
+            log.debug("Disponibilidad recargada: {} doctores, {} citas programadas en {} ms", index.size(),
+                    loaded.getT3().size(), (System.nanoTime() - start) / 1_000_000);
+        } catch (RuntimeException e) {
+            synchronized (writeLock) {
+                pendingChanges = null;
+            }
+            log.warn("No se pudo recargar la disponibilidad (se mantiene la anterior): {}", e.getMessage());
+        } finally {
+            refreshing.set(false);
+        }
+    }
+
+    private Map<String, DoctorIndex> build(List<ScheduleDTO> schedules, List<ProfileDTO> doctorProfiles,
+            List<AppointmentDTO> scheduled) {
+        // 1. Franjas por doctor y día, en minutos del día
+        Map<String, List<List<int[]>>> windows = new HashMap<>();
+        for (ScheduleDTO schedule : schedules) {
+            Integer day = schedule.getDayOfWeek();
+            if (schedule.getDoctorId() == null || day == null || day < 0 || day > 6) {
+                continue;
+            }
+            try {
+                int start = minuteOfDay(schedule.getStartTime());
+                int end = minuteOfDay(schedule.getEndTime());
+                if (start < end) {
+                    windows.computeIfAbsent(schedule.getDoctorId(), id -> emptyWeek()).get(day).add(new int[] { start, end });
+                }
+            } catch (DateTimeParseException | NullPointerException e) {
+                log.warn("Horario {} con horas inválidas: {}-{}", schedule.getId(), schedule.getStartTime(),
+                        schedule.getEndTime());
+            }
+        }
+
+        // 2. Citas programadas por doctor, como minutos desde epoch
+        Map<String, List<Integer>> booked = new HashMap<>();
+        for (AppointmentDTO appointment : scheduled) {
+            if (appointment.getDoctorId() != null && appointment.getAppointmentTime() != null) {
+                booked.computeIfAbsent(appointment.getDoctorId(), id -> new ArrayList<>()).add(toMinute(appointment));
+            }
+        }
+
+        // 3. Un DoctorIndex por doctor con horario (los demás no tienen huecos que ofrecer)
+        Map<String, DoctorIndex> index = new HashMap<>();
+        windows.forEach((doctorId, week) -> {
+            int[][] days = new int[7][];
+            for (int day = 0; day < 7; day++) {
+                days[day] = merge(week.get(day));
+            }
+            int[] minutes = booked.getOrDefault(doctorId, List.of()).stream().mapToInt(Integer::intValue)
+                    .sorted().distinct().toArray();
+            index.put(doctorId, new DoctorIndex(days, minutes));
+        });
+        return index;
+    }
+
+    // Agenda de un doctor: franjas por día (0 = domingo) como pares [inicio, fin) en minutos
+    // del día, y citas programadas ordenadas en minutos desde epoch
+    private static final class DoctorIndex {
+
+        private final int[][] windows;
+        private volatile int[] booked;
+
+        DoctorIndex(int[][] windows, int[] booked) {
+            this.windows = windows;
+            this.booked = booked;
+        }
+
+        List<Instant> freeSlots(LocalDate from, LocalDate to, int now, int slot) {
+            int[] taken = booked;
+            List<Instant> slots = new ArrayList<>();
+            for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+                int[] day = windows[date.getDayOfWeek().getValue() % 7];
+                int midnight = midnight(date);
+                for (int w = 0; w < day.length; w += 2) {
+                    // Solo huecos que terminan dentro de la franja
+                    for (int minute = midnight + day[w]; minute + slot <= midnight + day[w + 1]; minute += slot) {
+                        if (minute > now && isFree(taken, minute, slot)) {
+                            slots.add(Instant.ofEpochSecond(minute * 60L));
+                        }
+                    }
+                }
+            }
+            return slots;
+        }
+
+        boolean offers(int minute, int slot) {
+            LocalDate date = Instant.ofEpochSecond(minute * 60L).atZone(SupabaseClientConfig.CLINIC_ZONE).toLocalDate();
+            int[] day = windows[date.getDayOfWeek().getValue() % 7];
+            int offset = minute - midnight(date);
+            for (int w = 0; w < day.length; w += 2) {
+                if (offset >= day[w] && offset + slot <= day[w + 1] && (offset - day[w]) % slot == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean isFree(int minute, int slot) {
+            return isFree(booked, minute, slot);
+        }
+
+        // Libre si ninguna cita empieza a menos de un hueco de distancia
+        private static boolean isFree(int[] taken, int minute, int slot) {
+            int position = Arrays.binarySearch(taken, minute - slot + 1);
+            int next = position >= 0 ? position : -position - 1;
+            return next == taken.length || taken[next] >= minute + slot;
+        }
+    }
+
+    private Map<String, DoctorIndex> index() {
+        Map<String, DoctorIndex> index = doctors;
+        if (index == null) {
+            throw new AvailabilityNotReadyException();
+        }
+        return index;
+    }
+
+    private LocalDate checkRange(LocalDate from, LocalDate to) {
+        if (from.isAfter(to) || from.plusDays(maxDays - 1L).isBefore(to)) {
+            throw new IllegalArgumentException("El rango debe tener entre 1 y " + maxDays + " días");
+        }
+        return to;
+    }
+
+    private void reservation(String outcome) {
+        Counter.builder("clinica.availability.reservations")
+                .description("Reservas de horario por resultado")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private static boolean isSlotTaken(WebClientResponseException e) {
+        return e.getStatusCode().isSameCodeAs(HttpStatus.CONFLICT)
+                && e.getResponseBodyAsString().contains("\"" + SLOT_TAKEN + "\"");
+    }
+
+    private static int now() {
+        return Math.toIntExact(Instant.now().getEpochSecond() / 60);
+    }
+
+    private static int midnight(LocalDate date) {
+        return Math.toIntExact(date.atStartOfDay(SupabaseClientConfig.CLINIC_ZONE).toEpochSecond() / 60);
+    }
+
+    private static int toMinute(AppointmentDTO appointment) {
+        return Math.toIntExact(appointment.getAppointmentTime().atZone(SupabaseClientConfig.CLINIC_ZONE)
+                .toEpochSecond() / 60);
+    }
+
+    // "08:00:00" o "08:00" (hora local de la clínica)
+    private static int minuteOfDay(String time) {
+        return LocalTime.parse(time).toSecondOfDay() / 60;
+    }
+
+    private static List<List<int[]>> emptyWeek() {
+        List<List<int[]>> week = new ArrayList<>(7);
+        for (int day = 0; day < 7; day++) {
+            week.add(new ArrayList<>());
+        }
+        return week;
+    }
+
+    // Franjas del día ordenadas y sin solapes, aplanadas en [inicio0, fin0, inicio1, fin1, ...]
+    private static int[] merge(List<int[]> windows) {
+        if (windows.isEmpty()) {
+            return NONE;
+        }
+        windows.sort((a, b) -> Integer.compare(a[0], b[0]));
+        List<int[]> merged = new ArrayList<>();
+        for (int[] window : windows) {
+            int[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && window[0] <= last[1]) {
+                last[1] = Math.max(last[1], window[1]);
+            } else {
+                merged.add(new int[] { window[0], window[1] });
+            }
+        }
+        int[] flat = new int[merged.size() * 2];
+        for (int i = 0; i < merged.size(); i++) {
+            flat[2 * i] = merged.get(i)[0];
+            flat[2 * i + 1] = merged.get(i)[1];
+        }
+        return flat;
+    }
+
+    private static int[] insert(int[] sorted, int minute) {
+        int position = Arrays.binarySearch(sorted, minute);
+        if (position >= 0) {
+            return sorted;
+        }
+        int at = -position - 1;
+        int[] copy = new int[sorted.length + 1];
+        System.arraycopy(sorted, 0, copy, 0, at);
+        copy[at] = minute;
+        System.arraycopy(sorted, at, copy, at + 1, sorted.length - at);
+        return copy;
+    }
+
+    private static int[] remove(int[] sorted, int minute) {
+        int position = Arrays.binarySearch(sorted, minute);
+        if (position < 0) {
+            return sorted;
+        }
+        int[] copy = new int[sorted.length - 1];
+        System.arraycopy(sorted, 0, copy, 0, position);
+        System.arraycopy(sorted, position + 1, copy, position, sorted.length - position - 1);
+        return copy;
+    }
+}
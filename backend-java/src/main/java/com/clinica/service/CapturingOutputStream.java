@@ -0,0 +1,90 @@
+package com.clinica.service;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// Reenvía todo lo escrito al stream destino y guarda una copia mientras no supere
+// el límite; si lo supera, descarta la copia y sigue solo reenviando.
+// La copia va en bloques fijos (sin duplicar un array al crecer) y getCaptured los junta una
+// sola vez en un array del tamaño exacto, que es lo que guarda la caché.
+public class CapturingOutputStream extends FilterOutputStream {
+
+    private static final int CHUNK = 8192;
+
+    private final int limit;
+    private List<byte[]> chunks = new ArrayList<>();
+    private byte[] current;
+    private int position = CHUNK;
+    private int count;
+
+    public CapturingOutputStream(OutputStream target, int limit) {
+        super(target);
+        this.limit = limit;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        if (reserve(1)) {
+            room()[position++] = (byte) b;
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        if (!reserve(len)) {
+            return;
+        }
+        while (len > 0) {
+            byte[] chunk = room();
+            int n = Math.min(len, CHUNK - position);
+            System.arraycopy(b, off, chunk, position, n);
+            position += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    // Cuenta len bytes más en la copia; false (y la copia se descarta) si ya no caben
+    private boolean reserve(int len) {
+        if (chunks == null) {
+            return false;
+        }
+        if (count + len > limit) {
+            chunks = null;
+            current = null;
+            return false;
+        }
+        count += len;
+        return true;
+    }
+
+    // Bloque con sitio para al menos un byte más
+    private byte[] room() {
+        if (position == CHUNK) {
+            current = new byte[CHUNK];
+            chunks.add(current);
+            position = 0;
+        }
+        return current;
+    }
+
+    // Copia capturada, o null si el contenido superó el límite
+    public byte[] getCaptured() {
+        if (chunks == null) {
+            return null;
+        }
+        byte[] captured = new byte[count];
+        int offset = 0;
+        for (byte[] chunk : chunks) {
+            int n = Math.min(CHUNK, count - offset);
+            System.arraycopy(chunk, 0, captured, offset, n);
+            offset += n;
+        }
+        return captured;
+    }
+}
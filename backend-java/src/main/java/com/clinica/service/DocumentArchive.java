@@ -0,0 +1,425 @@
+package com.clinica.service;
+
+import com.clinica.model.AppointmentDTO;
+import com.clinica.model.PrescriptionDTO;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+// Archivo local de recetas ya emitidas. Una cita completada aún puede cambiar (el diagnóstico
+// se añade después, y la receta se crea en dos inserts: cabecera e items), así que el archivo
+// no sustituye a la lectura de Supabase: quien exporta lee la cita, calcula la huella y solo
+// sirve el documento archivado si se generó con esa misma receta y esa misma huella. Se ahorra
+// el render; el controlador envía el fichero con sendfile (zero-copy) sin pasar por el heap.
+//
+//   <dir>/docs/<ab>/<huella>.<formato>   un fichero por documento, direccionado por su huella
+//   <dir>/index.log                       diario append-only, una línea por alta o baja:
+//     A <cita> <receta> <formato> <huella> <bytes> <sha256> <epoch ms>
+//     D <cita> <formato>
+// Al arrancar se reproduce el diario (gana la última línea de cada cita+formato). verify()
+// comprueba tamaño y SHA-256 de cada documento y da de baja los dañados; compact() reescribe
+// el diario solo con las entradas vivas y borra los ficheros huérfanos.
+@Component
+public class DocumentArchive {
+
+    private static final Logger log = LoggerFactory.getLogger(DocumentArchive.class);
+
+    private static final String JOURNAL = "index.log";
+
+    // Documento archivado; path es absoluto
+    public record ArchivedDocument(long appointmentId, long prescriptionId, String format, String fingerprint,
+            long size, String sha256, long archivedAt, Path path) {
+    }
+
+    public record VerifyResult(int checked, int missing, int corrupt) {
+    }
+
+    public record CompactResult(int entries, long journalBytesBefore, long journalBytesAfter, int orphansDeleted) {
+    }
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${clinica.archive.enabled:true}")
+    private boolean enabled;
+
+    @Value("${clinica.archive.dir:./data/archive}")
+    private String location;
+
+    private final Map<String, ArchivedDocument> entries = new ConcurrentHashMap<>();
+    private Path directory;
+    private FileChannel journal;
+
+    @PostConstruct
+    void open() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        directory = Files.createDirectories(Path.of(location).toAbsolutePath());
+        Files.createDirectories(directory.resolve("docs"));
+        Path journalPath = directory.resolve(JOURNAL);
+
+        int lines = 0;
+        int malformed = 0;
+        if (Files.exists(journalPath)) {
+            try (BufferedReader reader = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines++;
+                    if (!replay(line)) {
+                        malformed++;
+                    }
+                }
+            }
+        }
+        boolean torn = Files.exists(journalPath) && endsMidLine(journalPath);
+        journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (torn) {
+            // Se cierra la línea incompleta: si no, la siguiente alta se pegaría a ella y también
+            // se perdería al reproducir el diario
+            append("");
+        }
+
+        Gauge.builder("clinica.archive.documents", entries, Map::size)
+                .description("Documentos en el archivo local")
+                .register(meterRegistry);
+        Gauge.builder("clinica.archive.bytes", entries,
+                        all -> all.values().stream().mapToLong(ArchivedDocument::size).sum())
+                .description("Bytes de documentos en el archivo local")
+                .register(meterRegistry);
+        log.info("Archivo de recetas en {}: {} documentos ({} líneas de diario, {} ilegibles)",
+                directory, entries.size(), lines, malformed);
+    }
+
+    // Una escritura interrumpida deja como mucho una última línea incompleta: se ignora
+    private boolean replay(String line) {
+        String[] f = line.split("\t");
+        try {
+            if (f.length == 8 && f[0].equals("A")) {
+                long appointmentId = Long.parseLong(f[1]);
+                entries.put(key(appointmentId, f[3]), new ArchivedDocument(appointmentId, Long.parseLong(f[2]), f[3],
+                        f[4], Long.parseLong(f[5]), f[6], Long.parseLong(f[7]), documentPath(f[4], f[3])));
+                return true;
+            }
+            if (f.length == 3 && f[0].equals("D")) {
+                entries.remove(key(Long.parseLong(f[1]), f[2]));
+                return true;
+            }
+        } catch (NumberFormatException e) {
+            // línea dañada
+        }
+        return false;
+    }
+
+    private static boolean endsMidLine(Path journalPath) throws IOException {
+        try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0) {
+                return false;
+            }
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, size - 1);
+            return last.get(0) != '\n';
+        }
+    }
+
+    @PreDestroy
+    synchronized void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Documento archivado de la cita en ese formato generado con esta receta y esta huella, o
+     * null si no lo hay o es de otra versión de los datos (se vuelve a renderizar y el alta
+     * nueva lo sustituye). Solo consulta el índice en memoria (se llama desde el event loop,
+     * sin E/S): el tamaño es el del diario. Un fichero ausente lo detecta quien lo lee (y
+     * llama a discard) o verify().
+     */
+    public ArchivedDocument find(long appointmentId, String format, long prescriptionId, String fingerprint) {
+        if (!enabled) {
+            return null;
+        }
+        ArchivedDocument document = entries.get(key(appointmentId, format));
+        return document != null && matches(document, prescriptionId, fingerprint) ? document : null;
+    }
+
+    private static boolean matches(ArchivedDocument document, long prescriptionId, String fingerprint) {
+        return document.prescriptionId() == prescriptionId && document.fingerprint().equals(fingerprint);
+    }
+
+    /**
+     * Si la receta se puede archivar: cita completada y receta con medicamentos. La cabecera
+     * y los items se insertan por separado, así que una receta sin items puede estar a medias.
+     */
+    public static boolean archivable(AppointmentDTO appointment, PrescriptionDTO prescription) {
+        return "completed".equals(appointment.getStatus())
+                && prescription.getItems() != null && !prescription.getItems().isEmpty();
+    }
+
+    // Comprueba con un stat que el fichero sigue en disco con su tamaño; si no, lo da de baja.
+    // Hace E/S: solo para hilos que pueden bloquear (el prerender), no para el event loop.
+    public boolean present(ArchivedDocument document) {
+        try {
+            if (Files.size(document.path()) == document.size()) {
+                return true;
+            }
+        } catch (IOException e) {
+            // sin fichero
+        }
+        log.warn("Documento archivado de la cita {} ausente o truncado, se da de baja", document.appointmentId());
+        remove(document);
+        return false;
+    }
+
+    // El fichero de un documento encontrado no se pudo leer: se da de baja en segundo plano (el
+    // diario hace fsync) y la próxima exportación lo vuelve a renderizar
+    public void discard(ArchivedDocument document, Throwable cause) {
+        log.warn("Documento archivado de la cita {} ilegible, se da de baja: {}", document.appointmentId(),
+                cause.getMessage());
+        Mono.fromRunnable(() -> remove(document))
+                .subscribeOn(Schedulers.boundedElastic())
+                .subscribe(null, e -> log.warn("No se pudo dar de baja la receta de la cita {}: {}",
+                        document.appointmentId(), e.getMessage()));
+    }
+
+    // Archiva en segundo plano; un fallo solo se registra, el documento ya se sirvió
+    public void storeAsync(long appointmentId, long prescriptionId, String format, String fingerprint, byte[] document) {
+        if (!enabled) {
+            return;
+        }
+        ArchivedDocument current = entries.get(key(appointmentId, format));
+        if (current != null && matches(current, prescriptionId, fingerprint)) {
+            return;
+        }
+        Mono.fromRunnable(() -> store(appointmentId, prescriptionId, format, fingerprint, document))
+                .subscribeOn(Schedulers.boundedElastic())
+                .subscribe(null, e -> log.warn("No se pudo archivar la receta de la cita {}: {}", appointmentId, e.getMessage()));
+    }
+
+    // 1. fichero (temporal + fsync + rename), 2. línea en el diario e índice en memoria, juntos
+    //    bajo el bloqueo para que compact() no reescriba el diario entre uno y otro
+    public void store(long appointmentId, long prescriptionId, String format, String fingerprint, byte[] document) {
+        Path target = documentPath(fingerprint, format);
+        try {
+            if (!Files.exists(target)) {
+                Files.createDirectories(target.getParent());
+                Path tmp = Files.createTempFile(target.getParent(), fingerprint, ".tmp");
+                try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                    ByteBuffer buffer = ByteBuffer.wrap(document);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(true);
+                }
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            ArchivedDocument archived = new ArchivedDocument(appointmentId, prescriptionId, format, fingerprint,
+                    document.length, sha256(document), System.currentTimeMillis(), target);
+            synchronized (this) {
+                append(String.join("\t", "A", String.valueOf(appointmentId), String.valueOf(prescriptionId), format,
+                        fingerprint, String.valueOf(archived.size()), archived.sha256(), String.valueOf(archived.archivedAt())));
+                entries.put(key(appointmentId, format), archived);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Baja de la cita en todos los formatos (p. ej. si se corrige una receta ya emitida)
+    public int removeAppointment(long appointmentId) {
+        List<String> formats = entries.values().stream()
+                .filter(document -> document.appointmentId() == appointmentId)
+                .map(ArchivedDocument::format)
+                .toList();
+        formats.forEach(format -> remove(appointmentId, format));
+        return formats.size();
+    }
+
+    // Solo si la entrada sigue siendo esa: un alta posterior del mismo documento no se pierde
+    private synchronized void remove(ArchivedDocument document) {
+        if (entries.get(key(document.appointmentId(), document.format())) == document) {
+            remove(document.appointmentId(), document.format());
+        }
+    }
+
+    private synchronized void remove(long appointmentId, String format) {
+        if (entries.remove(key(appointmentId, format)) != null) {
+            try {
+                append(String.join("\t", "D", String.valueOf(appointmentId), format));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private synchronized void append(String line) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            journal.write(buffer);
+        }
+        journal.force(false);
+    }
+
+    /**
+     * Relee cada documento y compara tamaño y SHA-256 con el diario. Los ausentes o dañados
+     * se dan de baja (se volverán a renderizar y archivar en la próxima exportación).
+     */
+    public VerifyResult verify() {
+        if (!enabled) {
+            return new VerifyResult(0, 0, 0);
+        }
+        int checked = 0;
+        int missing = 0;
+        int corrupt = 0;
+        for (ArchivedDocument document : List.copyOf(entries.values())) {
+            checked++;
+            MessageDigest digest = sha256();
+            try (InputStream in = new DigestInputStream(Files.newInputStream(document.path()), digest)) {
+                long size = in.transferTo(OutputStream.nullOutputStream());
+                String hash = HexFormat.of().formatHex(digest.digest());
+                if (size != document.size() || !hash.equals(document.sha256())) {
+                    corrupt++;
+                    log.warn("Documento archivado dañado: cita {} ({})", document.appointmentId(), document.path());
+                    remove(document);
+                }
+            } catch (IOException e) {
+                missing++;
+                remove(document);
+            }
+        }
+        log.info("Verificación del archivo: {} documentos, {} ausentes, {} dañados", checked, missing, corrupt);
+        return new VerifyResult(checked, missing, corrupt);
+    }
+
+    /**
+     * Reescribe el diario con una línea por entrada viva y borra los documentos que ya no
+     * referencia ninguna entrada. Bloquea las altas mientras reescribe el diario.
+     */
+    public CompactResult compact() throws IOException {
+        if (!enabled) {
+            return new CompactResult(0, 0, 0, 0);
+        }
+        Path journalPath = directory.resolve(JOURNAL);
+        long before;
+        long after;
+        synchronized (this) {
+            before = journal.size();
+            Path tmp = directory.resolve(JOURNAL + ".tmp");
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                StringBuilder lines = new StringBuilder();
+                for (ArchivedDocument d : entries.values()) {
+                    lines.append(String.join("\t", "A", String.valueOf(d.appointmentId()), String.valueOf(d.prescriptionId()),
+                            d.format(), d.fingerprint(), String.valueOf(d.size()), d.sha256(), String.valueOf(d.archivedAt())))
+                            .append('\n');
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                out.force(true);
+                after = out.size();
+            }
+            journal.close();
+            Files.move(tmp, journalPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            journal = FileChannel.open(journalPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        // Fuera del bloqueo: un alta concurrente escribe su fichero antes de registrarse, así
+        // que solo se borran los huérfanos con más de un minuto
+        long cutoff = System.currentTimeMillis() - 60_000;
+        Set<Path> referenced = entries.values().stream().map(ArchivedDocument::path).collect(Collectors.toSet());
+        List<Path> orphaned = new ArrayList<>();
+        Files.walkFileTree(directory.resolve("docs"), new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && !referenced.contains(file) && attrs.lastModifiedTime().toMillis() < cutoff) {
+                    orphaned.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // temporal de un alta en curso, renombrado mientras se recorría
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        int orphans = 0;
+        for (Path file : orphaned) {
+            if (Files.deleteIfExists(file)) {
+                orphans++;
+            }
+        }
+        log.info("Archivo compactado: {} entradas, diario {} -> {} bytes, {} ficheros huérfanos borrados",
+                entries.size(), before, after, orphans);
+        return new CompactResult(entries.size(), before, after, orphans);
+    }
+
+    @Scheduled(cron = "${clinica.archive.maintenance-cron:0 30 3 * * *}")
+    void maintenance() throws IOException {
+        verify();
+        compact();
+    }
+
+    private Path documentPath(String fingerprint, String format) {
+        return directory.resolve("docs").resolve(fingerprint.substring(0, 2)).resolve(fingerprint + "." + format);
+    }
+
+    private static String key(long appointmentId, String format) {
+        return appointmentId + ":" + format;
+    }
+
+    private static String sha256(byte[] data) {
+        return HexFormat.of().formatHex(sha256().digest(data));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
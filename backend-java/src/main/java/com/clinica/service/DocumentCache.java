@@ -0,0 +1,58 @@
+package com.clinica.service;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineStatsCounter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+// Caché de documentos ya renderizados, direccionada por contenido: la clave es la huella
+// SHA-256 de los datos usados en el documento, así que nunca devuelve una versión vieja.
+// Acotada por bytes totales, no por número de entradas.
+// Los renders en curso también son entradas (futuros sin completar), así que las peticiones
+// simultáneas con la misma huella esperan un único render. Un futuro que termina en null o
+// con error se retira solo.
+@Component
+public class DocumentCache {
+
+    private final AsyncCache<String, byte[]> documents;
+
+    public DocumentCache(MeterRegistry meterRegistry,
+            @Value("${clinica.export.cache.max-bytes:64MB}") DataSize maxBytes,
+            @Value("${clinica.export.cache.ttl:24h}") Duration ttl) {
+        CaffeineStatsCounter stats = new CaffeineStatsCounter(meterRegistry, "documents");
+        this.documents = Caffeine.newBuilder()
+                .maximumWeight(maxBytes.toBytes())
+                .<String, byte[]>weigher((key, bytes) -> bytes.length)
+                .expireAfterAccess(ttl)
+                .recordStats(() -> stats)
+                .buildAsync();
+        stats.registerSizeMetric(documents.synchronous());
+    }
+
+    // Documento ya renderizado o render en curso con esa huella; null si no hay ninguno
+    public CompletableFuture<byte[]> get(String fingerprint) {
+        return documents.getIfPresent(fingerprint);
+    }
+
+    // Devuelve el documento de la caché o lo renderiza una sola vez para todos los que lo
+    // pidan mientras tanto. Cancelar una espera no cancela el render compartido.
+    public Mono<byte[]> get(String fingerprint, Supplier<Mono<byte[]>> render) {
+        return Mono.fromFuture(documents.get(fingerprint, (key, executor) -> render.get().toFuture()), true);
+    }
+
+    // Reserva la huella para un render que se hará fuera de la caché (en streaming). Quien la
+    // obtiene debe completar el futuro con el documento, o con null si no puede compartirlo.
+    // Devuelve null si ya hay un documento o un render en curso con esa huella.
+    public CompletableFuture<byte[]> claim(String fingerprint) {
+        CompletableFuture<byte[]> pending = new CompletableFuture<>();
+        return documents.asMap().putIfAbsent(fingerprint, pending) == null ? pending : null;
+    }
+}
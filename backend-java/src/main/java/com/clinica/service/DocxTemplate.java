@@ -0,0 +1,349 @@
+package com.clinica.service;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
+import org.apache.poi.xwpf.usermodel.IBodyElement;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.apache.poi.xwpf.usermodel.XWPFTableCell;
+import org.apache.poi.xwpf.usermodel.XWPFTableRow;
+import org.apache.xmlbeans.impl.xb.xmlschema.SpaceAttribute;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTText;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Plantilla .docx precompilada. Al arrancar se abre una sola vez con POI y se parte
+ * word/document.xml en trozos literales y marcadores {{campo}}; el resto de partes del
+ * paquete (estilos, imágenes, cabeceras...) se guardan ya comprimidas. Por petición solo
+ * se escriben los trozos con los valores escapados y se copian las partes tal cual.
+ *
+ * Marcadores: {{paciente}}, {{doctor}}, {{fecha}}, {{especialidad}}, {{licencia}},
+ * {{cita}}, {{diagnostico}}. La fila de la tabla que contiene {{medicamento}},
+ * {{dosis}}, {{frecuencia}}, {{duracion}} o {{notas}} se repite por cada medicamento;
+ * sin medicamentos se omite la tabla y se muestra el párrafo marcado con
+ * {{sin_medicamentos}}. Los marcadores solo se sustituyen en el cuerpo del documento.
+ */
+public final class DocxTemplate {
+
+    public static final List<String> FIELDS = List.of(
+            "paciente", "doctor", "fecha", "especialidad", "licencia", "cita", "diagnostico");
+    public static final List<String> ITEM_FIELDS = List.of(
+            "medicamento", "dosis", "frecuencia", "duracion", "notas");
+
+    private static final String NO_ITEMS = "sin_medicamentos";
+    private static final String DOCUMENT_PART = "word/document.xml";
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{\\{([a-z_]+)}}");
+
+    // Fecha fija en todas las entradas del ZIP: la misma receta produce los mismos bytes
+    // aunque la plantilla se recompile en otro arranque
+    private static final long ENTRY_TIME = Instant.parse("2024-01-01T00:00:00Z").toEpochMilli();
+
+    private enum Kind { ALWAYS, WITH_ITEMS, WITHOUT_ITEMS, ITEM_ROW }
+
+    // literal != null: texto XML tal cual; si no, índice en FIELDS o ITEM_FIELDS
+    private record Segment(String literal, int field, boolean itemField) {
+    }
+
+    private record Block(Kind kind, List<Segment> segments) {
+    }
+
+    private record Region(int start, int end, Kind kind) {
+    }
+
+    // Entrada del ZIP ya comprimida; raw == null marca la posición de document.xml
+    private record Part(String name, int method, long crc, long size, byte[] raw) {
+
+        ZipArchiveEntry entry() {
+            ZipArchiveEntry entry = new ZipArchiveEntry(name);
+            entry.setTime(ENTRY_TIME);
+            if (raw != null) {
+                entry.setMethod(method);
+                entry.setCrc(crc);
+                entry.setSize(size);
+                entry.setCompressedSize(raw.length);
+            }
+            return entry;
+        }
+    }
+
+    private final String name;
+    private final List<Part> parts;
+    private final List<Block> blocks;
+
+    private DocxTemplate(String name, List<Part> parts, List<Block> blocks) {
+        this.name = name;
+        this.parts = parts;
+        this.blocks = blocks;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public static DocxTemplate compile(String name, byte[] docx) throws IOException {
+        byte[] normalized = normalize(docx);
+
+        List<Part> parts = new ArrayList<>();
+        String documentXml = null;
+        try (ZipFile zip = new ZipFile(new SeekableInMemoryByteChannel(normalized))) {
+            for (ZipArchiveEntry entry : Collections.list(zip.getEntriesInPhysicalOrder())) {
+                if (DOCUMENT_PART.equals(entry.getName())) {
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        documentXml = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                    }
+                    parts.add(new Part(entry.getName(), 0, 0, 0, null));
+                } else {
+                    try (InputStream in = zip.getRawInputStream(entry)) {
+                        parts.add(new Part(entry.getName(), entry.getMethod(), entry.getCrc(), entry.getSize(),
+                                in.readAllBytes()));
+                    }
+                }
+            }
+        }
+        if (documentXml == null) {
+            throw new IllegalStateException("Plantilla " + name + ": no contiene " + DOCUMENT_PART);
+        }
+        return new DocxTemplate(name, List.copyOf(parts), compileDocument(name, documentXml));
+    }
+
+    // Word suele partir un marcador en varios runs ("{{pac" + "iente}}"): en esos párrafos
+    // se juntan todos los runs en el primero para que cada marcador quede en un solo w:t
+    private static byte[] normalize(byte[] docx) throws IOException {
+        try (XWPFDocument document = new XWPFDocument(new ByteArrayInputStream(docx))) {
+            normalizeBody(document.getBodyElements());
+            ByteArrayOutputStream out = new ByteArrayOutputStream(docx.length);
+            document.write(out);
+            return out.toByteArray();
+        }
+    }
+
+    private static void normalizeBody(List<IBodyElement> elements) {
+        for (IBodyElement element : elements) {
+            if (element instanceof XWPFParagraph paragraph) {
+                normalizeParagraph(paragraph);
+            } else if (element instanceof XWPFTable table) {
+                for (XWPFTableRow row : table.getRows()) {
+                    for (XWPFTableCell cell : row.getTableCells()) {
+                        normalizeBody(cell.getBodyElements());
+                    }
+                }
+            }
+        }
+    }
+
+    private static void normalizeParagraph(XWPFParagraph paragraph) {
+        String text = paragraph.getText();
+        int expected = countPlaceholders(text);
+        if (expected == 0) {
+            return;
+        }
+        List<XWPFRun> runs = paragraph.getRuns();
+        int found = 0;
+        for (XWPFRun run : runs) {
+            found += countPlaceholders(run.text());
+        }
+        if (found != expected) {
+            for (int i = runs.size() - 1; i > 0; i--) {
+                paragraph.removeRun(i);
+            }
+            runs.get(0).setText(text, 0);
+        }
+        // Conservar espacios iniciales/finales de los valores sustituidos
+        for (XWPFRun run : paragraph.getRuns()) {
+            for (CTText t : run.getCTR().getTList()) {
+                t.setSpace(SpaceAttribute.Space.PRESERVE);
+            }
+        }
+    }
+
+    private static int countPlaceholders(String text) {
+        int count = 0;
+        Matcher matcher = PLACEHOLDER.matcher(text);
+        while (matcher.find()) {
+            count++;
+        }
+        return count;
+    }
+
+    // Parte document.xml en bloques: la tabla de medicamentos (solo con medicamentos), su
+    // fila prototipo (una vez por medicamento), el párrafo {{sin_medicamentos}} (solo sin
+    // ellos) y el resto (siempre)
+    private static List<Block> compileDocument(String name, String xml) {
+        int itemAt = -1;
+        for (String field : ITEM_FIELDS) {
+            int at = xml.indexOf("{{" + field + "}}");
+            if (at >= 0 && (itemAt < 0 || at < itemAt)) {
+                itemAt = at;
+            }
+        }
+        if (itemAt < 0) {
+            throw new IllegalStateException("Plantilla " + name + ": falta la fila de medicamentos ({{medicamento}})");
+        }
+        int rowStart = lastTag(xml, "w:tr", itemAt);
+        int rowEnd = xml.indexOf("</w:tr>", itemAt) + "</w:tr>".length();
+        int tableStart = lastTag(xml, "w:tbl", rowStart);
+        int tableEnd = xml.indexOf("</w:tbl>", rowEnd) + "</w:tbl>".length();
+
+        List<Region> regions = new ArrayList<>();
+        regions.add(new Region(tableStart, rowStart, Kind.WITH_ITEMS));
+        regions.add(new Region(rowStart, rowEnd, Kind.ITEM_ROW));
+        regions.add(new Region(rowEnd, tableEnd, Kind.WITH_ITEMS));
+
+        int noItemsAt = xml.indexOf("{{" + NO_ITEMS + "}}");
+        if (noItemsAt >= 0) {
+            if (noItemsAt > tableStart && noItemsAt < tableEnd) {
+                throw new IllegalStateException(
+                        "Plantilla " + name + ": {{" + NO_ITEMS + "}} no puede estar dentro de la tabla de medicamentos");
+            }
+            regions.add(new Region(lastTag(xml, "w:p", noItemsAt),
+                    xml.indexOf("</w:p>", noItemsAt) + "</w:p>".length(), Kind.WITHOUT_ITEMS));
+        }
+        regions.sort(Comparator.comparingInt(Region::start));
+
+        List<Block> blocks = new ArrayList<>();
+        int position = 0;
+        for (Region region : regions) {
+            if (region.start() > position) {
+                blocks.add(parseBlock(name, xml.substring(position, region.start()), Kind.ALWAYS));
+            }
+            blocks.add(parseBlock(name, xml.substring(region.start(), region.end()), region.kind()));
+            position = region.end();
+        }
+        blocks.add(parseBlock(name, xml.substring(position), Kind.ALWAYS));
+        return List.copyOf(blocks);
+    }
+
+    // Inicio de la etiqueta de apertura <tag> o <tag ...> más cercana antes de 'from'
+    private static int lastTag(String xml, String tag, int from) {
+        int at = Math.max(xml.lastIndexOf("<" + tag + ">", from), xml.lastIndexOf("<" + tag + " ", from));
+        if (at < 0) {
+            throw new IllegalStateException("Estructura inesperada en document.xml: falta <" + tag + ">");
+        }
+        return at;
+    }
+
+    private static Block parseBlock(String name, String xml, Kind kind) {
+        List<Segment> segments = new ArrayList<>();
+        Matcher matcher = PLACEHOLDER.matcher(xml);
+        int position = 0;
+        while (matcher.find()) {
+            if (matcher.start() > position) {
+                segments.add(new Segment(xml.substring(position, matcher.start()), -1, false));
+            }
+            position = matcher.end();
+
+            String field = matcher.group(1);
+            if (NO_ITEMS.equals(field)) {
+                continue;
+            }
+            int index = FIELDS.indexOf(field);
+            if (index >= 0) {
+                segments.add(new Segment(null, index, false));
+            } else if (kind == Kind.ITEM_ROW && ITEM_FIELDS.contains(field)) {
+                segments.add(new Segment(null, ITEM_FIELDS.indexOf(field), true));
+            } else {
+                throw new IllegalStateException("Plantilla " + name + ": marcador no válido aquí {{" + field + "}}");
+            }
+        }
+        if (position < xml.length()) {
+            segments.add(new Segment(xml.substring(position), -1, false));
+        }
+        return new Block(kind, List.copyOf(segments));
+    }
+
+    /**
+     * Escribe el .docx completo en el stream sin cerrarlo.
+     *
+     * @param fields valores en el orden de {@link #FIELDS}
+     * @param rows   un array por medicamento, en el orden de {@link #ITEM_FIELDS}
+     */
+    public void write(String[] fields, List<String[]> rows, OutputStream out) throws IOException {
+        ZipArchiveOutputStream zip = new ZipArchiveOutputStream(out);
+        for (Part part : parts) {
+            if (part.raw() != null) {
+                zip.addRawArchiveEntry(part.entry(), new ByteArrayInputStream(part.raw()));
+                continue;
+            }
+            zip.putArchiveEntry(part.entry());
+            Writer writer = new OutputStreamWriter(zip, StandardCharsets.UTF_8);
+            writeDocument(writer, fields, rows);
+            writer.flush();
+            zip.closeArchiveEntry();
+        }
+        zip.finish();
+    }
+
+    private void writeDocument(Writer writer, String[] fields, List<String[]> rows) throws IOException {
+        boolean hasItems = !rows.isEmpty();
+        for (Block block : blocks) {
+            switch (block.kind()) {
+                case ALWAYS -> writeSegments(writer, block.segments(), fields, null);
+                case WITH_ITEMS -> {
+                    if (hasItems) {
+                        writeSegments(writer, block.segments(), fields, null);
+                    }
+                }
+                case WITHOUT_ITEMS -> {
+                    if (!hasItems) {
+                        writeSegments(writer, block.segments(), fields, null);
+                    }
+                }
+                case ITEM_ROW -> {
+                    for (String[] row : rows) {
+                        writeSegments(writer, block.segments(), fields, row);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void writeSegments(Writer writer, List<Segment> segments, String[] fields, String[] row)
+            throws IOException {
+        for (Segment segment : segments) {
+            if (segment.literal() != null) {
+                writer.write(segment.literal());
+            } else {
+                writeEscaped(writer, segment.itemField() ? row[segment.field()] : fields[segment.field()]);
+            }
+        }
+    }
+
+    // Escapa para texto XML y descarta los caracteres de control que XML 1.0 no admite
+    private static void writeEscaped(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&' -> writer.write("&amp;");
+                case '<' -> writer.write("&lt;");
+                case '>' -> writer.write("&gt;");
+                default -> {
+                    if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r') {
+                        writer.write(c);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.clinica.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+// Plantillas de receta .docx, compiladas una vez al arrancar. receta.docx es la plantilla
+// por defecto; receta-<especialidad>.docx (p. ej. receta-cardiologia.docx) se usa para los
+// doctores de esa especialidad.
+@Component
+public class DocxTemplateRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(DocxTemplateRegistry.class);
+
+    private static final String DEFAULT_NAME = "receta";
+    private static final Pattern MARKS = Pattern.compile("\\p{M}");
+    private static final Pattern NON_ALNUM = Pattern.compile("[^a-z0-9]+");
+    private static final Pattern EDGE_DASHES = Pattern.compile("^-|-$");
+
+    @Value("${clinica.templates.location:classpath:/templates/}")
+    private String location;
+
+    private final ResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
+
+    private final Map<String, DocxTemplate> bySpecialty = new HashMap<>();
+    private DocxTemplate defaultTemplate;
+    private String version;
+
+    @PostConstruct
+    void loadTemplates() throws IOException {
+        String base = location.endsWith("/") ? location : location + "/";
+        Resource[] resources = resolver.getResources(base + DEFAULT_NAME + "*.docx");
+        Arrays.sort(resources, Comparator.comparing(Resource::getFilename));
+
+        MessageDigest digest = sha256();
+        for (Resource resource : resources) {
+            String name = resource.getFilename().substring(0, resource.getFilename().length() - ".docx".length());
+            byte[] data = resource.getContentAsByteArray();
+            digest.update(name.getBytes(StandardCharsets.UTF_8));
+            digest.update(data);
+
+            DocxTemplate template = DocxTemplate.compile(name, data);
+            if (name.equals(DEFAULT_NAME)) {
+                defaultTemplate = template;
+            } else if (name.startsWith(DEFAULT_NAME + "-")) {
+                bySpecialty.put(name.substring(DEFAULT_NAME.length() + 1), template);
+            }
+        }
+        if (defaultTemplate == null) {
+            throw new IllegalStateException("No se encontró la plantilla " + base + DEFAULT_NAME + ".docx");
+        }
+        // Cambia con cualquier edición de las plantillas, así que invalida las huellas emitidas
+        version = HexFormat.of().formatHex(digest.digest(), 0, 8);
+        log.info("Plantillas de receta cargadas desde {}: {}{}", base, DEFAULT_NAME,
+                bySpecialty.isEmpty() ? "" : " + " + bySpecialty.keySet());
+    }
+
+    public DocxTemplate select(String specialty) {
+        if (specialty != null) {
+            DocxTemplate template = bySpecialty.get(slug(specialty));
+            if (template != null) {
+                return template;
+            }
+        }
+        return defaultTemplate;
+    }
+
+    public String version() {
+        return version;
+    }
+
+    // "Cardiología Pediátrica" -> "cardiologia-pediatrica"
+    static String slug(String specialty) {
+        String ascii = MARKS.matcher(Normalizer.normalize(specialty, Normalizer.Form.NFD)).replaceAll("");
+        String dashed = NON_ALNUM.matcher(ascii.toLowerCase(Locale.ROOT)).replaceAll("-");
+        return EDGE_DASHES.matcher(dashed).replaceAll("");
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.clinica.service;
+
+import com.clinica.model.AppointmentDTO;
+import com.clinica.model.ExportJobDTO;
+import com.clinica.model.PrescriptionDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.concurrent.Queues;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Exportaciones asíncronas: el cliente crea el trabajo, consulta su estado y descarga el
+// resultado cuando está listo, sin mantener la conexión abierta mientras se genera.
+// Cada trabajo se guarda en disco (<dir>/<id>.json y <dir>/<id>.<formato>), así que
+// sobrevive a un reinicio: los pendientes vuelven a la cola al arrancar.
+@Service
+public class ExportJobService {
+
+    private static final Logger log = LoggerFactory.getLogger(ExportJobService.class);
+
+    public static final String QUEUED = "queued";
+    public static final String RUNNING = "running";
+    public static final String DONE = "done";
+    public static final String FAILED = "failed";
+
+    @Autowired
+    private SupabaseService supabaseService;
+
+    @Autowired
+    private List<PrescriptionRenderer> renderers;
+
+    @Autowired
+    private Scheduler renderScheduler;
+
+    @Autowired
+    private RenderAdmission renderAdmission;
+
+    @Autowired
+    private ExportMetrics exportMetrics;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${clinica.jobs.dir:./data/export-jobs}")
+    private String location;
+
+    @Value("${clinica.jobs.workers:2}")
+    private int workers;
+
+    @Value("${clinica.jobs.queue-size:500}")
+    private int queueSize;
+
+    @Value("${clinica.jobs.ttl:24h}")
+    private Duration ttl;
+
+    private final Map<String, ExportJobDTO> jobs = new ConcurrentHashMap<>();
+    private Path directory;
+    private Sinks.Many<ExportJobDTO> queue;
+    private Disposable workerPool;
+
+    @PostConstruct
+    void start() throws IOException {
+        directory = Files.createDirectories(Path.of(location));
+        queue = Sinks.many().unicast().onBackpressureBuffer(Queues.<ExportJobDTO>get(queueSize).get());
+
+        // 1. Trabajos de la ejecución anterior: los terminados se siguen sirviendo y los
+        //    que estaban en cola o en curso se repiten desde el principio
+        List<ExportJobDTO> pending = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    Files.deleteIfExists(file);
+                } else if (name.endsWith(".json")) {
+                    restore(file, pending);
+                }
+            }
+        }
+
+        // 2. Pool de workers: como mucho `workers` trabajos en curso, el resto espera en la cola.
+        //    Un error que se escape de un trabajo (no se pudo guardar su estado: disco lleno,
+        //    directorio borrado) se queda en ese trabajo; si llegara al flatMap terminaría el
+        //    único suscriptor de la cola y ningún trabajo más saldría de QUEUED.
+        workerPool = queue.asFlux()
+                .flatMap(job -> Mono.defer(() -> process(job))
+                        .onErrorResume(e -> {
+                            log.error("Trabajo de exportación {} abortado: {}", job.getId(), e.getMessage(), e);
+                            return Mono.empty();
+                        }), workers)
+                .subscribe();
+
+        pending.sort(Comparator.comparing(ExportJobDTO::getCreatedAt));
+        for (ExportJobDTO job : pending) {
+            update(job, QUEUED, "en_cola", 0);
+            if (!enqueue(job)) {
+                fail(job, "Cola de exportaciones llena al reanudar");
+            }
+        }
+
+        Gauge.builder("clinica.export.jobs.pending", jobs,
+                        all -> all.values().stream().filter(job -> !isFinished(job)).count())
+                .description("Trabajos de exportación en cola o en curso")
+                .register(meterRegistry);
+        log.info("Trabajos de exportación en {}: {} guardados, {} reanudados", directory, jobs.size(), pending.size());
+    }
+
+    private void restore(Path file, List<ExportJobDTO> pending) {
+        try {
+            ExportJobDTO job = objectMapper.readValue(file.toFile(), ExportJobDTO.class);
+            jobs.put(job.getId(), job);
+            if (!isFinished(job)) {
+                pending.add(job);
+            } else if (DONE.equals(job.getStatus()) && !Files.exists(resultPath(job))) {
+                fail(job, "El resultado ya no está en disco");
+            }
+        } catch (IOException e) {
+            log.warn("No se pudo leer el trabajo {}: {}", file, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        // Lo que quede en curso se reanuda en el siguiente arranque
+        if (workerPool != null) {
+            workerPool.dispose();
+        }
+    }
+
+    public boolean supports(String format) {
+        return renderer(format) != null;
+    }
+
+    /**
+     * Crea el trabajo y lo encola. Vacío si la cola está llena. La escritura en disco se
+     * hace fuera del event loop.
+     */
+    public Mono<ExportJobDTO> submit(Long appointmentId, String format) {
+        return Mono.fromCallable(() -> {
+            PrescriptionRenderer renderer = renderer(format);
+            ExportJobDTO job = new ExportJobDTO();
+            job.setId(UUID.randomUUID().toString());
+            job.setAppointmentId(appointmentId);
+            job.setFormat(renderer.format());
+            job.setContentType(renderer.contentType().toString());
+            job.setFileName("receta-monteluz-" + appointmentId + "." + renderer.format());
+            job.setCreatedAt(Instant.now());
+            jobs.put(job.getId(), job);
+            update(job, QUEUED, "en_cola", 0);
+
+            if (!enqueue(job)) {
+                jobs.remove(job.getId());
+                Files.deleteIfExists(statePath(job));
+                return null;
+            }
+            return snapshot(job);
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    public Optional<ExportJobDTO> get(String id) {
+        return Optional.ofNullable(jobs.get(id)).map(this::snapshot);
+    }
+
+    // Copia del estado actual; los workers siguen modificando el original
+    private ExportJobDTO snapshot(ExportJobDTO job) {
+        synchronized (job) {
+            return objectMapper.convertValue(job, ExportJobDTO.class);
+        }
+    }
+
+    public Path resultPath(ExportJobDTO job) {
+        return directory.resolve(job.getId() + "." + job.getFormat());
+    }
+
+    // Sinks exige emisiones serializadas; la cola acotada rechaza cuando está llena
+    private synchronized boolean enqueue(ExportJobDTO job) {
+        return queue.tryEmitNext(job).isSuccess();
+    }
+
+    private Mono<Void> process(ExportJobDTO job) {
+        PrescriptionRenderer renderer = renderer(job.getFormat());
+        if (renderer == null) {
+            return Mono.fromRunnable(() -> fail(job, "Formato no soportado: " + job.getFormat()))
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .then();
+        }
+
+        // 1. Datos de la cita; 2. render al fichero en el pool de renderizado
+        return Mono.fromRunnable(() -> update(job, RUNNING, "consultando", 10))
+                .subscribeOn(Schedulers.boundedElastic())
+                .then(supabaseService.getAppointmentWithDetails(job.getAppointmentId()))
+                .switchIfEmpty(Mono.error(() -> new IllegalStateException("No se encontró la cita " + job.getAppointmentId())))
+                .flatMap(appointment -> renderAdmission.admit(Mono.fromCallable(() -> writeResult(job, renderer, appointment))
+                        .subscribeOn(renderScheduler)))
+                .doOnNext(size -> {
+                    synchronized (job) {
+                        job.setSize(size);
+                    }
+                    update(job, DONE, "listo", 100);
+                    exportMetrics.recordJob(job.getFormat(), DONE, Duration.between(job.getCreatedAt(), Instant.now()));
+                })
+                .onErrorResume(e -> Mono.<Long>fromRunnable(() -> {
+                            fail(job, e.getMessage());
+                            exportMetrics.recordJob(job.getFormat(), FAILED, Duration.between(job.getCreatedAt(), Instant.now()));
+                        }).subscribeOn(Schedulers.boundedElastic()))
+                .then();
+    }
+
+    // Se escribe en un temporal y se renombra: nunca se sirve un fichero a medias
+    private long writeResult(ExportJobDTO job, PrescriptionRenderer renderer, AppointmentDTO appointment) throws IOException {
+        if (appointment.getPrescriptions() == null || appointment.getPrescriptions().isEmpty()) {
+            throw new IllegalStateException("La cita " + appointment.getId() + " no tiene receta");
+        }
+        PrescriptionDTO prescription = appointment.getPrescriptions().get(0);
+        update(job, RUNNING, "renderizando", 50);
+
+        Path result = resultPath(job);
+        Path tmp = Files.createTempFile(directory, job.getId(), ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                renderer.writePrescription(appointment, prescription.getItems(), out);
+            }
+            Files.move(tmp, result, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return Files.size(result);
+    }
+
+    private void fail(ExportJobDTO job, String error) {
+        log.warn("Falló el trabajo de exportación {} (cita {}): {}", job.getId(), job.getAppointmentId(), error);
+        synchronized (job) {
+            job.setError(error);
+        }
+        update(job, FAILED, "error", 100);
+    }
+
+    private void update(ExportJobDTO job, String status, String stage, int progress) {
+        synchronized (job) {
+            job.setStatus(status);
+            job.setStage(stage);
+            job.setProgress(progress);
+            job.setUpdatedAt(Instant.now());
+            save(job);
+        }
+    }
+
+    private void save(ExportJobDTO job) {
+        Path state = statePath(job);
+        try {
+            Path tmp = Files.createTempFile(directory, job.getId(), ".tmp");
+            objectMapper.writeValue(tmp.toFile(), job);
+            Files.move(tmp, state, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo guardar el trabajo " + job.getId(), e);
+        }
+    }
+
+    // Borra los trabajos terminados más antiguos que clinica.jobs.ttl, con su resultado
+    @Scheduled(fixedDelayString = "${clinica.jobs.cleanup-interval:PT1H}")
+    void purgeExpired() {
+        Instant limit = Instant.now().minus(ttl);
+        jobs.values().removeIf(job -> {
+            if (!isFinished(job) || job.getUpdatedAt().isAfter(limit)) {
+                return false;
+            }
+            try {
+                Files.deleteIfExists(resultPath(job));
+                Files.deleteIfExists(statePath(job));
+            } catch (IOException e) {
+                log.warn("No se pudo borrar el trabajo {}: {}", job.getId(), e.getMessage());
+                return false;
+            }
+            return true;
+        });
+    }
+
+    private Path statePath(ExportJobDTO job) {
+        return directory.resolve(job.getId() + ".json");
+    }
+
+    private PrescriptionRenderer renderer(String format) {
+        return renderers.stream()
+                .filter(r -> r.format().equalsIgnoreCase(format))
+                .findFirst()
+                .orElse(null);
+    }
+
+    private static boolean isFinished(ExportJobDTO job) {
+        return DONE.equals(job.getStatus()) || FAILED.equals(job.getStatus());
+    }
+}
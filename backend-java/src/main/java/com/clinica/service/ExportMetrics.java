@@ -0,0 +1,156 @@
+package com.clinica.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Timers del pipeline de exportación (publicados en /actuator/prometheus):
+//   clinica.supabase.calls{call, outcome=found|empty|error|cancelled}
+//   clinica.supabase.hedges{call, outcome=sent|won|failed|skipped}  (ver SupabaseHedging)
+//   clinica.export.render{format, stage=layout|serialize}
+//   clinica.export{format, outcome=rendered|cached|coalesced|archived|not_modified|not_found|bad_request|rejected|deadline|error|cancelled}
+//   clinica.export.coalesced{stage=fetch|render}
+//   clinica.export.jobs{format, outcome=done|failed}  (desde que se crea el trabajo)
+//   clinica.export.batch{format, outcome=done|error|cancelled}  (ZIP completo, hasta el último byte)
+//   clinica.export.batch.size{format}  (documentos por ZIP)
+//   clinica.export.batch.documents{format, source=archived|cached|rendered|failed}
+//   clinica.prerender.documents{format, outcome=rendered|archived|failed}  (ver PrerenderService)
+@Component
+public class ExportMetrics {
+
+    private final MeterRegistry registry;
+
+    public ExportMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    // Mide una consulta a Supabase desde la suscripción hasta la primera señal terminal
+    public <T> Mono<T> supabaseCall(String call, Mono<T> query) {
+        return Mono.defer(() -> {
+            Timer.Sample sample = Timer.start(registry);
+            AtomicBoolean done = new AtomicBoolean();
+            return query
+                    .doOnSuccess(value -> stopCall(sample, done, call, value != null ? "found" : "empty"))
+                    .doOnError(e -> stopCall(sample, done, call, "error"))
+                    .doOnCancel(() -> stopCall(sample, done, call, "cancelled"));
+        });
+    }
+
+    public <T> Flux<T> supabaseCall(String call, Flux<T> query) {
+        return Flux.defer(() -> {
+            Timer.Sample sample = Timer.start(registry);
+            AtomicBoolean done = new AtomicBoolean();
+            AtomicBoolean found = new AtomicBoolean();
+            return query
+                    .doOnNext(value -> found.set(true))
+                    .doOnComplete(() -> stopCall(sample, done, call, found.get() ? "found" : "empty"))
+                    .doOnError(e -> stopCall(sample, done, call, "error"))
+                    .doOnCancel(() -> stopCall(sample, done, call, "cancelled"));
+        });
+    }
+
+    private void stopCall(Timer.Sample sample, AtomicBoolean done, String call, String outcome) {
+        if (done.compareAndSet(false, true)) {
+            sample.stop(Timer.builder("clinica.supabase.calls")
+                    .description("Consultas a Supabase por tipo y resultado")
+                    .tag("call", call)
+                    .tag("outcome", outcome)
+                    .register(registry));
+        }
+    }
+
+    // Consulta duplicada por SupabaseHedging: enviada, ganadora, fallida o descartada por max-in-flight
+    public void hedge(String call, String outcome) {
+        Counter.builder("clinica.supabase.hedges")
+                .description("Consultas a Supabase duplicadas contra la cola de latencia")
+                .tag("call", call)
+                .tag("outcome", outcome)
+                .register(registry)
+                .increment();
+    }
+
+    public Timer.Sample startStage() {
+        return Timer.start(registry);
+    }
+
+    // Etapa del renderizado: layout (construir el documento) o serialize (escribir los bytes)
+    public void stopStage(Timer.Sample sample, String format, String stage) {
+        sample.stop(Timer.builder("clinica.export.render")
+                .description("Etapas del renderizado de recetas")
+                .tag("format", format)
+                .tag("stage", stage)
+                .register(registry));
+    }
+
+    // Petición que se unió a una carga o render ya en curso en lugar de repetirlo
+    public void coalesced(String stage) {
+        Counter.builder("clinica.export.coalesced")
+                .description("Exportaciones que reutilizaron una carga o render en curso")
+                .tag("stage", stage)
+                .register(registry)
+                .increment();
+    }
+
+    // Latencia total de /export-pdf, hasta el último byte del cuerpo
+    public void recordExport(String format, String outcome, long startNanos) {
+        Timer.builder("clinica.export")
+                .description("Exportaciones de recetas de principio a fin")
+                .tag("format", format)
+                .tag("outcome", outcome)
+                .register(registry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // Trabajo de exportación asíncrona, desde su creación (incluye la espera en cola)
+    public void recordJob(String format, String outcome, Duration elapsed) {
+        Timer.builder("clinica.export.jobs")
+                .description("Trabajos de exportación asíncrona de principio a fin")
+                .tag("format", format)
+                .tag("outcome", outcome)
+                .register(registry)
+                .record(elapsed);
+    }
+
+    // ZIP de historial terminado (o abandonado) y cuántos documentos llevaba
+    public void recordBatch(String format, String outcome, int documents, long startNanos) {
+        Timer.builder("clinica.export.batch")
+                .description("Exportaciones de historial en ZIP de principio a fin")
+                .tag("format", format)
+                .tag("outcome", outcome)
+                .register(registry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("clinica.export.batch.size")
+                .description("Documentos por ZIP de historial")
+                .tag("format", format)
+                .register(registry)
+                .record(documents);
+    }
+
+    // Documento añadido a un ZIP de historial, según de dónde salió
+    public void batchDocument(String format, String source) {
+        Counter.builder("clinica.export.batch.documents")
+                .description("Documentos incluidos en ZIP de historial por origen")
+                .tag("format", format)
+                .tag("source", source)
+                .register(registry)
+                .increment();
+    }
+
+    // Documento del pre-renderizado nocturno según lo que se hizo con él
+    public void prerendered(String format, String outcome) {
+        Counter.builder("clinica.prerender.documents")
+                .description("Recetas pre-renderizadas al archivo por resultado")
+                .tag("format", format)
+                .tag("outcome", outcome)
+                .register(registry)
+                .increment();
+    }
+}
@@ -0,0 +1,240 @@
+package com.clinica.service;
+
+import com.clinica.model.AppointmentDTO;
+import com.clinica.model.PrescriptionDTO;
+import com.clinica.model.PrescriptionItemDTO;
+import com.clinica.service.DocumentArchive.ArchivedDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+// Exportación en lote: las recetas de un paciente (con sus dependientes) o de una lista de
+// citas en un único ZIP que se envía mientras se genera.
+//   1. Las citas llegan de Supabase por lotes (SupabaseService.getPatientHistory /
+//      getAppointmentsWithDetails): unas pocas consultas in.(...) para todo el historial.
+//   2. Cada receta sale del archivo, de la caché de documentos o de un render en el pool,
+//      con `concurrency` documentos en curso como máximo.
+//   3. Los documentos se añaden al ZIP en el orden de las citas y cada entrada se envía en
+//      cuanto se escribe. La memoria depende de `concurrency`, no del número de documentos.
+// Una receta que no se puede generar no corta la descarga: se anota en errores.txt al final.
+@Service
+public class HistoryExportService {
+
+    private static final Logger log = LoggerFactory.getLogger(HistoryExportService.class);
+
+    private static final DateTimeFormatter ENTRY_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    @Autowired
+    private SupabaseService supabaseService;
+
+    @Autowired
+    private DocumentCache documentCache;
+
+    @Autowired
+    private DocumentArchive documentArchive;
+
+    @Autowired
+    private Scheduler renderScheduler;
+
+    @Autowired
+    private ExportMetrics exportMetrics;
+
+    @Value("${clinica.export.batch.size:100}")
+    private int batchSize;
+
+    @Value("${clinica.export.batch.concurrency:4}")
+    private int concurrency;
+
+    // Documento listo para el ZIP; document es null si falló (error explica por qué)
+    private record ZipDocument(AppointmentDTO appointment, byte[] document, String source, String error) {
+    }
+
+    public Flux<DataBuffer> patientHistory(String patientId, boolean includeDependents, PrescriptionRenderer renderer,
+            DataBufferFactory bufferFactory) {
+        return zip(supabaseService.getPatientHistory(patientId, includeDependents, batchSize), renderer, bufferFactory);
+    }
+
+    public Flux<DataBuffer> appointments(List<Long> appointmentIds, PrescriptionRenderer renderer,
+            DataBufferFactory bufferFactory) {
+        return zip(supabaseService.getAppointmentsWithDetails(appointmentIds, batchSize), renderer, bufferFactory);
+    }
+
+    /**
+     * ZIP con una entrada por cita. Vacío de citas = error NoPrescriptionsException, que se
+     * emite antes del primer byte (la respuesta aún no está comprometida y puede ser un 404).
+     */
+    private Flux<DataBuffer> zip(Flux<AppointmentDTO> appointments, PrescriptionRenderer renderer,
+            DataBufferFactory bufferFactory) {
+        long start = System.nanoTime();
+        Flux<ZipDocument> documents = appointments
+                .switchIfEmpty(Mono.error(NoPrescriptionsException::new))
+                .flatMapSequential(appointment -> document(appointment, renderer), concurrency, 1);
+
+        return Flux.using(() -> new ZipWriter(bufferFactory, renderer.format()),
+                writer -> documents
+                        .map(document -> {
+                            exportMetrics.batchDocument(renderer.format(), document.source());
+                            return writer.add(document);
+                        })
+                        .concatWith(Mono.fromCallable(writer::finish))
+                        .doFinally(signal -> exportMetrics.recordBatch(renderer.format(),
+                                switch (signal) {
+                                    case ON_COMPLETE -> "done";
+                                    case CANCEL -> "cancelled";
+                                    default -> "error";
+                                }, writer.entries, start)),
+                ZipWriter::close)
+                // La descarga dura lo que dure el historial: sin el plazo de la petición
+                .contextWrite(SupabaseDeadline::clear);
+    }
+
+    // Archivado (si coincide con los datos actuales) > caché > render; un fallo se convierte en
+    // un ZipDocument sin contenido
+    private Mono<ZipDocument> document(AppointmentDTO appointment, PrescriptionRenderer renderer) {
+        PrescriptionDTO prescription = appointment.getPrescriptions().get(0);
+        List<PrescriptionItemDTO> items = prescription.getItems();
+        String fingerprint = renderer.fingerprint(appointment, items);
+
+        ArchivedDocument archived = documentArchive.find(appointment.getId(), renderer.format(),
+                prescription.getId(), fingerprint);
+        if (archived != null) {
+            return Mono.fromCallable(() -> Files.readAllBytes(archived.path()))
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .map(bytes -> new ZipDocument(appointment, bytes, "archived", null))
+                    .onErrorResume(e -> {
+                        documentArchive.discard(archived, e);
+                        return Mono.just(failed(appointment, e));
+                    });
+        }
+
+        CompletableFuture<byte[]> cached = documentCache.get(fingerprint);
+        String source = cached != null && cached.isDone() && !cached.isCompletedExceptionally() ? "cached" : "rendered";
+
+        // Un render en streaming que no pudo compartirse deja el futuro en null: se renderiza aquí
+        return documentCache.get(fingerprint, () -> render(renderer, appointment, items)
+                        .doOnNext(document -> archive(appointment, prescription, renderer, fingerprint, document)))
+                .switchIfEmpty(Mono.defer(() -> render(renderer, appointment, items)))
+                .map(document -> new ZipDocument(appointment, document, source, null))
+                .onErrorResume(e -> Mono.just(failed(appointment, e)));
+    }
+
+    private ZipDocument failed(AppointmentDTO appointment, Throwable e) {
+        log.warn("No se pudo generar la receta de la cita {} para el ZIP: {}", appointment.getId(), e.getMessage());
+        return new ZipDocument(appointment, null, "failed", e.getMessage());
+    }
+
+    // Sin admisión propia: el ZIP ya reservó en RenderAdmission una plaza por documento en curso
+    private Mono<byte[]> render(PrescriptionRenderer renderer, AppointmentDTO appointment, List<PrescriptionItemDTO> items) {
+        return Mono.fromCallable(() -> renderer.render(appointment, items))
+                .subscribeOn(renderScheduler);
+    }
+
+    // Igual que en la exportación individual: citas completadas con receta completa
+    private void archive(AppointmentDTO appointment, PrescriptionDTO prescription, PrescriptionRenderer renderer,
+            String fingerprint, byte[] document) {
+        if (DocumentArchive.archivable(appointment, prescription)) {
+            documentArchive.storeAsync(appointment.getId(), prescription.getId(), renderer.format(), fingerprint, document);
+        }
+    }
+
+    /** El paciente o la lista de citas no tiene ninguna receta que exportar. */
+    public static class NoPrescriptionsException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public NoPrescriptionsException() {
+            super("No hay recetas que exportar");
+        }
+    }
+
+    // ZipOutputStream sobre un buffer que se vacía tras cada entrada. Los documentos (docx,
+    // pdf) ya van comprimidos, así que se guardan sin comprimir (STORED) y no se gasta CPU en
+    // deflate. Reactor serializa las llamadas, aunque lleguen desde hilos distintos.
+    private static final class ZipWriter {
+
+        private final DataBufferFactory bufferFactory;
+        private final String format;
+        private final ByteArrayOutputStream pending = new ByteArrayOutputStream(64 * 1024);
+        private final ZipOutputStream zip = new ZipOutputStream(pending, StandardCharsets.UTF_8);
+        private final List<String> errors = new ArrayList<>();
+        private int entries;
+
+        ZipWriter(DataBufferFactory bufferFactory, String format) {
+            this.bufferFactory = bufferFactory;
+            this.format = format;
+        }
+
+        DataBuffer add(ZipDocument document) {
+            AppointmentDTO appointment = document.appointment();
+            if (document.document() == null) {
+                errors.add("Cita " + appointment.getId() + ": " + document.error());
+                return drain();
+            }
+            String date = appointment.getAppointmentTime() != null
+                    ? appointment.getAppointmentTime().format(ENTRY_DATE) + "_"
+                    : "";
+            write(date + "receta-monteluz-" + appointment.getId() + "." + format, document.document());
+            entries++;
+            return drain();
+        }
+
+        DataBuffer finish() throws IOException {
+            if (!errors.isEmpty()) {
+                write("errores.txt", String.join("\n", errors).concat("\n").getBytes(StandardCharsets.UTF_8));
+            }
+            zip.finish();
+            return drain();
+        }
+
+        private void write(String name, byte[] content) {
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            ZipEntry entry = new ZipEntry(name);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(content.length);
+            entry.setCompressedSize(content.length);
+            entry.setCrc(crc.getValue());
+            try {
+                zip.putNextEntry(entry);
+                zip.write(content);
+                zip.closeEntry();
+            } catch (IOException e) {
+                // ByteArrayOutputStream no lanza IOException: solo un nombre repetido llega aquí
+                throw new IllegalStateException("No se pudo añadir " + name + " al ZIP", e);
+            }
+        }
+
+        private DataBuffer drain() {
+            DataBuffer buffer = bufferFactory.wrap(pending.toByteArray());
+            pending.reset();
+            return buffer;
+        }
+
+        void close() {
+            try {
+                zip.close();
+            } catch (IOException e) {
+                // nada que liberar fuera del heap
+            }
+        }
+    }
+}
@@ -0,0 +1,492 @@
+package com.clinica.service;
+
+import com.clinica.model.*;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.apache.fontbox.ttf.TTFParser;
+import org.apache.fontbox.ttf.TrueTypeFont;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.io.RandomAccessReadBuffer;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.apache.pdfbox.pdmodel.graphics.color.PDColorSpace;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceCMYK;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceGray;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceRGB;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+// Renderizado PDF nativo directamente sobre content streams de PDFBox, sin pasar por
+// el modelo de objetos de Word. Fuentes y membrete se cargan una sola vez al arrancar.
+@Service
+public class PdfBoxRenderingService implements PrescriptionRenderer {
+
+    private static final Logger log = LoggerFactory.getLogger(PdfBoxRenderingService.class);
+
+    private static final PDRectangle PAGE_SIZE = PDRectangle.A4;
+    private static final float MARGIN = 50;
+    private static final float CELL_PADDING = 4;
+    private static final float BODY_SIZE = 10;
+    private static final float LETTERHEAD_MAX_HEIGHT = 60;
+    private static final Pattern LINE_BREAK = Pattern.compile("\\R");
+
+    private static final String[] MED_HEADERS = { "Medicamento", "Dosis", "Frecuencia", "Duración", "Notas" };
+    private static final float[] MED_WIDTHS = { 0.28f, 0.16f, 0.18f, 0.16f, 0.22f };
+
+    @Value("${clinica.pdf.font.regular:}")
+    private String regularFontLocation;
+
+    @Value("${clinica.pdf.font.bold:}")
+    private String boldFontLocation;
+
+    @Value("${clinica.pdf.letterhead:}")
+    private String letterheadLocation;
+
+    @Autowired
+    private ExportMetrics exportMetrics;
+
+    private final ResourceLoader resourceLoader = new DefaultResourceLoader();
+
+    // TrueTypeFont no es thread-safe: cada hilo de render parsea la fuente una vez
+    // (desde los bytes ya cargados en memoria) y la reutiliza en todos sus documentos
+    private ThreadLocal<TrueTypeFont> regularFont;
+    private ThreadLocal<TrueTypeFont> boldFont;
+
+    private PreEncodedImage letterhead;
+
+    @PostConstruct
+    void loadResources() throws IOException {
+        regularFont = loadFont(regularFontLocation);
+        boldFont = loadFont(boldFontLocation);
+        if (regularFont == null || boldFont == null) {
+            log.warn("Fuentes TTF no configuradas: se usa Helvetica (sin incrustar)");
+            regularFont = null;
+            boldFont = null;
+        }
+        if (!letterheadLocation.isBlank()) {
+            letterhead = PreEncodedImage.load(resourceLoader.getResource(letterheadLocation).getContentAsByteArray());
+        }
+    }
+
+    private ThreadLocal<TrueTypeFont> loadFont(String location) throws IOException {
+        if (location.isBlank()) {
+            return null;
+        }
+        byte[] data = withoutGsub(resourceLoader.getResource(location).getContentAsByteArray());
+        // Validar al arrancar en lugar de en la primera receta
+        new TTFParser().parse(new RandomAccessReadBuffer(data)).close();
+        return ThreadLocal.withInitial(() -> {
+            try {
+                return new TTFParser().parse(new RandomAccessReadBuffer(data));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    // Renombra la tabla GSUB en el directorio del TTF. Con GSUB, PDFBox pasa cada texto por
+    // un motor de sustitución de glifos (ligaduras, scripts complejos) que no aporta nada
+    // al español y era la mayor parte del tiempo de render.
+    private static byte[] withoutGsub(byte[] font) {
+        ByteBuffer buffer = ByteBuffer.wrap(font);
+        int numTables = buffer.getShort(4) & 0xFFFF;
+        for (int i = 0; i < numTables; i++) {
+            int entry = 12 + 16 * i;
+            if (buffer.getInt(entry) == 0x47535542) { // 'GSUB'
+                buffer.putInt(entry, 0x78535542); // 'xSUB': tabla desconocida, se ignora
+            }
+        }
+        return font;
+    }
+
+    @Override
+    public String format() {
+        return "pdf";
+    }
+
+    @Override
+    public MediaType contentType() {
+        return MediaType.APPLICATION_PDF;
+    }
+
+    @Override
+    public String layoutVersion() {
+        return "receta-pdf-1";
+    }
+
+    @Override
+    public void writePrescription(AppointmentDTO appointment, List<PrescriptionItemDTO> items, OutputStream out)
+            throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            Timer.Sample layoutSample = exportMetrics.startStage();
+            PDFont regular;
+            PDFont bold;
+            if (regularFont != null) {
+                // Solo se incrustan los glifos usados en el documento
+                regular = PDType0Font.load(document, regularFont.get(), true);
+                bold = PDType0Font.load(document, boldFont.get(), true);
+            } else {
+                regular = new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+                bold = new PDType1Font(Standard14Fonts.FontName.HELVETICA_BOLD);
+            }
+
+            try (Layout layout = new Layout(document, regular, bold)) {
+                // 1. ENCABEZADO
+                if (letterhead != null) {
+                    layout.image(letterhead.create(document));
+                }
+                layout.centered("Clínica Monteluz", bold, 18);
+                layout.centered("Receta Médica", regular, 14);
+                layout.space(BODY_SIZE);
+
+                // 2. TABLA DE INFORMACIÓN
+                String patientName = (appointment.getPatient() != null
+                        && appointment.getPatient().getFullName() != null)
+                                ? appointment.getPatient().getFullName()
+                                : "Paciente ID: " + appointment.getPatientId();
+                String doctorName = (appointment.getDoctor() != null
+                        && appointment.getDoctor().getFullName() != null)
+                                ? appointment.getDoctor().getFullName()
+                                : "Doctor ID: " + appointment.getDoctorId();
+                String appointmentDate = appointment.getAppointmentTime() != null
+                        ? appointment.getAppointmentTime().format(DATE_FORMAT)
+                        : "N/A";
+                String specialty = appointment.getDoctor() != null && appointment.getDoctor().getSpecialties() != null
+                        ? appointment.getDoctor().getSpecialties().getName()
+                        : "General";
+                String license = (appointment.getDoctor() != null
+                        && appointment.getDoctor().getLicenseNumber() != null)
+                                ? appointment.getDoctor().getLicenseNumber()
+                                : "N/A";
+
+                float[] halves = { 0.5f, 0.5f };
+                layout.row(new String[] { "Paciente: " + patientName, "Doctor: " + doctorName }, halves, false);
+                layout.row(new String[] { "Fecha: " + appointmentDate, "Especialidad: " + specialty }, halves, false);
+                layout.row(new String[] { "Lic. Médica: " + license, "ID Cita: " + appointment.getId() }, halves,
+                        false);
+                layout.space(BODY_SIZE);
+
+                // 3. DIAGNÓSTICO
+                layout.paragraph("Diagnóstico:", bold, 12);
+                String diagnosis = (appointment.getDiagnosis() != null && !appointment.getDiagnosis().isEmpty())
+                        ? appointment.getDiagnosis()
+                        : "No especificado";
+                layout.paragraph(diagnosis, regular, BODY_SIZE);
+                layout.space(BODY_SIZE);
+
+                // 4. PRESCRIPCIÓN
+                layout.paragraph("℞ Prescripción:", bold, 12);
+                layout.space(4);
+                if (items != null && !items.isEmpty()) {
+                    layout.setRepeatedHeader(MED_HEADERS, MED_WIDTHS);
+                    layout.row(MED_HEADERS, MED_WIDTHS, true);
+                    for (PrescriptionItemDTO item : items) {
+                        layout.row(new String[] {
+                                item.getMedication() != null ? item.getMedication() : "-",
+                                item.getDosage() != null ? item.getDosage() : "-",
+                                item.getFrequency() != null ? item.getFrequency() : "-",
+                                item.getDuration() != null ? item.getDuration() : "-",
+                                item.getNotes() != null ? item.getNotes() : "-" }, MED_WIDTHS, false);
+                    }
+                    layout.setRepeatedHeader(null, null);
+                } else {
+                    layout.paragraph("Sin medicamentos prescritos.", regular, BODY_SIZE);
+                }
+
+                // 5. FIRMA
+                layout.space(BODY_SIZE * 4);
+                layout.keepTogether(3 * BODY_SIZE * 1.4f + BODY_SIZE);
+                layout.centered("___________________________", regular, BODY_SIZE);
+                layout.centered("Firma del Médico", regular, BODY_SIZE);
+                layout.centered(doctorName, regular, BODY_SIZE);
+            }
+            exportMetrics.stopStage(layoutSample, format(), "layout");
+
+            Timer.Sample serializeSample = exportMetrics.startStage();
+            document.save(out);
+            exportMetrics.stopStage(serializeSample, format(), "serialize");
+        }
+    }
+
+    // Cursor de escritura sobre páginas A4 con salto de página automático
+    private static final class Layout implements AutoCloseable {
+
+        private final PDDocument document;
+        private final PDFont regular;
+        private final PDFont bold;
+        private final float contentWidth = PAGE_SIZE.getWidth() - 2 * MARGIN;
+
+        private PDPageContentStream stream;
+        private float y;
+        private String[] repeatedHeader;
+        private float[] repeatedWidths;
+        private PDFont currentFont;
+        private float currentSize;
+
+        Layout(PDDocument document, PDFont regular, PDFont bold) throws IOException {
+            this.document = document;
+            this.regular = regular;
+            this.bold = bold;
+            newPage();
+        }
+
+        void setRepeatedHeader(String[] header, float[] widths) {
+            this.repeatedHeader = header;
+            this.repeatedWidths = widths;
+        }
+
+        private void newPage() throws IOException {
+            if (stream != null) {
+                stream.close();
+            }
+            PDPage page = new PDPage(PAGE_SIZE);
+            document.addPage(page);
+            stream = new PDPageContentStream(document, page);
+            stream.setLineWidth(0.5f);
+            currentFont = null;
+            y = PAGE_SIZE.getHeight() - MARGIN;
+        }
+
+        void keepTogether(float height) throws IOException {
+            if (y - height < MARGIN) {
+                newPage();
+            }
+        }
+
+        void space(float height) {
+            y -= height;
+        }
+
+        void image(PDImageXObject image) throws IOException {
+            float scale = Math.min(1f, LETTERHEAD_MAX_HEIGHT / image.getHeight());
+            float width = image.getWidth() * scale;
+            float height = image.getHeight() * scale;
+            stream.drawImage(image, MARGIN + (contentWidth - width) / 2, y - height, width, height);
+            y -= height + BODY_SIZE;
+        }
+
+        void centered(String text, PDFont font, float size) throws IOException {
+            text = sanitize(font, text);
+            float leading = size * 1.4f;
+            keepTogether(leading);
+            float width = font.getStringWidth(text) / 1000 * size;
+            y -= leading;
+            drawText(text, font, size, MARGIN + (contentWidth - width) / 2, y);
+        }
+
+        void paragraph(String text, PDFont font, float size) throws IOException {
+            float leading = size * 1.4f;
+            for (String part : LINE_BREAK.split(text)) {
+                for (String line : wrap(font, size, sanitize(font, part), contentWidth)) {
+                    keepTogether(leading);
+                    y -= leading;
+                    drawText(line, font, size, MARGIN, y);
+                }
+            }
+        }
+
+        // Fila de tabla con bordes; el texto de cada celda se ajusta al ancho de su columna
+        void row(String[] cells, float[] widths, boolean header) throws IOException {
+            PDFont font = header ? bold : regular;
+            float leading = BODY_SIZE * 1.3f;
+            List<List<String>> lines = new ArrayList<>(cells.length);
+            int maxLines = 1;
+            for (int i = 0; i < cells.length; i++) {
+                float cellWidth = contentWidth * widths[i] - 2 * CELL_PADDING;
+                List<String> wrapped = wrap(font, BODY_SIZE, sanitize(font, LINE_BREAK.matcher(cells[i]).replaceAll(" ")), cellWidth);
+                lines.add(wrapped);
+                maxLines = Math.max(maxLines, wrapped.size());
+            }
+            float height = maxLines * leading + 2 * CELL_PADDING;
+
+            if (y - height < MARGIN) {
+                newPage();
+                if (!header && repeatedHeader != null) {
+                    row(repeatedHeader, repeatedWidths, true);
+                }
+            }
+
+            float x = MARGIN;
+            for (int i = 0; i < cells.length; i++) {
+                float cellWidth = contentWidth * widths[i];
+                if (header) {
+                    stream.setNonStrokingColor(0xE0 / 255f, 0xE0 / 255f, 0xE0 / 255f);
+                    stream.addRect(x, y - height, cellWidth, height);
+                    stream.fill();
+                    stream.setNonStrokingColor(0f, 0f, 0f);
+                }
+                stream.addRect(x, y - height, cellWidth, height);
+                stream.stroke();
+
+                float baseline = y - CELL_PADDING - BODY_SIZE;
+                for (String line : lines.get(i)) {
+                    drawText(line, font, BODY_SIZE, x + CELL_PADDING, baseline);
+                    baseline -= leading;
+                }
+                x += cellWidth;
+            }
+            y -= height;
+        }
+
+        private void drawText(String text, PDFont font, float size, float x, float baseline) throws IOException {
+            // Tf es estado de texto persistente: solo se emite cuando cambia
+            if (font != currentFont || size != currentSize) {
+                stream.setFont(font, size);
+                currentFont = font;
+                currentSize = size;
+            }
+            stream.beginText();
+            stream.newLineAtOffset(x, baseline);
+            stream.showText(text);
+            stream.endText();
+        }
+
+        @Override
+        public void close() throws IOException {
+            stream.close();
+        }
+    }
+
+    // Sustituye los caracteres que la fuente no puede codificar (p. ej. ℞ en Helvetica)
+    private static String sanitize(PDFont font, String text) throws IOException {
+        try {
+            font.encode(text);
+            return text;
+        } catch (IllegalArgumentException e) {
+            StringBuilder safe = new StringBuilder(text.length());
+            text.codePoints().forEach(cp -> {
+                String ch = new String(Character.toChars(cp));
+                try {
+                    font.encode(ch);
+                    safe.append(ch);
+                } catch (IllegalArgumentException | IOException unsupported) {
+                    safe.append(cp == '℞' ? "Rx" : "?");
+                }
+            });
+            return safe.toString();
+        }
+    }
+
+    private static List<String> wrap(PDFont font, float size, String text, float maxWidth) throws IOException {
+        List<String> lines = new ArrayList<>();
+        StringBuilder line = new StringBuilder();
+        for (String word : text.split(" ")) {
+            String candidate = line.isEmpty() ? word : line + " " + word;
+            if (width(font, size, candidate) <= maxWidth) {
+                line.setLength(0);
+                line.append(candidate);
+                continue;
+            }
+            if (!line.isEmpty()) {
+                lines.add(line.toString());
+                line.setLength(0);
+            }
+            // Palabra más ancha que la columna: se corta por caracteres
+            while (width(font, size, word) > maxWidth && word.length() > 1) {
+                int cut = word.length() - 1;
+                while (cut > 1 && width(font, size, word.substring(0, cut)) > maxWidth) {
+                    cut--;
+                }
+                lines.add(word.substring(0, cut));
+                word = word.substring(cut);
+            }
+            line.append(word);
+        }
+        lines.add(line.toString());
+        return lines;
+    }
+
+    private static float width(PDFont font, float size, String text) throws IOException {
+        return font.getStringWidth(text) / 1000 * size;
+    }
+
+    // Imagen ya comprimida al arrancar: por documento solo se copia el stream codificado,
+    // sin decodificar ni recomprimir el PNG/JPEG original
+    private record PreEncodedImage(byte[] encoded, COSBase filter, COSBase decodeParms, int width, int height,
+            int bitsPerComponent, int components, PreEncodedImage softMask) {
+
+        static PreEncodedImage load(byte[] source) throws IOException {
+            try (PDDocument scratch = new PDDocument()) {
+                PDImageXObject image = PDImageXObject.createFromByteArray(scratch, source, "letterhead");
+                return of(image.getCOSObject(), image.getColorSpace().getNumberOfComponents());
+            }
+        }
+
+        private static PreEncodedImage of(COSStream stream, int components) throws IOException {
+            byte[] encoded;
+            try (InputStream raw = stream.createRawInputStream()) {
+                encoded = raw.readAllBytes();
+            }
+            COSStream mask = stream.getCOSStream(COSName.SMASK);
+            return new PreEncodedImage(encoded,
+                    stream.getDictionaryObject(COSName.FILTER),
+                    stream.getDictionaryObject(COSName.DECODE_PARMS),
+                    stream.getInt(COSName.WIDTH),
+                    stream.getInt(COSName.HEIGHT),
+                    stream.getInt(COSName.BITS_PER_COMPONENT),
+                    components,
+                    mask != null ? of(mask, 1) : null);
+        }
+
+        PDImageXObject create(PDDocument document) throws IOException {
+            PDColorSpace colorSpace = switch (components) {
+                case 1 -> PDDeviceGray.INSTANCE;
+                case 4 -> PDDeviceCMYK.INSTANCE;
+                default -> PDDeviceRGB.INSTANCE;
+            };
+            PDImageXObject image = new PDImageXObject(document, new ByteArrayInputStream(encoded), copy(filter),
+                    width, height, bitsPerComponent, colorSpace);
+            if (decodeParms != null) {
+                image.getCOSObject().setItem(COSName.DECODE_PARMS, copy(decodeParms));
+            }
+            if (softMask != null) {
+                image.getCOSObject().setItem(COSName.SMASK, softMask.create(document));
+            }
+            return image;
+        }
+
+        // Cada documento recibe su propia copia de los diccionarios (no se comparten entre hilos)
+        private static COSBase copy(COSBase value) {
+            if (value instanceof COSDictionary dictionary) {
+                COSDictionary copy = new COSDictionary();
+                copy.addAll(dictionary);
+                return copy;
+            }
+            if (value instanceof COSArray array) {
+                COSArray copy = new COSArray();
+                for (int i = 0; i < array.size(); i++) {
+                    copy.add(copy(array.get(i)));
+                }
+                return copy;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.clinica.service;
+
+import com.clinica.config.SupabaseClientConfig;
+import com.clinica.model.AppointmentDTO;
+import com.clinica.model.PrescriptionDTO;
+import com.clinica.model.PrescriptionItemDTO;
+import com.clinica.service.DocumentArchive.ArchivedDocument;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// Pre-renderizado de las recetas del día al archivo local (DocumentArchive), para que las
+// descargas de después del cierre se sirvan desde disco sin consultar Supabase ni renderizar:
+//   1. Las citas completadas con appointment_time en las últimas `lookback` horas llegan de
+//      Supabase por páginas de page-size, con receta, items y perfiles (una consulta por página
+//      más los perfiles que no estén en el espejo de ReferenceDataCache).
+//   2. Cada página se renderiza en un ForkJoinPool propio de `parallelism` hilos (0 = nº de
+//      CPUs), una tarea por cita y formato; las ya archivadas con la misma huella se saltan.
+//   3. Tras cada página se guarda el punto de control (ventana + última cita leída) en
+//      <clinica.archive.dir>/prerender.checkpoint: si el proceso se reinicia o la pasada
+//      falla, la siguiente reanuda esa ventana desde esa página y sigue con la ventana actual
+//      desde donde acabó aquella. Un punto de control de hace más de `lookback` se descarta.
+// No compite con las exportaciones de los usuarios: ningún documento empieza mientras haya
+// renders suyos en curso (RenderAdmission). Es el único freno; la prioridad de los hilos no
+// cuenta (Linux la ignora sin opciones extra de la JVM).
+@Service
+public class PrerenderService {
+
+    private static final Logger log = LoggerFactory.getLogger(PrerenderService.class);
+
+    private static final String CHECKPOINT = "prerender.checkpoint";
+
+    @Autowired
+    private SupabaseService supabaseService;
+
+    @Autowired
+    private DocumentArchive documentArchive;
+
+    @Autowired
+    private List<PrescriptionRenderer> renderers;
+
+    @Autowired
+    private RenderAdmission renderAdmission;
+
+    @Autowired
+    private ExportMetrics exportMetrics;
+
+    @Value("${clinica.prerender.enabled:true}")
+    private boolean enabled;
+
+    @Value("${clinica.prerender.lookback:24h}")
+    private Duration lookback;
+
+    @Value("${clinica.prerender.formats:docx}")
+    private List<String> formats;
+
+    @Value("${clinica.prerender.page-size:100}")
+    private int pageSize;
+
+    @Value("${clinica.prerender.parallelism:0}")
+    private int parallelism;
+
+    @Value("${clinica.prerender.backoff:200ms}")
+    private Duration backoff;
+
+    @Value("${clinica.prerender.timeout:60s}")
+    private Duration timeout;
+
+    @Value("${clinica.archive.dir:./data/archive}")
+    private String archiveLocation;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile boolean stopping;
+    private ForkJoinPool pool;
+    private List<PrescriptionRenderer> selected;
+
+    // Ventana de la pasada y última cita leída (null al empezar)
+    private record Checkpoint(Instant from, Instant to, Instant afterTime, Long afterId) {
+    }
+
+    // Resultado de una pasada, para el log
+    private static final class Counts {
+        final AtomicInteger rendered = new AtomicInteger();
+        final AtomicInteger archived = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        int appointments;
+    }
+
+    @PostConstruct
+    void start() {
+        selected = renderers.stream()
+                .filter(renderer -> formats.stream().anyMatch(format -> format.equalsIgnoreCase(renderer.format())))
+                .toList();
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        pool = new ForkJoinPool(threads, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("prerender-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    @PreDestroy
+    void stop() {
+        // El punto de control queda en disco: la pasada sigue en el próximo arranque
+        stopping = true;
+        pool.shutdownNow();
+    }
+
+    @Scheduled(cron = "${clinica.prerender.cron:0 0 21 * * *}", zone = "${clinica.zone:America/Lima}")
+    void scheduledRun() {
+        if (!startRun()) {
+            log.info("Pre-renderizado programado omitido: ya hay una pasada en curso o está desactivado");
+        }
+    }
+
+    // Una pasada interrumpida por un reinicio sigue en cuanto la aplicación está lista
+    @EventListener(ApplicationReadyEvent.class)
+    void resumeInterrupted() {
+        if (enabled && documentArchive.isEnabled() && Files.exists(checkpointPath())) {
+            startRun();
+        }
+    }
+
+    /**
+     * Lanza una pasada en segundo plano. false si el pre-renderizado (o el archivo) está
+     * desactivado o si ya hay una pasada en curso.
+     */
+    public boolean startRun() {
+        if (!enabled || !documentArchive.isEnabled() || selected.isEmpty() || !running.compareAndSet(false, true)) {
+            return false;
+        }
+        Schedulers.boundedElastic().schedule(() -> {
+            try {
+                run();
+            } finally {
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    private void run() {
+        Instant now = Instant.now();
+        Instant from = now.minus(lookback);
+        try {
+            // 1. Ventana de una pasada anterior que no terminó: se acaba primero, salvo que sea
+            //    tan antigua que ya no la cubriría ninguna pasada
+            Checkpoint resumed = readCheckpoint();
+            if (resumed != null && resumed.to().isBefore(from)) {
+                log.info("Se descarta el punto de control del pre-renderizado de {} a {}: de hace más de {}",
+                        resumed.from(), resumed.to(), lookback);
+                resumed = null;
+            }
+            if (resumed != null) {
+                log.info("Reanudando el pre-renderizado de {} a {} tras la cita {}", resumed.from(), resumed.to(),
+                        resumed.afterId());
+                if (!renderWindow(resumed)) {
+                    return;
+                }
+                // La ventana actual empieza donde acabó la reanudada, sin repetirla
+                from = resumed.to();
+            }
+
+            // 2. Ventana actual
+            Checkpoint current = new Checkpoint(from, now, null, null);
+            writeCheckpoint(current);
+            renderWindow(current);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Pre-renderizado interrumpido (se reanudará desde el último punto de control): {}", e.getMessage());
+        }
+    }
+
+    // Una ventana página a página desde su punto de control; false si la aplicación se detuvo a mitad
+    private boolean renderWindow(Checkpoint checkpoint) throws IOException {
+        long start = System.nanoTime();
+        Counts counts = new Counts();
+        List<AppointmentDTO> page;
+        do {
+            awaitIdle();
+            if (stopping) {
+                return false;
+            }
+            page = supabaseService.getCompletedAppointments(checkpoint.from(), checkpoint.to(),
+                    checkpoint.afterTime(), checkpoint.afterId(), pageSize).block(timeout);
+            counts.appointments += page.size();
+
+            // 1. Una tarea por cita con receta; invokeAll las reparte entre los hilos del pool
+            List<ForkJoinTask<?>> tasks = page.stream()
+                    .filter(appointment -> appointment.getPrescriptions() != null
+                            && !appointment.getPrescriptions().isEmpty())
+                    .<ForkJoinTask<?>>map(appointment -> ForkJoinTask.adapt(() -> prerender(appointment, counts)))
+                    .toList();
+            pool.submit(() -> ForkJoinTask.invokeAll(tasks)).join();
+
+            // 2. Página terminada: el reinicio seguirá tras su última cita
+            if (!page.isEmpty()) {
+                AppointmentDTO last = page.get(page.size() - 1);
+                checkpoint = new Checkpoint(checkpoint.from(), checkpoint.to(),
+                        last.getAppointmentTime().atZone(SupabaseClientConfig.CLINIC_ZONE).toInstant(), last.getId());
+                writeCheckpoint(checkpoint);
+            }
+        } while (page.size() == pageSize && !stopping);
+
+        if (stopping) {
+            return false;
+        }
+        Files.deleteIfExists(checkpointPath());
+        log.info("Pre-renderizado de {} a {}: {} citas, {} documentos renderizados, {} ya archivados, {} fallidos en {} s",
+                checkpoint.from(), checkpoint.to(), counts.appointments, counts.rendered.get(),
+                counts.archived.get(), counts.failed.get(), (System.nanoTime() - start) / 1_000_000_000);
+        return true;
+    }
+
+    // Cada formato por separado; un fallo solo se cuenta, la cita se exportará al pedirla
+    private void prerender(AppointmentDTO appointment, Counts counts) {
+        PrescriptionDTO prescription = appointment.getPrescriptions().get(0);
+        if (!DocumentArchive.archivable(appointment, prescription)) {
+            // Receta aún sin items: se archivará en una pasada posterior o al exportarla
+            return;
+        }
+        List<PrescriptionItemDTO> items = prescription.getItems();
+        for (PrescriptionRenderer renderer : selected) {
+            String fingerprint = renderer.fingerprint(appointment, items);
+            ArchivedDocument archived = documentArchive.find(appointment.getId(), renderer.format(),
+                    prescription.getId(), fingerprint);
+            if (archived != null && documentArchive.present(archived)) {
+                counts.archived.incrementAndGet();
+                exportMetrics.prerendered(renderer.format(), "archived");
+                continue;
+            }
+            awaitIdle();
+            if (stopping) {
+                return;
+            }
+            try {
+                byte[] document = renderer.render(appointment, items);
+                documentArchive.store(appointment.getId(), prescription.getId(), renderer.format(), fingerprint, document);
+                counts.rendered.incrementAndGet();
+                exportMetrics.prerendered(renderer.format(), "rendered");
+            } catch (IOException | RuntimeException e) {
+                counts.failed.incrementAndGet();
+                exportMetrics.prerendered(renderer.format(), "failed");
+                log.warn("No se pudo pre-renderizar la receta de la cita {}: {}", appointment.getId(), e.getMessage());
+            }
+        }
+    }
+
+    // Cede ante las exportaciones de los usuarios: espera mientras tengan renders en curso
+    private void awaitIdle() {
+        while (renderAdmission.inFlight() > 0 && !stopping) {
+            LockSupport.parkNanos(backoff.toNanos());
+        }
+    }
+
+    private Path checkpointPath() {
+        return Path.of(archiveLocation).toAbsolutePath().resolve(CHECKPOINT);
+    }
+
+    // Un punto de control ilegible se descarta: la pasada empieza de nuevo
+    private Checkpoint readCheckpoint() {
+        Path path = checkpointPath();
+        if (!Files.exists(path)) {
+            return null;
+        }
+        Properties values = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            values.load(reader);
+            String afterId = values.getProperty("after_id");
+            return new Checkpoint(Instant.parse(values.getProperty("from")), Instant.parse(values.getProperty("to")),
+                    afterId != null ? Instant.parse(values.getProperty("after_time")) : null,
+                    afterId != null ? Long.valueOf(afterId) : null);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Punto de control del pre-renderizado ilegible, se empieza de nuevo: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    // Fichero temporal + rename: un corte a mitad deja el punto de control anterior
+    private void writeCheckpoint(Checkpoint checkpoint) {
+        Properties values = new Properties();
+        values.setProperty("from", checkpoint.from().toString());
+        values.setProperty("to", checkpoint.to().toString());
+        if (checkpoint.afterId() != null) {
+            values.setProperty("after_time", checkpoint.afterTime().toString());
+            values.setProperty("after_id", checkpoint.afterId().toString());
+        }
+        Path path = checkpointPath();
+        try {
+            Path tmp = path.resolveSibling(CHECKPOINT + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                values.store(writer, null);
+            }
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
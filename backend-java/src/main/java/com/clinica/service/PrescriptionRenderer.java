@@ -0,0 +1,93 @@
+package com.clinica.service;
+
+import com.clinica.model.AppointmentDTO;
+import com.clinica.model.PrescriptionItemDTO;
+import com.clinica.model.ProfileDTO;
+import org.springframework.http.MediaType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.format.DateTimeFormatter;
+import java.util.HexFormat;
+import java.util.List;
+
+// Motor de renderizado de recetas para un formato de salida (docx, pdf)
+public interface PrescriptionRenderer {
+
+    DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+
+    // Formato solicitado por el cliente (?format=...)
+    String format();
+
+    MediaType contentType();
+
+    // Cambiar al modificar el diseño del documento: invalida las huellas ya emitidas
+    String layoutVersion();
+
+    // Escribe el documento directamente en el stream, sin materializarlo en un byte[].
+    // No cierra el stream.
+    void writePrescription(AppointmentDTO appointment, List<PrescriptionItemDTO> items, OutputStream out)
+            throws IOException;
+
+    default byte[] render(AppointmentDTO appointment, List<PrescriptionItemDTO> items) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writePrescription(appointment, items, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Huella SHA-256 de todos los datos que aparecen en el documento más la versión del
+     * diseño. Dos llamadas con la misma huella generan el mismo documento, así que sirve
+     * como clave de caché y ETag.
+     */
+    default String fingerprint(AppointmentDTO appointment, List<PrescriptionItemDTO> items) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        ProfileDTO patient = appointment.getPatient();
+        ProfileDTO doctor = appointment.getDoctor();
+        update(digest, layoutVersion());
+        update(digest, appointment.getId());
+        update(digest, appointment.getPatientId());
+        update(digest, patient != null ? patient.getFullName() : null);
+        update(digest, appointment.getDoctorId());
+        update(digest, doctor != null ? doctor.getFullName() : null);
+        update(digest, doctor != null ? doctor.getLicenseNumber() : null);
+        update(digest, doctor != null && doctor.getSpecialties() != null ? doctor.getSpecialties().getName() : null);
+        update(digest, appointment.getAppointmentTime() != null
+                ? appointment.getAppointmentTime().format(DATE_FORMAT)
+                : null);
+        update(digest, appointment.getDiagnosis());
+
+        int count = items != null ? items.size() : 0;
+        update(digest, count);
+        for (int i = 0; i < count; i++) {
+            PrescriptionItemDTO item = items.get(i);
+            update(digest, item.getMedication());
+            update(digest, item.getDosage());
+            update(digest, item.getFrequency());
+            update(digest, item.getDuration());
+            update(digest, item.getNotes());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    // Cada campo va seguido de un separador; null se distingue de la cadena vacía
+    private static void update(MessageDigest digest, Object value) {
+        if (value == null) {
+            digest.update((byte) 0);
+        } else {
+            digest.update((byte) 1);
+            digest.update(value.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update((byte) 0x1F);
+    }
+}
@@ -0,0 +1,194 @@
+package com.clinica.service;
+
+import com.clinica.model.ProfileDTO;
+import com.clinica.model.SpecialtyDTO;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineStatsCounter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+// Datos de referencia en memoria, en dos niveles:
+//   1. Espejo de las tablas profiles, dependents y specialties completas, que carga y mantiene
+//      al día ReferenceDataSync. Las lecturas se sirven de aquí sin ir a Supabase; si el espejo
+//      lleva más de clinica.mirror.stale-after sin sincronizarse se sigue sirviendo igual y se
+//      pide una sincronización en segundo plano (stale-while-revalidate).
+//   2. Caché de lectura (W-TinyLFU, acotada por tamaño y TTL) para lo que aún no está en el
+//      espejo: perfiles creados después de la última sincronización o espejo sin cargar.
+// Los valores ausentes (Mono vacío) no se guardan, así que un perfil recién creado
+// aparece en la siguiente consulta.
+@Component
+public class ReferenceDataCache {
+
+    private final AsyncCache<String, ProfileDTO> profiles;
+    private final AsyncCache<Integer, SpecialtyDTO> specialties;
+
+    private final Mirror<String, ProfileDTO> mirroredProfiles;
+    private final Mirror<String, ProfileDTO> mirroredDependents;
+    private final Mirror<Integer, SpecialtyDTO> mirroredSpecialties;
+    private volatile Runnable staleHandler = () -> { };
+
+    public ReferenceDataCache(MeterRegistry meterRegistry,
+            @Value("${clinica.cache.profiles.ttl:10m}") Duration profilesTtl,
+            @Value("${clinica.cache.profiles.max-size:5000}") long profilesMaxSize,
+            @Value("${clinica.cache.specialties.ttl:6h}") Duration specialtiesTtl,
+            @Value("${clinica.cache.specialties.max-size:500}") long specialtiesMaxSize,
+            @Value("${clinica.mirror.stale-after:2m}") Duration staleAfter) {
+        this.profiles = build(meterRegistry, "profiles", profilesTtl, profilesMaxSize);
+        this.specialties = build(meterRegistry, "specialties", specialtiesTtl, specialtiesMaxSize);
+        this.mirroredProfiles = new Mirror<>(staleAfter);
+        this.mirroredDependents = new Mirror<>(staleAfter);
+        this.mirroredSpecialties = new Mirror<>(staleAfter);
+    }
+
+    /**
+     * Copia en memoria de una tabla de referencia. Se sustituye entera en cada carga completa
+     * y se actualiza fila a fila con los cambios; las lecturas no bloquean.
+     */
+    public static final class Mirror<K, V> {
+
+        private final long staleAfterNanos;
+        private volatile Map<K, V> rows = new ConcurrentHashMap<>();
+        // System.nanoTime() de la última sincronización correcta; 0 = aún sin cargar
+        private volatile long syncedAt;
+
+        private Mirror(Duration staleAfter) {
+            this.staleAfterNanos = staleAfter.toNanos();
+        }
+
+        V get(K key) {
+            return rows.get(key);
+        }
+
+        boolean isStale() {
+            return syncedAt != 0 && System.nanoTime() - syncedAt > staleAfterNanos;
+        }
+
+        public boolean isLoaded() {
+            return syncedAt != 0;
+        }
+
+        public int size() {
+            return rows.size();
+        }
+
+        // Segundos desde la última sincronización correcta (-1 si aún no se ha cargado)
+        public double ageSeconds() {
+            return syncedAt == 0 ? -1 : (System.nanoTime() - syncedAt) / 1e9;
+        }
+
+        public void replace(Map<K, V> loaded) {
+            rows = new ConcurrentHashMap<>(loaded);
+            markSynced();
+        }
+
+        public void put(K key, V value) {
+            rows.put(key, value);
+        }
+
+        public void remove(K key) {
+            rows.remove(key);
+        }
+
+        public void markSynced() {
+            syncedAt = System.nanoTime();
+        }
+    }
+
+    public Mirror<String, ProfileDTO> profileMirror() {
+        return mirroredProfiles;
+    }
+
+    public Mirror<String, ProfileDTO> dependentMirror() {
+        return mirroredDependents;
+    }
+
+    public Mirror<Integer, SpecialtyDTO> specialtyMirror() {
+        return mirroredSpecialties;
+    }
+
+    // Lo llama una lectura servida desde un espejo desactualizado; debe volver enseguida
+    public void setStaleHandler(Runnable staleHandler) {
+        this.staleHandler = staleHandler;
+    }
+
+    private static <K, V> AsyncCache<K, V> build(MeterRegistry meterRegistry, String name, Duration ttl,
+            long maxSize) {
+        CaffeineStatsCounter stats = new CaffeineStatsCounter(meterRegistry, name);
+        AsyncCache<K, V> cache = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(maxSize)
+                .recordStats(() -> stats)
+                .buildAsync();
+        stats.registerSizeMetric(cache.synchronous());
+        return cache;
+    }
+
+    // Del espejo si está (profiles y, si no, dependents); si no, de la caché de lectura, donde
+    // las cargas concurrentes de la misma clave comparten una única consulta a Supabase
+    public Mono<ProfileDTO> getProfile(String id, Function<String, Mono<ProfileDTO>> loader) {
+        ProfileDTO mirrored = mirroredProfile(id);
+        if (mirrored != null) {
+            return Mono.just(mirrored);
+        }
+        return Mono.fromFuture(() -> profiles.get(id, (key, executor) -> loader.apply(key).toFuture()));
+    }
+
+    public Mono<SpecialtyDTO> getSpecialty(Integer id, Function<Integer, Mono<SpecialtyDTO>> loader) {
+        SpecialtyDTO mirrored = mirrored(mirroredSpecialties, id);
+        if (mirrored != null) {
+            return Mono.just(mirrored);
+        }
+        return Mono.fromFuture(() -> specialties.get(id, (key, executor) -> loader.apply(key).toFuture()));
+    }
+
+    // Perfil ya cargado o en carga; las consultas en lote solo piden a Supabase los que faltan
+    public boolean containsProfile(String id) {
+        return mirroredProfile(id) != null || profiles.getIfPresent(id) != null;
+    }
+
+    private ProfileDTO mirroredProfile(String id) {
+        ProfileDTO profile = mirrored(mirroredProfiles, id);
+        return profile != null ? profile : mirrored(mirroredDependents, id);
+    }
+
+    private <K, V> V mirrored(Mirror<K, V> mirror, K key) {
+        V value = mirror.get(key);
+        if (value != null && mirror.isStale()) {
+            staleHandler.run();
+        }
+        return value;
+    }
+
+    public void putProfile(ProfileDTO profile) {
+        profiles.synchronous().put(profile.getId(), profile);
+    }
+
+    public void putSpecialty(SpecialtyDTO specialty) {
+        specialties.synchronous().put(specialty.getId(), specialty);
+    }
+
+    // También sale del espejo: se vuelve a leer de Supabase hasta que lo traiga la sincronización
+    public void invalidateProfile(String id) {
+        mirroredProfiles.remove(id);
+        mirroredDependents.remove(id);
+        profiles.synchronous().invalidate(id);
+    }
+
+    public void invalidateSpecialty(Integer id) {
+        mirroredSpecialties.remove(id);
+        specialties.synchronous().invalidate(id);
+    }
+
+    public void invalidateAll() {
+        profiles.synchronous().invalidateAll();
+        specialties.synchronous().invalidateAll();
+    }
+}
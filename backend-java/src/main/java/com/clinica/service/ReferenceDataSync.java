@@ -0,0 +1,260 @@
+package com.clinica.service;
+
+import com.clinica.config.SupabaseClientConfig;
+import com.clinica.model.ProfileDTO;
+import com.clinica.model.SpecialtyDTO;
+import com.clinica.service.ReferenceDataCache.Mirror;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+// Mantiene el espejo de profiles, dependents y specialties de ReferenceDataCache:
+//   1. Carga completa al arrancar, por páginas de page-size filas en orden de id.
+//   2. Cada poll-interval, solo las filas con updated_at desde la marca de agua (la mayor
+//      updated_at vista) menos `overlap`, para no perder las de transacciones que confirman
+//      tarde; volver a leer unas pocas filas no importa.
+//   3. Cada full-reload, carga completa otra vez: es la que retira las filas borradas, que
+//      los cambios por updated_at no ven.
+// Si una tabla no tiene updated_at (PostgREST responde 400) se recarga entera cada vez que el
+// espejo pasa de clinica.mirror.stale-after. Un fallo deja el espejo como estaba: se sigue
+// sirviendo y se reintenta en el siguiente poll.
+//   clinica.mirror.rows{table}   filas en el espejo
+//   clinica.mirror.age{table}    segundos desde la última sincronización correcta
+@Component
+public class ReferenceDataSync {
+
+    private static final Logger log = LoggerFactory.getLogger(ReferenceDataSync.class);
+
+    // Como mucho una sincronización pedida por lecturas cada 5 s, aunque fallen
+    private static final long MIN_RETRY_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    @Autowired
+    private SupabaseService supabaseService;
+
+    @Autowired
+    private ReferenceDataCache referenceDataCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${clinica.mirror.enabled:true}")
+    private boolean enabled;
+
+    @Value("${clinica.mirror.page-size:1000}")
+    private int pageSize;
+
+    @Value("${clinica.mirror.overlap:5s}")
+    private Duration overlap;
+
+    @Value("${clinica.mirror.full-reload:6h}")
+    private Duration fullReload;
+
+    @Value("${clinica.mirror.timeout:30s}")
+    private Duration timeout;
+
+    private final AtomicBoolean syncing = new AtomicBoolean();
+    private volatile boolean reloadRequested;
+    private volatile long attemptedAt;
+    private List<Table<?, ?>> tables;
+
+    @PostConstruct
+    void init() {
+        tables = List.of(
+                new Table<>("specialties", SpecialtyDTO.class, referenceDataCache.specialtyMirror(),
+                        SpecialtyDTO::getId, SpecialtyDTO::getUpdatedAt),
+                new Table<>("profiles", ProfileDTO.class, referenceDataCache.profileMirror(),
+                        ProfileDTO::getId, ProfileDTO::getUpdatedAt),
+                new Table<>("dependents", ProfileDTO.class, referenceDataCache.dependentMirror(),
+                        ProfileDTO::getId, ProfileDTO::getUpdatedAt));
+        for (Table<?, ?> table : tables) {
+            Gauge.builder("clinica.mirror.rows", table.mirror, Mirror::size)
+                    .description("Filas en el espejo de datos de referencia")
+                    .tag("table", table.name)
+                    .register(meterRegistry);
+            Gauge.builder("clinica.mirror.age", table.mirror, Mirror::ageSeconds)
+                    .description("Segundos desde la última sincronización correcta del espejo")
+                    .tag("table", table.name)
+                    .baseUnit("seconds")
+                    .register(meterRegistry);
+        }
+        if (enabled) {
+            referenceDataCache.setStaleHandler(this::syncSoon);
+        }
+    }
+
+    @Scheduled(initialDelay = 0, fixedDelayString = "${clinica.mirror.poll-interval:PT15S}")
+    void poll() {
+        if (enabled) {
+            sync();
+        }
+    }
+
+    // Sincronización en segundo plano sin esperar al siguiente poll (lectura de un espejo
+    // desactualizado); no hace nada si ya hay una en curso o se intentó hace poco
+    public void syncSoon() {
+        if (enabled && !syncing.get() && System.nanoTime() - attemptedAt > MIN_RETRY_NANOS) {
+            Schedulers.boundedElastic().schedule(this::sync);
+        }
+    }
+
+    // Carga completa de las tres tablas (DELETE /api/cache)
+    public void reloadAll() {
+        reloadRequested = true;
+        syncSoon();
+    }
+
+    void sync() {
+        if (!syncing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            attemptedAt = System.nanoTime();
+            boolean reload = reloadRequested;
+            reloadRequested = false;
+            for (Table<?, ?> table : tables) {
+                try {
+                    table.sync(reload);
+                } catch (RuntimeException e) {
+                    log.warn("No se pudo sincronizar el espejo de {} (se mantiene el anterior): {}",
+                            table.name, e.getMessage());
+                }
+            }
+        } finally {
+            syncing.set(false);
+        }
+    }
+
+    private static Instant instant(LocalDateTime clinicTime) {
+        return clinicTime.atZone(SupabaseClientConfig.CLINIC_ZONE).toInstant();
+    }
+
+    private <T> T block(Mono<T> query) {
+        return query.block(timeout);
+    }
+
+    // Estado de sincronización de una tabla; solo lo toca el hilo que tiene `syncing`
+    private final class Table<K, V> {
+
+        private final String name;
+        private final Class<V> type;
+        private final Mirror<K, V> mirror;
+        private final Function<V, K> idOf;
+        private final Function<V, LocalDateTime> updatedAtOf;
+
+        private boolean hasUpdatedAt = true;
+        private Instant watermark;
+        private long loadedAt;
+
+        Table(String name, Class<V> type, Mirror<K, V> mirror, Function<V, K> idOf,
+                Function<V, LocalDateTime> updatedAtOf) {
+            this.name = name;
+            this.type = type;
+            this.mirror = mirror;
+            this.idOf = idOf;
+            this.updatedAtOf = updatedAtOf;
+        }
+
+        void sync(boolean reload) {
+            if (reload || !mirror.isLoaded() || System.nanoTime() - loadedAt > fullReload.toNanos()) {
+                load();
+            } else if (hasUpdatedAt) {
+                applyChanges();
+            } else if (mirror.isStale()) {
+                load();
+            }
+        }
+
+        void load() {
+            long start = System.nanoTime();
+            Instant startedAt = Instant.now();
+            Map<K, V> rows = new HashMap<>();
+            Instant newest = null;
+            K after = null;
+            List<V> page;
+            do {
+                page = page(after);
+                for (V row : page) {
+                    rows.put(idOf.apply(row), row);
+                    newest = later(newest, row);
+                }
+                if (!page.isEmpty()) {
+                    after = idOf.apply(page.get(page.size() - 1));
+                }
+            } while (page.size() == pageSize);
+
+            mirror.replace(rows);
+            // Tabla vacía: los cambios se buscan desde el inicio de esta carga
+            watermark = newest != null ? newest : startedAt;
+            loadedAt = System.nanoTime();
+            log.debug("Espejo de {} cargado: {} filas en {} ms", name, rows.size(), (loadedAt - start) / 1_000_000);
+        }
+
+        List<V> page(K after) {
+            if (hasUpdatedAt) {
+                try {
+                    return block(supabaseService.getReferencePage(name, type, true, after, pageSize));
+                } catch (WebClientResponseException.BadRequest e) {
+                    if (!SupabaseService.isUndefinedColumn(e)) {
+                        throw e;
+                    }
+                    log.warn("{} sin columna updated_at: el espejo se recargará entero cuando quede desactualizado ({})",
+                            name, e.getResponseBodyAsString());
+                    hasUpdatedAt = false;
+                }
+            }
+            return block(supabaseService.getReferencePage(name, type, false, after, pageSize));
+        }
+
+        void applyChanges() {
+            Instant since = watermark.minus(overlap);
+            Instant afterUpdatedAt = null;
+            K afterId = null;
+            int changed = 0;
+            List<V> page;
+            do {
+                page = block(supabaseService.getReferenceChanges(name, type, since, afterUpdatedAt, afterId, pageSize));
+                for (V row : page) {
+                    mirror.put(idOf.apply(row), row);
+                    watermark = later(watermark, row);
+                }
+                changed += page.size();
+                if (!page.isEmpty()) {
+                    V last = page.get(page.size() - 1);
+                    afterUpdatedAt = instant(updatedAtOf.apply(last));
+                    afterId = idOf.apply(last);
+                }
+            } while (page.size() == pageSize);
+
+            mirror.markSynced();
+            log.debug("Espejo de {}: {} filas cambiadas desde {}", name, changed, since);
+        }
+
+        private Instant later(Instant current, V row) {
+            LocalDateTime updatedAt = updatedAtOf.apply(row);
+            if (updatedAt == null) {
+                return current;
+            }
+            Instant candidate = instant(updatedAt);
+            return current == null || candidate.isAfter(current) ? candidate : current;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.clinica.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Control de admisión del pool de renderizado: con `threads` renders en curso y `queueSize`
+// en espera, los siguientes se rechazan (503 + Retry-After) en lugar de alargar la cola y
+// degradar a todos. tryAdmit reserva el cupo en el momento (antes de comprometer la respuesta)
+// y el cuerpo que lo usa lo libera al terminar o cancelarse, así que una ráfaga no puede
+// pasar la comprobación entera y desbordar después la cola del pool. Los renders sin reserva
+// (trabajos en segundo plano, render de respaldo de uno compartido) cuentan desde que se
+// suscriben, pero no se rechazan.
+//   clinica.render.active / clinica.render.queued  renders ejecutándose / esperando hilo
+//   clinica.render.rejected                        exportaciones rechazadas por pool lleno
+public class RenderAdmission {
+
+    private final int threads;
+    private final int limit;
+    private final Duration retryAfter;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final MeterRegistry registry;
+    private final Counter rejected;
+
+    public RenderAdmission(MeterRegistry registry, int threads, int queueSize, Duration retryAfter) {
+        this.registry = registry;
+        this.threads = threads;
+        this.limit = threads + queueSize;
+        this.retryAfter = retryAfter;
+        this.rejected = Counter.builder("clinica.render.rejected")
+                .description("Exportaciones rechazadas con el pool de renderizado lleno")
+                .register(registry);
+    }
+
+    // Los gauges guardan una referencia a este objeto: se registran ya construido
+    @PostConstruct
+    void registerGauges() {
+        Gauge.builder("clinica.render.active", this, RenderAdmission::active)
+                .description("Renders ejecutándose en el pool")
+                .register(registry);
+        Gauge.builder("clinica.render.queued", this, RenderAdmission::queued)
+                .description("Renders esperando un hilo del pool")
+                .register(registry);
+    }
+
+    /** Cupo reservado por tryAdmit; se libera una sola vez, aunque se llame más. */
+    public final class Permit {
+
+        private final int slots;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(int slots) {
+            this.slots = slots;
+        }
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                inFlight.addAndGet(-slots);
+            }
+        }
+    }
+
+    // Reserva una plaza antes de comprometer la respuesta; null (y cuenta el rechazo) si no la hay
+    public Permit tryAdmit() {
+        return tryAdmit(1);
+    }
+
+    // Reserva `slots` plazas de una vez (un ZIP, tantas como renders simultáneos); como mucho
+    // el límite entero, para que una exportación grande pueda entrar con el pool vacío
+    public Permit tryAdmit(int slots) {
+        int reserved = Math.min(slots, limit);
+        int current;
+        do {
+            current = inFlight.get();
+            if (current + reserved > limit) {
+                rejected.increment();
+                return null;
+            }
+        } while (!inFlight.compareAndSet(current, current + reserved));
+        return new Permit(reserved);
+    }
+
+    // El cuerpo que usa el cupo reservado lo libera al terminar, fallar o cancelarse
+    public <T> Mono<T> admit(Permit permit, Mono<T> render) {
+        return render.doFinally(signal -> permit.release());
+    }
+
+    public <T> Flux<T> admit(Permit permit, Flux<T> render) {
+        return render.doFinally(signal -> permit.release());
+    }
+
+    // Render sin reserva: cuenta mientras está suscrito
+    public <T> Mono<T> admit(Mono<T> render) {
+        return Mono.defer(() -> {
+            inFlight.incrementAndGet();
+            return render.doFinally(signal -> inFlight.decrementAndGet());
+        });
+    }
+
+    // Renders de exportaciones en curso o en espera (los trabajos en segundo plano ceden ante ellos)
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    // Segundos para la cabecera Retry-After
+    public long retryAfterSeconds() {
+        return Math.max(1, retryAfter.toSeconds());
+    }
+
+    private int active() {
+        return Math.min(inFlight.get(), threads);
+    }
+
+    private int queued() {
+        return Math.max(0, inFlight.get() - threads);
+    }
+}
@@ -0,0 +1,167 @@
+package com.clinica.service;
+
+import com.clinica.model.AppointmentDTO;
+import com.clinica.model.PrescriptionItemDTO;
+import com.clinica.model.ProfileDTO;
+import com.clinica.model.SpecialtyDTO;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+// Calentamiento al arrancar: PDFBox carga sus clases y subconjunta las fuentes en el primer
+// PDF (más de un segundo), y el cliente de Supabase resuelve DNS, abre la conexión y construye
+// sus deserializadores en la primera consulta. El DOCX ya no usa POI por petición (las
+// plantillas se compilan al crear DocxTemplateRegistry): su primer documento solo paga la
+// carga de DocxTemplate y del ZIP, y las vueltas siguientes dan al JIT perfiles que compilar.
+// Sin esto la primera exportación de un nodo nuevo tarda segundos.
+// Se ejecuta como ApplicationRunner: el servidor ya escucha (liveness OK) pero la readiness
+// (/actuator/health/readiness) no pasa a ACCEPTING_TRAFFIC hasta que termina.
+// Con clinica.warmup.exit=true la aplicación sale al terminar: lo usa el perfil fast-start
+// de Maven como ejecución de entrenamiento para el archivo CDS, que así incluye estas clases.
+@Component
+public class StartupWarmup implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(StartupWarmup.class);
+
+    @Autowired
+    private List<PrescriptionRenderer> renderers;
+
+    @Autowired
+    private SupabaseService supabaseService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ConfigurableApplicationContext context;
+
+    @Value("${clinica.warmup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${clinica.warmup.iterations:20}")
+    private int iterations;
+
+    @Value("${clinica.warmup.supabase-timeout:5s}")
+    private Duration supabaseTimeout;
+
+    @Value("${clinica.warmup.exit:false}")
+    private boolean exitAfterWarmup;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (enabled) {
+            warmUp();
+        }
+        if (exitAfterWarmup) {
+            log.info("clinica.warmup.exit=true: se cierra la aplicación tras el calentamiento");
+            System.exit(SpringApplication.exit(context));
+        }
+    }
+
+    private void warmUp() {
+        // 1. Cliente de Supabase, en paralelo con el renderizado; si no responde a tiempo se
+        //    arranca igual (la readiness no depende de Supabase)
+        long start = System.nanoTime();
+        CompletableFuture<AppointmentDTO> supabase = supabaseService.warmUp()
+                .timeout(supabaseTimeout)
+                .toFuture();
+
+        // 2. Renderizado
+        warmUpRenderers();
+
+        try {
+            supabase.join();
+            log.info("Cliente de Supabase calentado en {} ms", (System.nanoTime() - start) / 1_000_000);
+        } catch (CompletionException e) {
+            log.warn("No se pudo calentar el cliente de Supabase: {}", e.getCause().toString());
+        }
+    }
+
+    private void warmUpRenderers() {
+        AppointmentDTO appointment = sampleAppointment();
+        List<PrescriptionItemDTO> items = sampleItems(5);
+
+        for (PrescriptionRenderer renderer : renderers) {
+            long start = System.nanoTime();
+            long first = 0;
+            try {
+                // La primera vuelta carga las clases; las siguientes dan al JIT perfiles que compilar
+                for (int i = 0; i < iterations; i++) {
+                    renderer.fingerprint(appointment, items);
+                    renderer.writePrescription(appointment, items, OutputStream.nullOutputStream());
+                    if (i == 0) {
+                        first = System.nanoTime() - start;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // Un fallo aquí no debe impedir arrancar: la primera receta real será más lenta
+                log.warn("Falló el calentamiento del renderizado {}: {}", renderer.format(), e.getMessage());
+                continue;
+            }
+            log.info("Renderizado {} calentado: primer documento {} ms, {} documentos en {} ms",
+                    renderer.format(), first / 1_000_000, iterations, (System.nanoTime() - start) / 1_000_000);
+        }
+
+        // Las muestras del calentamiento no son exportaciones: fuera de clinica.export.render
+        meterRegistry.find("clinica.export.render").meters().forEach(meterRegistry::remove);
+    }
+
+    private static AppointmentDTO sampleAppointment() {
+        SpecialtyDTO specialty = new SpecialtyDTO();
+        specialty.setId(0);
+        specialty.setName("Medicina General");
+
+        ProfileDTO doctor = new ProfileDTO();
+        doctor.setId("warmup-doctor");
+        doctor.setFullName("Dra. Calentamiento Ñuñez");
+        doctor.setLicenseNumber("CMP-00000");
+        doctor.setSpecialtyId(specialty.getId());
+        doctor.setSpecialties(specialty);
+
+        ProfileDTO patient = new ProfileDTO();
+        patient.setId("warmup-patient");
+        patient.setFullName("Paciente de Prueba");
+
+        AppointmentDTO appointment = new AppointmentDTO();
+        appointment.setId(0L);
+        appointment.setPatientId(patient.getId());
+        appointment.setDoctorId(doctor.getId());
+        appointment.setAppointmentTime(LocalDateTime.of(2025, 1, 1, 9, 0));
+        appointment.setStatus("completed");
+        appointment.setDiagnosis("Diagnóstico de prueba para el calentamiento");
+        appointment.setPatient(patient);
+        appointment.setDoctor(doctor);
+        return appointment;
+    }
+
+    private static List<PrescriptionItemDTO> sampleItems(int count) {
+        List<PrescriptionItemDTO> items = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            PrescriptionItemDTO item = new PrescriptionItemDTO();
+            item.setId((long) i);
+            item.setMedication("Medicamento " + i);
+            item.setDosage("500 mg");
+            item.setFrequency("Cada 8 horas");
+            item.setDuration("7 días");
+            item.setNotes(i % 2 == 0 ? "Tomar después de las comidas" : null);
+            items.add(item);
+        }
+        return items;
+    }
+}
@@ -0,0 +1,90 @@
+package com.clinica.service;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeoutException;
+
+// Plazo de una petición para sus consultas a Supabase. Viaja en el Context de Reactor (lo
+// pone DeadlineWebFilter al entrar la petición), así que llega a todas las consultas de la
+// cadena sin pasarlo como parámetro: cada una solo dispone de lo que queda del plazo.
+// Sin plazo en el Context (trabajos en segundo plano, descargas en streaming) las consultas
+// solo están acotadas por supabase.client.response-timeout.
+public final class SupabaseDeadline {
+
+    private static final String KEY = SupabaseDeadline.class.getName();
+
+    private SupabaseDeadline() {
+    }
+
+    public static Context with(Context context, Instant deadline) {
+        return context.put(KEY, deadline);
+    }
+
+    // Para respuestas largas en streaming: sus consultas no comparten el plazo de la petición
+    public static Context clear(Context context) {
+        return context.delete(KEY);
+    }
+
+    // Tiempo que queda del plazo (negativo si ya venció); null si la petición no tiene plazo
+    public static Duration remaining(ContextView context) {
+        return context.<Instant>getOrEmpty(KEY)
+                .map(deadline -> Duration.between(Instant.now(), deadline))
+                .orElse(null);
+    }
+
+    /**
+     * Acota una consulta (o una cadena de ellas) a lo que queda del plazo de la petición:
+     * error DeadlineExceededException si ya venció o si no hay respuesta a tiempo. Para un
+     * Flux cuenta hasta el primer elemento. Sin plazo en el Context se devuelve tal cual.
+     */
+    public static <T> Mono<T> within(String call, Mono<T> source) {
+        return Mono.deferContextual(context -> {
+            Duration remaining = remaining(context);
+            if (remaining == null) {
+                return source;
+            }
+            if (remaining.isNegative() || remaining.isZero()) {
+                return Mono.error(new DeadlineExceededException(call));
+            }
+            return source.timeout(remaining)
+                    .onErrorMap(TimeoutException.class, e -> new DeadlineExceededException(call));
+        });
+    }
+
+    public static <T> Flux<T> within(String call, Flux<T> source) {
+        return Flux.deferContextual(context -> {
+            Duration remaining = remaining(context);
+            if (remaining == null) {
+                return source;
+            }
+            if (remaining.isNegative() || remaining.isZero()) {
+                return Flux.error(new DeadlineExceededException(call));
+            }
+            return source.timeout(Mono.delay(remaining), row -> Mono.never())
+                    .onErrorMap(TimeoutException.class, e -> new DeadlineExceededException(call));
+        });
+    }
+
+    public static boolean isExceeded(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause()) {
+            if (e instanceof DeadlineExceededException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** La petición agotó su plazo antes de que Supabase respondiera. */
+    public static class DeadlineExceededException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public DeadlineExceededException(String call) {
+            super("Plazo agotado esperando a Supabase (" + call + ")");
+        }
+    }
+}
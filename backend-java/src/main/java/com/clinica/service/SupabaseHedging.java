@@ -0,0 +1,154 @@
+package com.clinica.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// Consultas GET a Supabase con plazo y con petición duplicada (hedging) contra la cola de
+// latencia: si la primera respuesta tarda más que el p95 de esa consulta, se lanza otra
+// igual y se queda la que responda antes (la otra se cancela). Solo para lecturas, que se
+// pueden repetir sin efectos. Con el retardo en el p95 se duplica en torno al 5% de las
+// consultas, y max-in-flight evita duplicar en masa cuando es Supabase entera la que va lenta.
+//   clinica.supabase.first-row{call}          tiempo hasta la primera fila, con su p95
+//   clinica.supabase.hedge.delay{call}        retardo actual antes de duplicar
+//   clinica.supabase.hedges{call, outcome=sent|won|failed|skipped}
+//   clinica.supabase.hedges.in-flight
+@Component
+public class SupabaseHedging {
+
+    private static final int NONE = 0;
+    private static final int PRIMARY = 1;
+    private static final int HEDGE = 2;
+
+    private final MeterRegistry registry;
+    private final ExportMetrics exportMetrics;
+    private final Map<String, LatencyEstimate> estimates = new ConcurrentHashMap<>();
+    private final AtomicInteger hedgesInFlight = new AtomicInteger();
+
+    @Value("${clinica.supabase.hedge.enabled:true}")
+    private boolean enabled;
+
+    @Value("${clinica.supabase.hedge.percentile:0.95}")
+    private double percentile;
+
+    @Value("${clinica.supabase.hedge.initial-delay:150ms}")
+    private Duration initialDelay;
+
+    @Value("${clinica.supabase.hedge.min-delay:10ms}")
+    private Duration minDelay;
+
+    @Value("${clinica.supabase.hedge.max-delay:2s}")
+    private Duration maxDelay;
+
+    @Value("${clinica.supabase.hedge.min-samples:50}")
+    private long minSamples;
+
+    @Value("${clinica.supabase.hedge.max-in-flight:16}")
+    private int maxInFlight;
+
+    public SupabaseHedging(MeterRegistry registry, ExportMetrics exportMetrics) {
+        this.registry = registry;
+        this.exportMetrics = exportMetrics;
+        Gauge.builder("clinica.supabase.hedges.in-flight", hedgesInFlight, AtomicInteger::get)
+                .description("Consultas duplicadas en curso")
+                .register(registry);
+    }
+
+    // p95 de una consulta sobre una ventana deslizante; el retardo se recalcula como mucho una
+    // vez por segundo porque leer el histograma no es gratis
+    private final class LatencyEstimate {
+
+        private final Timer firstRow;
+        private volatile long delayNanos = initialDelay.toNanos();
+        private volatile long computedAt;
+
+        LatencyEstimate(String call) {
+            firstRow = Timer.builder("clinica.supabase.first-row")
+                    .description("Tiempo hasta la primera fila de Supabase, incluido el hedging")
+                    .tag("call", call)
+                    .publishPercentiles(percentile)
+                    .distributionStatisticExpiry(Duration.ofMinutes(1))
+                    .register(registry);
+            Gauge.builder("clinica.supabase.hedge.delay", this, estimate -> estimate.delayNanos / 1e6)
+                    .description("Retardo antes de duplicar la consulta (ms)")
+                    .tag("call", call)
+                    .register(registry);
+        }
+
+        long delayNanos() {
+            long now = System.nanoTime();
+            if (now - computedAt > TimeUnit.SECONDS.toNanos(1)) {
+                computedAt = now;
+                if (firstRow.count() >= minSamples) {
+                    ValueAtPercentile[] values = firstRow.takeSnapshot().percentileValues();
+                    long p95 = values.length > 0 ? (long) values[0].value(TimeUnit.NANOSECONDS) : initialDelay.toNanos();
+                    delayNanos = Math.max(minDelay.toNanos(), Math.min(maxDelay.toNanos(), p95));
+                }
+            }
+            return delayNanos;
+        }
+    }
+
+    /**
+     * Ejecuta la consulta que devuelve request dentro del plazo de la petición (si lo tiene) y
+     * con hedging. request se llama una vez por intento, así que debe crear una petición nueva
+     * cada vez. El plazo acota el tiempo hasta la primera fila; el resto del cuerpo ya lo
+     * acota el response-timeout del cliente entre lecturas.
+     */
+    public <T> Flux<T> get(String call, Supplier<Flux<T>> request) {
+        return SupabaseDeadline.within(call, Flux.defer(() -> enabled ? hedged(call, request) : request.get()));
+    }
+
+    private <T> Flux<T> hedged(String call, Supplier<Flux<T>> request) {
+        LatencyEstimate estimate = estimates.computeIfAbsent(call, LatencyEstimate::new);
+        long start = System.nanoTime();
+        AtomicInteger winner = new AtomicInteger(NONE);
+
+        Flux<T> primary = request.get()
+                .doOnEach(signal -> firstSignal(estimate, winner, PRIMARY, call, start));
+        Flux<T> hedge = Mono.delay(Duration.ofNanos(estimate.delayNanos()))
+                .flatMapMany(tick -> {
+                    if (hedgesInFlight.incrementAndGet() > maxInFlight) {
+                        hedgesInFlight.decrementAndGet();
+                        exportMetrics.hedge(call, "skipped");
+                        return Flux.<T>never();
+                    }
+                    exportMetrics.hedge(call, "sent");
+                    // Un error de la duplicada antes de ganar no gana a la original, que sigue en
+                    // curso y decide; si ya ganó (la original está cancelada), el error se propaga
+                    return request.get()
+                            .onErrorResume(e -> {
+                                if (winner.get() == HEDGE) {
+                                    return Flux.error(e);
+                                }
+                                exportMetrics.hedge(call, "failed");
+                                return Flux.never();
+                            })
+                            .doOnEach(signal -> firstSignal(estimate, winner, HEDGE, call, start))
+                            .doFinally(signal -> hedgesInFlight.decrementAndGet());
+                });
+        // Gana la primera que dé una señal (fila, vacío o error de la original); la otra se cancela
+        return Flux.firstWithSignal(primary, hedge);
+    }
+
+    private void firstSignal(LatencyEstimate estimate, AtomicInteger winner, int attempt, String call, long start) {
+        if (winner.get() == NONE && winner.compareAndSet(NONE, attempt)) {
+            estimate.firstRow.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            if (attempt == HEDGE) {
+                exportMetrics.hedge(call, "won");
+            }
+        }
+    }
+}
@@ -1,236 +1,708 @@
 package com.clinica.service;
 
+import com.clinica.config.SupabaseClientConfig;
 import com.clinica.model.*;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
-
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class SupabaseService {
 
-    @Value("${supabase.url}")
-    private String supabaseUrl;
+    private static final Logger log = LoggerFactory.getLogger(SupabaseService.class);
+
+    // Solo las columnas que usa el renderizado; los nombres snake_case se enlazan a los DTO
+    // con el ObjectMapper de SupabaseClientConfig
+    private static final String ITEM_COLUMNS = "id,medication,dosage,frequency,duration,notes";
+
+    private static final String APPOINTMENT_COLUMNS = "id,patient_id,doctor_id,appointment_time,status,diagnosis";
+
+    private static final String PROFILE_COLUMNS = "id,full_name,license_number,specialty_id";
+
+    private static final String SPECIALTY_COLUMNS = "id,name";
+
+    // Cita + receta + items en un solo round-trip; doctor y especialidad salen de ReferenceDataCache.
+    // Los embebidos se renombran (items:, patient:) para que coincidan con los campos del DTO.
+    private static final String EXPORT_SELECT = APPOINTMENT_COLUMNS
+            + ",prescriptions(id,items:prescription_items(" + ITEM_COLUMNS + "))";
+
+    // Recetas embebidas de la más reciente a la más antigua: la exportación usa la primera, y sin
+    // orden PostgREST las devuelve en el que le toque. Va en cada URI que usa EXPORT_SELECT.
+    private static final String PRESCRIPTION_ORDER = "&prescriptions.order=created_at.desc.nullslast,id.desc";
+
+    // Listado de citas: solo los ids de las recetas, como el select del AppointmentDAO del frontend
+    private static final String LIST_SELECT = APPOINTMENT_COLUMNS + ",rating,feedback,created_at,prescriptions(id)";
+
+    // Igual, embebiendo además el nombre del paciente (requiere FK de patient_id hacia profiles)
+    private static final String EXPORT_SELECT_WITH_PATIENT = EXPORT_SELECT
+            + ",patient:profiles!patient_id(id,full_name)";
+
+    // Código de PostgREST cuando no existe la relación de un embebido
+    private static final String RELATIONSHIP_NOT_FOUND = "PGRST200";
+
+    // Código de Postgres cuando una columna del select no existe
+    private static final String UNDEFINED_COLUMN = "42703";
+
+    @Autowired
+    private ReferenceDataCache referenceDataCache;
+
+    @Autowired
+    private ExportMetrics exportMetrics;
+
+    @Autowired
+    private SupabaseHedging supabaseHedging;
+
+    // Configurado en SupabaseClientConfig: base URL /rest/v1, apikey, pool de conexiones y
+    // decodificación JSON directa a los DTO
+    @Autowired
+    private WebClient supabaseWebClient;
+
+    // Un PGRST200 (relación no encontrada) desactiva el embebido del paciente durante este
+    // plazo para no repetir el 400; después se vuelve a probar por si ya se creó la relación
+    @Value("${clinica.supabase.embedding-retry:10m}")
+    private Duration embeddingRetry;
+
+    // Epoch ms hasta el que se consulta el paciente aparte (0 = embebido disponible)
+    private volatile long patientEmbeddingDisabledUntil;
+
+    // Cargas de cita en curso: al cerrar una consulta el doctor, el paciente y el apoderado
+    // suelen abrir la receta a la vez, y todos esperan la misma ronda de consultas
+    private final ConcurrentMap<Long, Mono<AppointmentDTO>> inFlightAppointments = new ConcurrentHashMap<>();
+
+    /**
+     * Obtiene la cita con paciente, doctor, especialidad y recetas (con sus items).
+     * Solo la cita, la receta y el paciente van a la red (una consulta embebida); el
+     * doctor y su especialidad se resuelven desde ReferenceDataCache. Vacío si la cita
+     * no existe. No bloquea: se compone sobre el event loop de WebClient.
+     * <p>
+     * Las llamadas simultáneas con el mismo id comparten una sola carga y reciben la misma
+     * instancia, que no debe modificarse.
+     */
+    public Mono<AppointmentDTO> getAppointmentWithDetails(Long appointmentId) {
+        // El plazo se aplica también aquí, a toda la cadena: quien se une a una carga en curso
+        // o espera un perfil que carga la caché no depende del plazo de quien la empezó
+        return SupabaseDeadline.within("appointment_details", Mono.defer(() -> {
+            Mono<AppointmentDTO> inFlight = inFlightAppointments.get(appointmentId);
+            if (inFlight == null) {
+                // La entrada se retira al terminar la carga: no es una caché, solo une a los que llegan durante ella
+                Mono<AppointmentDTO> load = loadAppointmentWithDetails(appointmentId)
+                        .doFinally(signal -> inFlightAppointments.remove(appointmentId))
+                        .cache();
+                inFlight = inFlightAppointments.putIfAbsent(appointmentId, load);
+                if (inFlight == null) {
+                    return load;
+                }
+            }
+            exportMetrics.coalesced("fetch");
+            return inFlight;
+        }));
+    }
 
-    @Value("${supabase.key}")
-    private String supabaseKey;
+    private Mono<AppointmentDTO> loadAppointmentWithDetails(Long appointmentId) {
+        return fetchExportAppointment(appointmentId)
+                .doOnSubscribe(s -> log.debug("Consultando cita {} en Supabase", appointmentId))
+                .flatMap(appointment -> {
+                    linkPrescriptions(appointment);
+                    return withProfiles(appointment);
+                })
+                .onErrorMap(e -> new RuntimeException("Error obteniendo datos de Supabase: " + e.getMessage(), e));
+    }
 
-    private final WebClient webClient;
-    private final ObjectMapper objectMapper;
+    /**
+     * Historial de recetas de un paciente y, si se pide, de sus dependientes: citas con receta,
+     * de la más reciente a la más antigua, con los mismos datos que getAppointmentWithDetails.
+     * Las citas se decodifican según llegan y los perfiles que falten en la caché se piden por
+     * lotes de batchSize citas (una consulta in.(...) por tabla), así que el número de consultas
+     * no crece con el número de citas.
+     */
+    public Flux<AppointmentDTO> getPatientHistory(String patientId, boolean includeDependents, int batchSize) {
+        return patientAndDependents(patientId, includeDependents)
+                .flatMapMany(ids -> getRows("history", AppointmentDTO.class,
+                        "/appointments?patient_id=in.({ids})&select={select}&order=appointment_time.desc,id.desc"
+                                + PRESCRIPTION_ORDER,
+                        inList(ids), EXPORT_SELECT))
+                .filter(SupabaseService::hasPrescription)
+                .buffer(batchSize)
+                .concatMap(this::completeBatch)
+                .onErrorMap(e -> new RuntimeException("Error obteniendo el historial de Supabase: " + e.getMessage(), e));
+    }
 
-    public SupabaseService() {
-        this.webClient = WebClient.builder().build();
-        this.objectMapper = new ObjectMapper();
+    /**
+     * Una página de citas de un paciente (y de sus dependientes), de la más reciente a la más
+     * antigua, con paciente, doctor (con especialidad) y los ids de sus recetas. Son tres
+     * consultas como mucho: dependientes, la página de citas con las recetas embebidas y los
+     * perfiles que falten en la caché, todos en un in.(...).
+     * <p>
+     * Paginación por cursor sobre (appointment_time, id): cada página cuesta lo mismo por lejos
+     * que esté, a diferencia de offset, y no salta ni repite citas si se crean otras mientras
+     * tanto. from y to (días de la clínica, inclusivos) acotan la ventana de fechas; un cursor
+     * ilegible termina en IllegalArgumentException.
+     */
+    public Mono<AppointmentPageDTO> getPatientAppointments(String patientId, boolean includeDependents,
+            LocalDate from, LocalDate to, String after, int limit) {
+        return Mono.defer(() -> {
+            // Filtros opcionales: la plantilla tiene pocas variantes, así que la métrica sigue acotada
+            StringBuilder uri = new StringBuilder("/appointments?patient_id=in.({ids})&select={select}");
+            List<Object> variables = new ArrayList<>(List.of("", LIST_SELECT));
+            if (from != null) {
+                uri.append("&appointment_time=gte.{from}");
+                variables.add(from.atStartOfDay(SupabaseClientConfig.CLINIC_ZONE).toInstant());
+            }
+            if (to != null) {
+                uri.append("&appointment_time=lt.{to}");
+                variables.add(to.plusDays(1).atStartOfDay(SupabaseClientConfig.CLINIC_ZONE).toInstant());
+            }
+            if (after != null) {
+                AppointmentCursor cursor = AppointmentCursor.decode(after);
+                uri.append("&or={keyset}");
+                variables.add(cursor.keyset());
+            }
+            // Una fila de más indica si hay página siguiente
+            uri.append("&order=appointment_time.desc,id.desc&limit={limit}");
+            variables.add(limit + 1);
+
+            return patientAndDependents(patientId, includeDependents)
+                    .flatMap(ids -> {
+                        variables.set(0, inList(ids));
+                        return getRows("appointment_page", AppointmentDTO.class, uri.toString(), variables.toArray())
+                                .collectList();
+                    })
+                    .flatMap(rows -> {
+                        List<AppointmentDTO> page = rows.size() > limit ? rows.subList(0, limit) : rows;
+                        return completeBatch(page).collectList()
+                                .map(items -> new AppointmentPageDTO(items, rows.size() > limit
+                                        ? AppointmentCursor.of(items.get(items.size() - 1)).encode()
+                                        : null));
+                    });
+        });
     }
 
-    public AppointmentDTO getAppointmentWithDetails(Long appointmentId) {
-        try {
-            System.out.println("=== INICIANDO CONSULTA A SUPABASE ===");
-            System.out.println("Supabase URL: " + supabaseUrl);
-            System.out.println("API Key (primeros 20 chars): "
-                    + supabaseKey.substring(0, Math.min(20, supabaseKey.length())) + "...");
+    // El paciente y, si se pide, sus dependientes (cuyos nombres quedan ya en la caché de perfiles)
+    private Mono<List<String>> patientAndDependents(String patientId, boolean includeDependents) {
+        if (!includeDependents) {
+            return Mono.just(List.of(patientId));
+        }
+        return getRows("dependents", ProfileDTO.class, "/dependents?guardian_id=eq.{id}&select=id,full_name", patientId)
+                .doOnNext(referenceDataCache::putProfile)
+                .map(ProfileDTO::getId)
+                .startWith(patientId)
+                .collectList();
+    }
 
-            // 1. Obtener appointment básico
-            String aptUrl = supabaseUrl + "/rest/v1/appointments?id=eq." + appointmentId + "&select=*";
-            System.out.println("URL de consulta: " + aptUrl);
+    // Posición de la última cita de una página: hora (instante UTC, como la columna) e id.
+    // Se envía opaco, en base64url, para que el cliente no dependa de su formato.
+    record AppointmentCursor(Instant time, long id) {
 
-            String aptResponse = webClient.get()
-                    .uri(aptUrl)
-                    .header("apikey", supabaseKey)
-                    .header("Authorization", "Bearer " + supabaseKey)
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .block();
+        static AppointmentCursor of(AppointmentDTO appointment) {
+            return new AppointmentCursor(
+                    appointment.getAppointmentTime().atZone(SupabaseClientConfig.CLINIC_ZONE).toInstant(),
+                    appointment.getId());
+        }
 
-            System.out.println("Respuesta de Supabase: " + aptResponse);
+        // Filtro or=(...) de las citas posteriores en el orden appointment_time.desc,id.desc
+        String keyset() {
+            return "(appointment_time.lt." + time + ",and(appointment_time.eq." + time + ",id.lt." + id + "))";
+        }
 
-            JsonNode appointments = objectMapper.readTree(aptResponse);
-            System.out.println("Número de citas encontradas: " + appointments.size());
+        String encode() {
+            return Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString((time + "," + id).getBytes(StandardCharsets.UTF_8));
+        }
 
-            if (appointments.isEmpty()) {
-                System.out.println("ERROR: Array vacío - La consulta no devolvió resultados");
-                return null;
+        static AppointmentCursor decode(String value) {
+            try {
+                String[] parts = new String(Base64.getUrlDecoder().decode(value), StandardCharsets.UTF_8).split(",");
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("Cursor inválido: " + value);
+                }
+                return new AppointmentCursor(Instant.parse(parts[0]), Long.parseLong(parts[1]));
+            } catch (DateTimeParseException | NumberFormatException e) {
+                throw new IllegalArgumentException("Cursor inválido: " + value, e);
             }
+        }
+    }
 
-            JsonNode aptNode = appointments.get(0);
-            System.out.println("Cita encontrada: " + aptNode.toString());
-
-            AppointmentDTO appointment = new AppointmentDTO();
-            appointment.setId(aptNode.get("id").asLong());
-            appointment.setPatientId(aptNode.get("patient_id").asText());
-            appointment.setDoctorId(aptNode.get("doctor_id").asText());
-            appointment.setDiagnosis(
-                    aptNode.has("diagnosis") && !aptNode.get("diagnosis").isNull() ? aptNode.get("diagnosis").asText()
-                            : null);
-
-            System.out.println("✓ Appointment parseado correctamente");
-
-            // 2. Obtener datos del paciente
-            System.out.println("Consultando datos del paciente: " + appointment.getPatientId());
-            String patientUrl = supabaseUrl + "/rest/v1/profiles?id=eq." + appointment.getPatientId() + "&select=*";
-            String patientResponse = webClient.get()
-                    .uri(patientUrl)
-                    .header("apikey", supabaseKey)
-                    .header("Authorization", "Bearer " + supabaseKey)
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .block();
-
-            JsonNode patients = objectMapper.readTree(patientResponse);
-            if (!patients.isEmpty()) {
-                JsonNode patientNode = patients.get(0);
-                ProfileDTO patient = new ProfileDTO();
-                patient.setId(patientNode.get("id").asText());
-                patient.setFullName(patientNode.get("full_name").asText());
-                appointment.setPatient(patient);
-                System.out.println("✓ Paciente obtenido: " + patient.getFullName());
-            } else {
-                System.out.println("⚠ No se encontró el paciente");
+    /**
+     * Pacientes distintos de un doctor con su última consulta completada y el número de
+     * consultas, ordenados por id de paciente. PostgREST no agrupa, así que se recorren las
+     * citas completadas del doctor ordenadas por (patient_id, id), por lotes de chunkSize
+     * filas de tres columnas, y se agregan al vuelo: cada paciente se resume al terminar sus
+     * filas y el recorrido se corta en cuanto hay limit + 1 pacientes. La memoria depende de
+     * chunkSize, no del número de citas del doctor.
+     * <p>
+     * after es el next_cursor de la página anterior; uno ilegible termina en IllegalArgumentException.
+     */
+    public Mono<DoctorPatientPageDTO> getDoctorPatients(String doctorId, String after, int limit, int chunkSize) {
+        return Mono.defer(() -> {
+            StringBuilder uri = new StringBuilder(
+                    "/appointments?doctor_id=eq.{doctorId}&status=eq.completed&select=id,patient_id,appointment_time");
+            List<Object> variables = new ArrayList<>(List.of(doctorId));
+            if (after != null) {
+                uri.append("&patient_id=gt.{after}");
+                variables.add(decodePatientCursor(after));
             }
+            uri.append("&order=patient_id.asc,id.asc");
+
+            return keysetChunks("doctor_patients", uri.toString(), variables,
+                            last -> "(patient_id.gt." + last.getPatientId() + ",and(patient_id.eq."
+                                    + last.getPatientId() + ",id.gt." + last.getId() + "))",
+                            chunkSize)
+                    .concatMapIterable(rows -> rows)
+                    .windowUntilChanged(AppointmentDTO::getPatientId)
+                    .concatMap(visits -> visits.reduce(new DoctorPatientDTO(), SupabaseService::addVisit))
+                    .take(limit + 1L)
+                    .collectList()
+                    .flatMap(patients -> {
+                        List<DoctorPatientDTO> page = patients.size() > limit ? patients.subList(0, limit) : patients;
+                        String next = patients.size() > limit
+                                ? encodePatientCursor(page.get(page.size() - 1).getPatientId())
+                                : null;
+                        return withNames(page).map(items -> new DoctorPatientPageDTO(items, next));
+                    });
+        });
+    }
 
-            // 3. Obtener datos del doctor
-            System.out.println("Consultando datos del doctor: " + appointment.getDoctorId());
-            String doctorUrl = supabaseUrl + "/rest/v1/profiles?id=eq." + appointment.getDoctorId() + "&select=*";
-            String doctorResponse = webClient.get()
-                    .uri(doctorUrl)
-                    .header("apikey", supabaseKey)
-                    .header("Authorization", "Bearer " + supabaseKey)
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .block();
-
-            JsonNode doctors = objectMapper.readTree(doctorResponse);
-            if (!doctors.isEmpty()) {
-                JsonNode doctorNode = doctors.get(0);
-                ProfileDTO doctor = new ProfileDTO();
-                doctor.setId(doctorNode.get("id").asText());
-                doctor.setFullName(doctorNode.get("full_name").asText());
-                doctor.setLicenseNumber(doctorNode.has("license_number") && !doctorNode.get("license_number").isNull()
-                        ? doctorNode.get("license_number").asText()
-                        : null);
-
-                // Obtener especialidad si existe
-                if (doctorNode.has("specialty_id") && !doctorNode.get("specialty_id").isNull()) {
-                    int specialtyId = doctorNode.get("specialty_id").asInt();
-                    System.out.println("Consultando especialidad: " + specialtyId);
-                    String specUrl = supabaseUrl + "/rest/v1/specialties?id=eq." + specialtyId + "&select=*";
-                    String specResponse = webClient.get()
-                            .uri(specUrl)
-                            .header("apikey", supabaseKey)
-                            .header("Authorization", "Bearer " + supabaseKey)
-                            .retrieve()
-                            .bodyToMono(String.class)
-                            .block();
-
-                    JsonNode specialties = objectMapper.readTree(specResponse);
-                    if (!specialties.isEmpty()) {
-                        JsonNode specNode = specialties.get(0);
-                        SpecialtyDTO specialty = new SpecialtyDTO();
-                        specialty.setId(specNode.get("id").asInt());
-                        specialty.setName(specNode.get("name").asText());
-                        doctor.setSpecialties(specialty);
-                        System.out.println("✓ Especialidad obtenida: " + specialty.getName());
-                    }
-                }
+    private static DoctorPatientDTO addVisit(DoctorPatientDTO patient, AppointmentDTO visit) {
+        patient.setPatientId(visit.getPatientId());
+        patient.setVisits(patient.getVisits() + 1);
+        if (patient.getLastVisit() == null
+                || (visit.getAppointmentTime() != null && visit.getAppointmentTime().isAfter(patient.getLastVisit()))) {
+            patient.setLastVisit(visit.getAppointmentTime());
+        }
+        return patient;
+    }
 
-                appointment.setDoctor(doctor);
-                System.out.println("✓ Doctor obtenido: " + doctor.getFullName());
-            } else {
-                System.out.println("⚠ No se encontró el doctor");
-            }
+    // Nombres desde la caché de perfiles; los que falten se piden juntos (profiles y dependents)
+    private Mono<List<DoctorPatientDTO>> withNames(List<DoctorPatientDTO> patients) {
+        List<String> missing = patients.stream()
+                .map(DoctorPatientDTO::getPatientId)
+                .filter(id -> !referenceDataCache.containsProfile(id))
+                .toList();
+        return prefetchProfiles(missing)
+                .thenMany(Flux.fromIterable(patients)
+                        .concatMap(patient -> referenceDataCache.getProfile(patient.getPatientId(), this::fetchProfile)
+                                .doOnNext(profile -> patient.setFullName(profile.getFullName()))
+                                .thenReturn(patient)))
+                .collectList();
+    }
 
-            System.out.println("=== CONSULTA COMPLETADA EXITOSAMENTE ===");
-            return appointment;
+    private static String encodePatientCursor(String patientId) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(patientId.getBytes(StandardCharsets.UTF_8));
+    }
 
-        } catch (Exception e) {
-            System.out.println("!!! EXCEPCIÓN CAPTURADA !!!");
-            System.out.println("Tipo: " + e.getClass().getName());
-            System.out.println("Mensaje: " + e.getMessage());
-            e.printStackTrace();
-            throw new RuntimeException("Error obteniendo datos de Supabase: " + e.getMessage());
+    private static String decodePatientCursor(String value) {
+        String patientId = new String(Base64.getUrlDecoder().decode(value), StandardCharsets.UTF_8);
+        // Va dentro de un filtro de PostgREST: nada de comas, puntos ni paréntesis
+        if (!patientId.matches("[0-9A-Za-z-]+")) {
+            throw new IllegalArgumentException("Cursor inválido: " + value);
         }
+        return patientId;
+    }
+
+    /**
+     * Historial clínico completo de un paciente (opcionalmente solo con un doctor), de la cita
+     * más reciente a la más antigua: diagnóstico, recetas con sus items, paciente y doctor.
+     * Se lee por lotes de chunkSize citas con cursor sobre (appointment_time, id) y cada cita
+     * se emite en cuanto su lote tiene los perfiles resueltos, así que la primera llega tras
+     * un lote sea cual sea la longitud del historial y en memoria nunca hay más de dos lotes.
+     */
+    public Flux<AppointmentDTO> streamPatientHistory(String patientId, String doctorId, int chunkSize) {
+        return Flux.defer(() -> {
+            StringBuilder uri = new StringBuilder("/appointments?patient_id=eq.{patientId}&select={select}"
+                    + PRESCRIPTION_ORDER);
+            List<Object> variables = new ArrayList<>(List.of(patientId, EXPORT_SELECT));
+            if (doctorId != null) {
+                uri.append("&doctor_id=eq.{doctorId}");
+                variables.add(doctorId);
+            }
+            uri.append("&order=appointment_time.desc,id.desc");
+
+            return keysetChunks("patient_history", uri.toString(), variables,
+                            last -> AppointmentCursor.of(last).keyset(), chunkSize)
+                    .concatMap(this::completeBatch);
+        });
     }
 
-    public List<PrescriptionItemDTO> getPrescriptionItems(Long prescriptionId) {
-        try {
-            System.out.println("Consultando items de prescripción: " + prescriptionId);
-            String url = supabaseUrl + "/rest/v1/prescription_items?prescription_id=eq." + prescriptionId + "&select=*";
-
-            String response = webClient.get()
-                    .uri(url)
-                    .header("apikey", supabaseKey)
-                    .header("Authorization", "Bearer " + supabaseKey)
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .block();
-
-            System.out.println("Respuesta de prescription_items: " + response);
-
-            JsonNode items = objectMapper.readTree(response);
-            List<PrescriptionItemDTO> result = new ArrayList<>();
-
-            for (JsonNode item : items) {
-                PrescriptionItemDTO dto = new PrescriptionItemDTO();
-                dto.setId(item.get("id").asLong());
-                dto.setPrescriptionId(item.get("prescription_id").asLong());
-                dto.setMedication(
-                        item.has("medication") && !item.get("medication").isNull() ? item.get("medication").asText()
-                                : null);
-                dto.setDosage(item.has("dosage") && !item.get("dosage").isNull() ? item.get("dosage").asText() : null);
-                dto.setFrequency(
-                        item.has("frequency") && !item.get("frequency").isNull() ? item.get("frequency").asText()
-                                : null);
-                dto.setDuration(
-                        item.has("duration") && !item.get("duration").isNull() ? item.get("duration").asText() : null);
-                dto.setNotes(item.has("notes") && !item.get("notes").isNull() ? item.get("notes").asText() : null);
-                result.add(dto);
-                System.out.println("  ✓ Medicamento: " + dto.getMedication());
+    // Recorre una consulta ordenada por lotes de chunkSize filas: cada lote sigue tras la última
+    // fila del anterior (filtro or=(...) que devuelve keysetAfter), en lugar de un offset que
+    // PostgreSQL tendría que saltar. El siguiente lote se pide al entregar el anterior y se
+    // deja de pedir si el consumidor cancela.
+    private Flux<List<AppointmentDTO>> keysetChunks(String call, String uriTemplate, List<Object> variables,
+            Function<AppointmentDTO, String> keysetAfter, int chunkSize) {
+        Function<String, Mono<List<AppointmentDTO>>> chunk = keyset -> {
+            List<Object> arguments = new ArrayList<>(variables);
+            String uri = uriTemplate;
+            if (keyset != null) {
+                uri += "&or={keyset}";
+                arguments.add(keyset);
             }
+            arguments.add(chunkSize);
+            return getRows(call, AppointmentDTO.class, uri + "&limit={limit}", arguments.toArray()).collectList();
+        };
+        return chunk.apply(null)
+                .expand(rows -> rows.size() < chunkSize
+                        ? Mono.empty()
+                        : chunk.apply(keysetAfter.apply(rows.get(rows.size() - 1))))
+                .filter(rows -> !rows.isEmpty());
+    }
+
+    /**
+     * Citas con receta de la lista (las que no existen o no tienen receta se omiten), con los
+     * mismos datos que getAppointmentWithDetails. Se consultan de batchSize en batchSize con
+     * id=in.(...); cada lote resuelve sus perfiles con una consulta por tabla.
+     */
+    public Flux<AppointmentDTO> getAppointmentsWithDetails(List<Long> appointmentIds, int batchSize) {
+        return Flux.fromIterable(appointmentIds)
+                .distinct()
+                .buffer(batchSize)
+                .concatMap(batch -> getRows("appointments", AppointmentDTO.class,
+                                "/appointments?id=in.({ids})&select={select}&order=appointment_time.desc,id.desc"
+                                        + PRESCRIPTION_ORDER,
+                                inList(batch), EXPORT_SELECT)
+                        .filter(SupabaseService::hasPrescription)
+                        .collectList()
+                        .flatMapMany(this::completeBatch))
+                .onErrorMap(e -> new RuntimeException("Error obteniendo citas de Supabase: " + e.getMessage(), e));
+    }
+
+    /**
+     * Una página de citas completadas con appointment_time en [from, to), en orden
+     * appointment_time.asc,id.asc y tras la cita (afterTime, afterId) si se indica. Devuelve
+     * todas las filas leídas, para que quien recorre las páginas sepa dónde sigue; las que
+     * tienen receta vienen con los mismos datos que getAppointmentWithDetails (sus perfiles
+     * se resuelven con una consulta por tabla para toda la página).
+     */
+    public Mono<List<AppointmentDTO>> getCompletedAppointments(Instant from, Instant to, Instant afterTime,
+            Long afterId, int limit) {
+        String uri = "/appointments?status=eq.completed&appointment_time=gte.{from}&appointment_time=lt.{to}"
+                + "&select={select}&order=appointment_time.asc,id.asc&limit={limit}" + PRESCRIPTION_ORDER;
+        Flux<AppointmentDTO> rows = afterId == null
+                ? getRows("completed_appointments", AppointmentDTO.class, uri, from, to, EXPORT_SELECT, limit)
+                : getRows("completed_appointments", AppointmentDTO.class,
+                        uri + "&or=(appointment_time.gt.{after},and(appointment_time.eq.{afterEq},id.gt.{id}))",
+                        from, to, EXPORT_SELECT, limit, afterTime, afterTime, afterId);
+        return rows.collectList()
+                .flatMap(page -> completeBatch(page.stream().filter(SupabaseService::hasPrescription).toList())
+                        .then(Mono.just(page)))
+                .onErrorMap(e -> new RuntimeException("Error obteniendo citas completadas de Supabase: " + e.getMessage(), e));
+    }
 
-            System.out.println("✓ Total items obtenidos: " + result.size());
-            return result;
+    // Lote de citas: primero los perfiles que faltan, en bloque; después cada cita se completa
+    // desde la caché como en la exportación individual
+    private Flux<AppointmentDTO> completeBatch(List<AppointmentDTO> batch) {
+        batch.forEach(this::linkPrescriptions);
+        List<String> missing = batch.stream()
+                .flatMap(appointment -> Stream.of(appointment.getPatientId(), appointment.getDoctorId()))
+                .filter(id -> id != null && !referenceDataCache.containsProfile(id))
+                .distinct()
+                .toList();
+        return prefetchProfiles(missing)
+                .thenMany(Flux.fromIterable(batch).concatMap(this::withProfiles));
+    }
+
+    // Paciente y doctor son independientes entre sí: se resuelven en paralelo
+    private Mono<AppointmentDTO> withProfiles(AppointmentDTO appointment) {
+        Mono<ProfileDTO> patient = appointment.getPatient() != null
+                ? Mono.just(appointment.getPatient())
+                : referenceDataCache.getProfile(appointment.getPatientId(), this::fetchProfile);
+
+        return Mono.zip(
+                patient.map(Optional::of).defaultIfEmpty(Optional.empty()),
+                getDoctor(appointment.getDoctorId()).map(Optional::of).defaultIfEmpty(Optional.empty()))
+                .map(profiles -> {
+                    appointment.setPatient(profiles.getT1().orElse(null));
+                    appointment.setDoctor(profiles.getT2().orElse(null));
+                    return appointment;
+                });
+    }
 
-        } catch (Exception e) {
-            System.out.println("!!! ERROR en getPrescriptionItems !!!");
-            e.printStackTrace();
-            throw new RuntimeException("Error obteniendo items de prescripción: " + e.getMessage());
+    // Carga en la caché los perfiles pedidos: profiles con su especialidad y, los que no estén
+    // ahí, dependents. Los que no existan en ninguna se quedan fuera (quedará el id sin nombre).
+    private Mono<Void> prefetchProfiles(List<String> profileIds) {
+        if (profileIds.isEmpty()) {
+            return Mono.empty();
         }
+        return getRows("profiles", ProfileDTO.class, "/profiles?id=in.({ids})&select={select}",
+                        inList(profileIds), PROFILE_COLUMNS + ",specialties(" + SPECIALTY_COLUMNS + ")")
+                .map(this::withoutSpecialty)
+                .doOnNext(referenceDataCache::putProfile)
+                .map(ProfileDTO::getId)
+                .collect(Collectors.toSet())
+                .flatMap(found -> {
+                    List<String> dependents = profileIds.stream().filter(id -> !found.contains(id)).toList();
+                    return dependents.isEmpty()
+                            ? Mono.<Void>empty()
+                            : getRows("dependents", ProfileDTO.class, "/dependents?id=in.({ids})&select=id,full_name",
+                                            inList(dependents))
+                                    .doOnNext(referenceDataCache::putProfile)
+                                    .then();
+                });
     }
 
-    public Long getPrescriptionIdByAppointment(Long appointmentId) {
-        try {
-            System.out.println("Buscando prescription_id para appointment: " + appointmentId);
-            String url = supabaseUrl + "/rest/v1/prescriptions?appointment_id=eq." + appointmentId
-                    + "&select=id&limit=1";
+    private static boolean hasPrescription(AppointmentDTO appointment) {
+        return appointment.getPrescriptions() != null && !appointment.getPrescriptions().isEmpty();
+    }
 
-            String response = webClient.get()
-                    .uri(url)
-                    .header("apikey", supabaseKey)
-                    .header("Authorization", "Bearer " + supabaseKey)
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .block();
+    // Valor de un filtro in.(...) de PostgREST; WebClient se encarga de codificarlo
+    private static String inList(List<?> values) {
+        return values.stream().map(String::valueOf).collect(Collectors.joining(","));
+    }
 
-            System.out.println("Respuesta de prescriptions: " + response);
+    private Mono<AppointmentDTO> fetchExportAppointment(Long appointmentId) {
+        if (System.currentTimeMillis() < patientEmbeddingDisabledUntil) {
+            return fetchAppointment(appointmentId, EXPORT_SELECT);
+        }
+        // Solo un PGRST200 significa que falta la relación; cualquier otro 400 es un error de
+        // esta consulta y se propaga sin desactivar el embebido
+        return fetchAppointment(appointmentId, EXPORT_SELECT_WITH_PATIENT)
+                .onErrorResume(e -> e instanceof WebClientResponseException.BadRequest badRequest
+                        && badRequest.getResponseBodyAsString().contains("\"" + RELATIONSHIP_NOT_FOUND + "\""), e -> {
+                    log.warn("Embebido del paciente no disponible, se consultará aparte durante {}: {}", embeddingRetry,
+                            ((WebClientResponseException) e).getResponseBodyAsString());
+                    patientEmbeddingDisabledUntil = System.currentTimeMillis() + embeddingRetry.toMillis();
+                    return fetchAppointment(appointmentId, EXPORT_SELECT);
+                });
+    }
 
-            JsonNode prescriptions = objectMapper.readTree(response);
-            if (prescriptions.isEmpty()) {
-                System.out.println("⚠ No se encontró prescripción para esta cita");
-                return null;
+    // Las recetas embebidas no traen las claves de la cita: se copian desde ella
+    private void linkPrescriptions(AppointmentDTO appointment) {
+        if (appointment.getPrescriptions() == null) {
+            appointment.setPrescriptions(new ArrayList<>());
+        }
+        for (PrescriptionDTO prescription : appointment.getPrescriptions()) {
+            prescription.setAppointmentId(appointment.getId());
+            prescription.setPatientId(appointment.getPatientId());
+            prescription.setDoctorId(appointment.getDoctorId());
+            if (prescription.getItems() == null) {
+                prescription.setItems(new ArrayList<>());
             }
+        }
+    }
 
-            Long prescriptionId = prescriptions.get(0).get("id").asLong();
-            System.out.println("✓ Prescription ID encontrado: " + prescriptionId);
-            return prescriptionId;
+    // Doctor desde la caché de profiles, con la especialidad desde la caché de specialties
+    private Mono<ProfileDTO> getDoctor(String doctorId) {
+        return referenceDataCache.getProfile(doctorId, this::fetchProfile)
+                .flatMap(profile -> profile.getSpecialtyId() == null
+                        ? Mono.just(profile)
+                        : referenceDataCache.getSpecialty(profile.getSpecialtyId(), this::fetchSpecialty)
+                                .map(specialty -> withSpecialty(profile, specialty))
+                                .defaultIfEmpty(profile));
+    }
 
-        } catch (Exception e) {
-            System.out.println("!!! ERROR en getPrescriptionIdByAppointment !!!");
-            e.printStackTrace();
-            return null;
+    /**
+     * Consulta de calentamiento: una cita cualquiera con el mismo select que la exportación.
+     * Abre la primera conexión del pool (DNS, TCP, TLS) y construye los deserializadores de
+     * los DTO, que si no se pagarían en la primera receta. Vacío si no hay citas.
+     */
+    public Mono<AppointmentDTO> warmUp() {
+        return getFirst("warmup", AppointmentDTO.class, "/appointments?select={select}&limit=1" + PRESCRIPTION_ORDER,
+                EXPORT_SELECT);
+    }
+
+    // Datos del índice de disponibilidad: todos los horarios semanales, los doctores con su
+    // especialidad y las citas programadas desde `from`
+    public Flux<ScheduleDTO> getSchedules() {
+        return getRows("schedules", ScheduleDTO.class,
+                "/schedules?select=id,doctor_id,day_of_week,start_time,end_time");
+    }
+
+    public Flux<ProfileDTO> getDoctors() {
+        return getRows("doctors", ProfileDTO.class, "/profiles?role=eq.doctor&select=id,specialty_id");
+    }
+
+    public Flux<AppointmentDTO> getScheduledAppointments(Instant from) {
+        return getRows("scheduled_appointments", AppointmentDTO.class,
+                "/appointments?status=eq.scheduled&appointment_time=gte.{from}&select=id,doctor_id,appointment_time",
+                from);
+    }
+
+    /**
+     * Una página de una tabla de referencia (profiles, dependents o specialties) en orden de id,
+     * para la carga completa del espejo (ReferenceDataSync); también de appointments, con solo
+     * las columnas de las estadísticas (AnalyticsService). afterId es el último id de la
+     * página anterior (null en la primera); withUpdatedAt añade la columna de la marca de agua.
+     */
+    public <T> Mono<List<T>> getReferencePage(String table, Class<T> type, boolean withUpdatedAt,
+            Object afterId, int limit) {
+        String select = referenceColumns(table) + (withUpdatedAt ? ",updated_at" : "");
+        return afterId == null
+                ? getRows("mirror_" + table, type, "/{table}?select={select}&order=id.asc&limit={limit}",
+                        table, select, limit).collectList()
+                : getRows("mirror_" + table, type, "/{table}?select={select}&id=gt.{after}&order=id.asc&limit={limit}",
+                        table, select, afterId, limit).collectList();
+    }
+
+    /**
+     * Si el 400 de getReferencePage se debe a que la tabla no tiene la columna updated_at; con
+     * cualquier otro 400 la consulta está mal y el error no debe desactivar la marca de agua.
+     */
+    public static boolean isUndefinedColumn(WebClientResponseException.BadRequest e) {
+        return e.getResponseBodyAsString().contains("\"" + UNDEFINED_COLUMN + "\"");
+    }
+
+    /**
+     * Filas de una tabla de referencia cambiadas desde `since`, en orden de (updated_at, id).
+     * Las páginas siguientes continúan tras la última fila leída (afterUpdatedAt, afterId).
+     */
+    public <T> Mono<List<T>> getReferenceChanges(String table, Class<T> type, Instant since,
+            Instant afterUpdatedAt, Object afterId, int limit) {
+        String select = referenceColumns(table) + ",updated_at";
+        String uri = "/{table}?select={select}&updated_at=gte.{since}&order=updated_at.asc,id.asc&limit={limit}";
+        return afterId == null
+                ? getRows("mirror_" + table + "_changes", type, uri, table, select, since, limit).collectList()
+                : getRows("mirror_" + table + "_changes", type,
+                        uri + "&or=(updated_at.gt.{after},and(updated_at.eq.{afterEq},id.gt.{id}))",
+                        table, select, since, limit, afterUpdatedAt, afterUpdatedAt, afterId).collectList();
+    }
+
+    // Las mismas columnas que las consultas de un solo perfil o especialidad; de appointments,
+    // las que agrega AnalyticsService
+    private static String referenceColumns(String table) {
+        return switch (table) {
+            case "profiles" -> PROFILE_COLUMNS;
+            case "dependents" -> "id,full_name";
+            case "specialties" -> SPECIALTY_COLUMNS;
+            case "appointments" -> "id,doctor_id,status,rating,appointment_time";
+            default -> throw new IllegalArgumentException("Tabla sin espejo: " + table);
+        };
+    }
+
+    /**
+     * Inserta una cita y la devuelve tal como quedó. authorization es la cabecera del usuario
+     * (Bearer &lt;jwt&gt;): las políticas RLS de appointments comprueban auth.uid(), así que se
+     * inserta en su nombre y no con la clave anónima. Los errores de PostgREST (23505 horario
+     * ocupado, 42501 RLS, P0001 del trigger) llegan como WebClientResponseException.
+     */
+    public Mono<AppointmentDTO> insertAppointment(Map<String, Object> row, String authorization) {
+        return exportMetrics.supabaseCall("insert_appointment", supabaseWebClient.post()
+                .uri("/appointments?select={select}", APPOINTMENT_COLUMNS)
+                .headers(headers -> asUser(headers, authorization))
+                .header("Prefer", "return=representation")
+                .bodyValue(row)
+                .retrieve()
+                .bodyToFlux(AppointmentDTO.class)
+                .next());
+    }
+
+    // Cancela una cita programada; vacío si no existe o ya no estaba programada
+    public Mono<AppointmentDTO> cancelAppointment(Long appointmentId, String authorization) {
+        return exportMetrics.supabaseCall("cancel_appointment", supabaseWebClient.patch()
+                .uri("/appointments?id=eq.{id}&status=eq.scheduled&select={select}", appointmentId, APPOINTMENT_COLUMNS)
+                .headers(headers -> asUser(headers, authorization))
+                .header("Prefer", "return=representation")
+                .bodyValue(Map.of("status", "cancelled"))
+                .retrieve()
+                .bodyToFlux(AppointmentDTO.class)
+                .next());
+    }
+
+    private static void asUser(HttpHeaders headers, String authorization) {
+        if (authorization != null && !authorization.isBlank()) {
+            headers.set(HttpHeaders.AUTHORIZATION, authorization);
         }
     }
+
+    // Los items se emiten según se decodifican del cuerpo, sin esperar al array completo
+    public Flux<PrescriptionItemDTO> getPrescriptionItems(Long prescriptionId) {
+        return getRows("items", PrescriptionItemDTO.class,
+                "/prescription_items?prescription_id=eq.{id}&select={select}", prescriptionId, ITEM_COLUMNS)
+                .onErrorMap(e -> new RuntimeException("Error obteniendo items de prescripción: " + e.getMessage(), e));
+    }
+
+    // Vacío si la cita no tiene receta; con varias, la más reciente (la misma que exporta)
+    public Mono<Long> getPrescriptionIdByAppointment(Long appointmentId) {
+        return getFirst("prescription_id", PrescriptionDTO.class,
+                "/prescriptions?appointment_id=eq.{id}&select=id&order=created_at.desc.nullslast,id.desc&limit=1",
+                appointmentId)
+                .map(PrescriptionDTO::getId);
+    }
+
+    // Las consultas usan plantillas de URI: la métrica http.client.requests se etiqueta con
+    // la plantilla (pocas series) y WebClient codifica los valores
+    private <T> Flux<T> query(Class<T> type, String uriTemplate, Object... uriVariables) {
+        return supabaseWebClient.get()
+                .uri(uriTemplate, uriVariables)
+                .retrieve()
+                .bodyToFlux(type);
+    }
+
+    // Todas las filas, medidas en clinica.supabase.calls{call}. Dentro del plazo de la
+    // petición y con hedging (SupabaseHedging): solo para lecturas
+    private <T> Flux<T> getRows(String call, Class<T> type, String uriTemplate, Object... uriVariables) {
+        return exportMetrics.supabaseCall(call,
+                supabaseHedging.get(call, () -> query(type, uriTemplate, uriVariables)));
+    }
+
+    // Primera fila devuelta por PostgREST, vacío si no hay filas
+    private <T> Mono<T> getFirst(String call, Class<T> type, String uriTemplate, Object... uriVariables) {
+        return exportMetrics.supabaseCall(call,
+                supabaseHedging.get(call, () -> query(type, uriTemplate, uriVariables)).next());
+    }
+
+    private Mono<AppointmentDTO> fetchAppointment(Long appointmentId, String select) {
+        return getFirst("appointment", AppointmentDTO.class,
+                "/appointments?id=eq.{id}&select={select}" + PRESCRIPTION_ORDER, appointmentId, select);
+    }
+
+    // Busca en profiles y, si no existe, en dependents. La especialidad embebida se
+    // guarda en su propia caché y el perfil se cachea solo con specialty_id.
+    private Mono<ProfileDTO> fetchProfile(String profileId) {
+        return getFirst("profile", ProfileDTO.class, "/profiles?id=eq.{id}&select={select}",
+                profileId, PROFILE_COLUMNS + ",specialties(" + SPECIALTY_COLUMNS + ")")
+                .map(this::withoutSpecialty)
+                .switchIfEmpty(Mono.defer(() -> fetchDependent(profileId)));
+    }
+
+    private ProfileDTO withoutSpecialty(ProfileDTO profile) {
+        if (profile.getSpecialties() != null) {
+            referenceDataCache.putSpecialty(profile.getSpecialties());
+            profile.setSpecialties(null);
+        }
+        return profile;
+    }
+
+    private Mono<ProfileDTO> fetchDependent(String patientId) {
+        return getFirst("dependent", ProfileDTO.class, "/dependents?id=eq.{id}&select=id,full_name", patientId);
+    }
+
+    private Mono<SpecialtyDTO> fetchSpecialty(Integer specialtyId) {
+        return getFirst("specialty", SpecialtyDTO.class, "/specialties?id=eq.{id}&select={select}",
+                specialtyId, SPECIALTY_COLUMNS);
+    }
+
+    // Copia para no modificar la instancia compartida de la caché
+    private ProfileDTO withSpecialty(ProfileDTO cached, SpecialtyDTO specialty) {
+        ProfileDTO profile = new ProfileDTO();
+        profile.setId(cached.getId());
+        profile.setFullName(cached.getFullName());
+        profile.setEmail(cached.getEmail());
+        profile.setRole(cached.getRole());
+        profile.setLicenseNumber(cached.getLicenseNumber());
+        profile.setSpecialtyId(cached.getSpecialtyId());
+        profile.setSpecialties(specialty);
+        return profile;
+    }
 }
@@ -0,0 +1,90 @@
+package com.clinica.service;
+
+import com.clinica.service.AnalyticsService.StateTable;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static com.clinica.service.AnalyticsService.CANCELLED;
+import static com.clinica.service.AnalyticsService.COMPLETED;
+import static com.clinica.service.AnalyticsService.NO_DAY;
+import static com.clinica.service.AnalyticsService.OTHER;
+import static com.clinica.service.AnalyticsService.SCHEDULED;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AnalyticsServiceTest {
+
+    @Test
+    void packedStateRoundTrips() {
+        int day = (int) LocalDate.of(2025, 3, 14).toEpochDay();
+        int[][] cases = {
+                {0, SCHEDULED, 0, day},
+                {(1 << 24) - 2, OTHER, 5, day},
+                {7, COMPLETED, 3, NO_DAY},
+                {19, CANCELLED, 1, (int) LocalDate.of(1960, 1, 1).toEpochDay()},
+        };
+        for (int[] c : cases) {
+            long state = AnalyticsService.pack(c[0], c[1], c[2], c[3]);
+
+            assertThat(state).isNotZero();
+            assertThat(AnalyticsService.doctorOf(state)).isEqualTo(c[0]);
+            assertThat(AnalyticsService.statusOf(state)).isEqualTo(c[1]);
+            assertThat(AnalyticsService.ratingOf(state)).isEqualTo(c[2]);
+            assertThat(AnalyticsService.dayOf(state)).isEqualTo(c[3]);
+        }
+    }
+
+    @Test
+    void statusNamesMapToCounters() {
+        assertThat(AnalyticsService.status("scheduled")).isEqualTo(SCHEDULED);
+        assertThat(AnalyticsService.status("completed")).isEqualTo(COMPLETED);
+        assertThat(AnalyticsService.status("cancelled")).isEqualTo(CANCELLED);
+        assertThat(AnalyticsService.status("canceled")).isEqualTo(CANCELLED);
+        assertThat(AnalyticsService.status("no_show")).isEqualTo(OTHER);
+        assertThat(AnalyticsService.status(null)).isEqualTo(OTHER);
+    }
+
+    @Test
+    void stateTableMatchesAHashMapUnderRandomUpdates() {
+        StateTable table = new StateTable(16);
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200_000; i++) {
+            long id = random.nextInt(50_000);
+            long value = random.nextInt(10) == 0 ? 0 : random.nextLong() | 1;
+            table.put(id, value);
+            if (value != 0 || expected.containsKey(id)) {
+                expected.put(id, value);
+            }
+        }
+        for (long id = 0; id < 50_000; id++) {
+            assertThat(table.get(id)).isEqualTo(expected.getOrDefault(id, 0L));
+        }
+        assertThat(table.size()).isEqualTo(expected.size());
+    }
+
+    @Test
+    void sparseIdsDoNotGrowTheTableWithTheHighestId() {
+        StateTable table = new StateTable(1024);
+        table.put(1, 11);
+        table.put(Long.MAX_VALUE - 1, 22);
+        table.put(1L << 40, 33);
+
+        assertThat(table.get(1)).isEqualTo(11);
+        assertThat(table.get(Long.MAX_VALUE - 1)).isEqualTo(22);
+        assertThat(table.get(1L << 40)).isEqualTo(33);
+        assertThat(table.get(2)).isZero();
+        assertThat(table.capacity()).isEqualTo(2048);
+    }
+
+    @Test
+    void zeroStateForAnUnknownIdIsNotStored() {
+        StateTable table = new StateTable(16);
+        table.put(5, 0);
+
+        assertThat(table.size()).isZero();
+    }
+}
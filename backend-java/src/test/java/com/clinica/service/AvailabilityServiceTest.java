@@ -0,0 +1,170 @@
+package com.clinica.service;
+
+import com.clinica.config.SupabaseClientConfig;
+import com.clinica.model.AppointmentDTO;
+import com.clinica.model.ProfileDTO;
+import com.clinica.model.ReservationRequestDTO;
+import com.clinica.model.ScheduleDTO;
+import com.clinica.service.AvailabilityService.SlotNotAvailableException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AvailabilityServiceTest {
+
+    private static final String DOCTOR = "doctor-1";
+
+    private final SupabaseService supabase = mock(SupabaseService.class);
+    private AvailabilityService service;
+    private LocalDate tomorrow;
+
+    // Lo que devuelve la siguiente lectura de citas programadas y el aviso de que se pidió
+    private volatile Flux<AppointmentDTO> scheduled = Flux.empty();
+    private volatile CountDownLatch snapshotRequested = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        service = new AvailabilityService();
+        ReflectionTestUtils.setField(service, "supabaseService", supabase);
+        ReflectionTestUtils.setField(service, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(service, "slotMinutes", 30);
+        ReflectionTestUtils.setField(service, "maxDays", 31);
+        ReflectionTestUtils.setField(service, "refreshTimeout", Duration.ofSeconds(5));
+
+        // Todos los días de 08:00 a 09:45: huecos a las 08:00, 08:30 y 09:00
+        when(supabase.getSchedules()).thenAnswer(invocation -> Flux.range(0, 7).map(day -> {
+            ScheduleDTO schedule = new ScheduleDTO();
+            schedule.setId((long) day);
+            schedule.setDoctorId(DOCTOR);
+            schedule.setDayOfWeek(day);
+            schedule.setStartTime("08:00:00");
+            schedule.setEndTime("09:45:00");
+            return schedule;
+        }));
+        ProfileDTO doctor = new ProfileDTO();
+        doctor.setId(DOCTOR);
+        doctor.setSpecialtyId(1);
+        when(supabase.getDoctors()).thenReturn(Flux.just(doctor));
+        when(supabase.getScheduledAppointments(any())).thenAnswer(invocation -> {
+            snapshotRequested.countDown();
+            return scheduled;
+        });
+
+        service.refresh();
+        tomorrow = LocalDate.now(SupabaseClientConfig.CLINIC_ZONE).plusDays(1);
+    }
+
+    private Instant at(int hour, int minute) {
+        return tomorrow.atTime(hour, minute).atZone(SupabaseClientConfig.CLINIC_ZONE).toInstant();
+    }
+
+    private List<Instant> freeTomorrow() {
+        return service.freeSlotsForDoctor(DOCTOR, tomorrow, tomorrow).getSlots();
+    }
+
+    private Mono<AppointmentDTO> reserve(Instant time) {
+        ReservationRequestDTO request = new ReservationRequestDTO();
+        request.setPatientId("patient-1");
+        request.setAppointmentTime(time);
+        return service.reserve(DOCTOR, request, "Bearer token");
+    }
+
+    // Recarga en otro hilo que se queda esperando la lectura de Supabase hasta abrir `gate`
+    private CompletableFuture<Void> refreshBlockedOn(Sinks.Empty<Void> gate) throws InterruptedException {
+        snapshotRequested = new CountDownLatch(1);
+        scheduled = gate.asMono().thenMany(Flux.empty());
+        CompletableFuture<Void> refresh = CompletableFuture.runAsync(service::refresh);
+        assertThat(snapshotRequested.await(5, TimeUnit.SECONDS)).isTrue();
+        return refresh;
+    }
+
+    @Test
+    void slotsMustEndInsideTheShift() {
+        assertThat(freeTomorrow()).containsExactly(at(8, 0), at(8, 30), at(9, 0));
+
+        StepVerifier.create(reserve(at(9, 30))).expectError(SlotNotAvailableException.class).verify();
+    }
+
+    @Test
+    void failedInsertReleasesTheSlot() {
+        when(supabase.insertAppointment(anyMap(), any())).thenReturn(Mono.error(new IllegalStateException("caído")));
+
+        StepVerifier.create(reserve(at(9, 0))).expectError(IllegalStateException.class).verify();
+
+        assertThat(freeTomorrow()).contains(at(9, 0));
+    }
+
+    @Test
+    void cancelledReservationKeepsTheSlotUntilTheNextRefresh() {
+        when(supabase.insertAppointment(anyMap(), any())).thenReturn(Mono.never());
+
+        Disposable reservation = reserve(at(9, 0)).subscribe();
+        reservation.dispose();
+        assertThat(freeTomorrow()).doesNotContain(at(9, 0));
+
+        // Supabase no tiene la cita: la recarga libera el hueco
+        service.refresh();
+        assertThat(freeTomorrow()).contains(at(9, 0));
+    }
+
+    @Test
+    void pendingInsertSurvivesARefresh() {
+        when(supabase.insertAppointment(anyMap(), any())).thenReturn(Mono.never());
+
+        Disposable reservation = reserve(at(9, 0)).subscribe();
+        service.refresh();
+
+        assertThat(freeTomorrow()).doesNotContain(at(9, 0));
+        reservation.dispose();
+    }
+
+    @Test
+    void insertCommittedWhileRefreshReadsSupabaseIsKept() throws Exception {
+        Sinks.One<AppointmentDTO> insert = Sinks.one();
+        when(supabase.insertAppointment(anyMap(), any())).thenReturn(insert.asMono());
+        Disposable reservation = reserve(at(9, 0)).subscribe();
+
+        // La recarga lee Supabase antes de que la cita se confirme y publica después
+        Sinks.Empty<Void> gate = Sinks.empty();
+        CompletableFuture<Void> refresh = refreshBlockedOn(gate);
+        insert.tryEmitValue(new AppointmentDTO());
+        gate.tryEmitEmpty();
+        refresh.get(5, TimeUnit.SECONDS);
+
+        assertThat(freeTomorrow()).doesNotContain(at(9, 0));
+        reservation.dispose();
+    }
+
+    @Test
+    void reservationMadeDuringARefreshIsReplayed() throws Exception {
+        when(supabase.insertAppointment(anyMap(), any())).thenReturn(Mono.just(new AppointmentDTO()));
+
+        Sinks.Empty<Void> gate = Sinks.empty();
+        CompletableFuture<Void> refresh = refreshBlockedOn(gate);
+        StepVerifier.create(reserve(at(8, 30))).expectNextCount(1).verifyComplete();
+        gate.tryEmitEmpty();
+        refresh.get(5, TimeUnit.SECONDS);
+
+        assertThat(freeTomorrow()).containsExactly(at(8, 0), at(9, 0));
+    }
+}
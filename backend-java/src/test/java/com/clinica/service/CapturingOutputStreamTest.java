@@ -0,0 +1,52 @@
+package com.clinica.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CapturingOutputStreamTest {
+
+    @Test
+    void captureMatchesWhatWasForwardedAcrossChunks() throws IOException {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        CapturingOutputStream capture = new CapturingOutputStream(target, 1 << 20);
+        Random random = new Random(7);
+        for (int i = 0; i < 200; i++) {
+            if (random.nextBoolean()) {
+                capture.write(random.nextInt(256));
+            } else {
+                byte[] block = new byte[random.nextInt(3000)];
+                random.nextBytes(block);
+                capture.write(block, 0, block.length);
+            }
+        }
+
+        assertThat(capture.getCaptured()).isEqualTo(target.toByteArray());
+    }
+
+    @Test
+    void exactlyAtTheLimitIsKept() throws IOException {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        CapturingOutputStream capture = new CapturingOutputStream(target, 8193);
+        capture.write(new byte[8192]);
+        capture.write(1);
+
+        assertThat(capture.getCaptured()).hasSize(8193).endsWith(1);
+    }
+
+    @Test
+    void overTheLimitKeepsForwardingButDropsTheCopy() throws IOException {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        CapturingOutputStream capture = new CapturingOutputStream(target, 10);
+        capture.write(new byte[8]);
+        capture.write(new byte[8]);
+        capture.write(2);
+
+        assertThat(capture.getCaptured()).isNull();
+        assertThat(target.size()).isEqualTo(17);
+    }
+}
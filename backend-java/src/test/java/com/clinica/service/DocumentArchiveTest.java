@@ -0,0 +1,127 @@
+package com.clinica.service;
+
+import com.clinica.service.DocumentArchive.ArchivedDocument;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DocumentArchiveTest {
+
+    @TempDir
+    Path dir;
+
+    private final List<DocumentArchive> opened = new ArrayList<>();
+
+    @AfterEach
+    void closeAll() throws IOException {
+        for (DocumentArchive archive : opened) {
+            archive.close();
+        }
+    }
+
+    private DocumentArchive open() throws IOException {
+        DocumentArchive archive = new DocumentArchive();
+        ReflectionTestUtils.setField(archive, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(archive, "enabled", true);
+        ReflectionTestUtils.setField(archive, "location", dir.toString());
+        archive.open();
+        opened.add(archive);
+        return archive;
+    }
+
+    private static String fingerprint(long appointmentId) {
+        return String.format("%064x", appointmentId);
+    }
+
+    private static void store(DocumentArchive archive, long appointmentId) {
+        archive.store(appointmentId, appointmentId * 10, "docx", fingerprint(appointmentId),
+                ("receta " + appointmentId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Busca con la receta y huella que se archivaron
+    private static ArchivedDocument find(DocumentArchive archive, long appointmentId) {
+        return archive.find(appointmentId, "docx", appointmentId * 10, fingerprint(appointmentId));
+    }
+
+    @Test
+    void onlyServedWhileThePrescriptionAndFingerprintMatch() throws IOException {
+        DocumentArchive archive = open();
+        store(archive, 1);
+
+        assertThat(find(archive, 1)).isNotNull();
+        // Diagnóstico añadido tras completar la cita: la huella ya no coincide
+        assertThat(archive.find(1L, "docx", 10L, fingerprint(2))).isNull();
+        // Receta más reciente para la misma cita
+        assertThat(archive.find(1L, "docx", 11L, fingerprint(1))).isNull();
+    }
+
+    @Test
+    void replayIgnoresATruncatedLastLineAndKeepsAppending() throws IOException {
+        DocumentArchive archive = open();
+        store(archive, 1);
+        archive.close();
+        // Escritura interrumpida a mitad de línea, sin salto final
+        Files.writeString(dir.resolve("index.log"), "A\t2\t20\tdocx\t" + fingerprint(2).substring(0, 10),
+                StandardOpenOption.APPEND);
+
+        DocumentArchive reopened = open();
+        assertThat(find(reopened, 1L)).isNotNull();
+        assertThat(find(reopened, 2L)).isNull();
+        store(reopened, 3);
+        reopened.close();
+
+        DocumentArchive again = open();
+        ArchivedDocument document = find(again, 3L);
+        assertThat(document).isNotNull();
+        assertThat(document.prescriptionId()).isEqualTo(30);
+        assertThat(document.size()).isEqualTo("receta 3".length());
+        assertThat(find(again, 1L)).isNotNull();
+    }
+
+    @Test
+    void storesDuringACompactionAreNotLost() throws Exception {
+        DocumentArchive archive = open();
+        CompletableFuture<Void> stores = CompletableFuture.runAsync(() -> {
+            for (long id = 1; id <= 300; id++) {
+                store(archive, id);
+            }
+        });
+        while (!stores.isDone()) {
+            archive.compact();
+        }
+        stores.get();
+        archive.close();
+
+        DocumentArchive reopened = open();
+        for (long id = 1; id <= 300; id++) {
+            assertThat(find(reopened, id)).as("cita %d", id).isNotNull();
+        }
+    }
+
+    @Test
+    void missingFileIsOnlyDetectedByWhoeverReadsIt() throws IOException {
+        DocumentArchive archive = open();
+        store(archive, 1);
+        ArchivedDocument document = find(archive, 1L);
+        Files.delete(document.path());
+
+        // find no hace E/S: sigue devolviendo la entrada con el tamaño del diario
+        assertThat(find(archive, 1L)).isSameAs(document);
+
+        assertThat(archive.present(document)).isFalse();
+        assertThat(find(archive, 1L)).isNull();
+    }
+}
@@ -0,0 +1,82 @@
+package com.clinica.service;
+
+import com.clinica.service.RenderAdmission.Permit;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RenderAdmissionTest {
+
+    // 2 hilos + 3 en cola = 5 plazas
+    private final RenderAdmission admission = new RenderAdmission(new SimpleMeterRegistry(), 2, 3, Duration.ofSeconds(1));
+
+    @Test
+    void burstNeverReservesMoreThanTheLimit() throws Exception {
+        int callers = 64;
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        CountDownLatch go = new CountDownLatch(1);
+        try {
+            List<Future<Permit>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(executor.submit(() -> {
+                    go.await();
+                    return admission.tryAdmit();
+                }));
+            }
+            go.countDown();
+            int admitted = 0;
+            for (Future<Permit> result : results) {
+                if (result.get() != null) {
+                    admitted++;
+                }
+            }
+            assertThat(admitted).isEqualTo(5);
+            assertThat(admission.inFlight()).isEqualTo(5);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void permitIsReleasedOnceWhenTheBodyEnds() {
+        Permit permit = admission.tryAdmit();
+        assertThat(admission.inFlight()).isEqualTo(1);
+
+        StepVerifier.create(admission.admit(permit, Flux.just(1, 2))).expectNext(1, 2).verifyComplete();
+        permit.release();
+
+        assertThat(admission.inFlight()).isZero();
+    }
+
+    @Test
+    void cancelledBodyReleasesItsSlots() {
+        Permit permit = admission.tryAdmit(4);
+        assertThat(admission.tryAdmit(2)).isNull();
+
+        StepVerifier.create(admission.admit(permit, Flux.never())).thenCancel().verify();
+
+        assertThat(admission.inFlight()).isZero();
+    }
+
+    @Test
+    void largeReservationIsCappedAtTheLimit() {
+        Permit permit = admission.tryAdmit(50);
+
+        assertThat(permit).isNotNull();
+        assertThat(admission.inFlight()).isEqualTo(5);
+        assertThat(admission.tryAdmit()).isNull();
+        permit.release();
+        assertThat(admission.tryAdmit()).isNotNull();
+    }
+}
@@ -0,0 +1,83 @@
+package com.clinica.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SupabaseHedgingTest {
+
+    private static final Duration VERIFY = Duration.ofSeconds(5);
+
+    private MeterRegistry registry;
+    private SupabaseHedging hedging;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        hedging = new SupabaseHedging(registry, new ExportMetrics(registry));
+        ReflectionTestUtils.setField(hedging, "enabled", true);
+        ReflectionTestUtils.setField(hedging, "percentile", 0.95);
+        ReflectionTestUtils.setField(hedging, "initialDelay", Duration.ofMillis(20));
+        ReflectionTestUtils.setField(hedging, "minDelay", Duration.ofMillis(10));
+        ReflectionTestUtils.setField(hedging, "maxDelay", Duration.ofSeconds(2));
+        ReflectionTestUtils.setField(hedging, "minSamples", 50L);
+        ReflectionTestUtils.setField(hedging, "maxInFlight", 16);
+    }
+
+    // Primer intento = original, segundo = duplicada
+    private static <T> Supplier<Flux<T>> attempts(Flux<T> primary, Flux<T> hedge) {
+        List<Flux<T>> attempts = List.of(primary, hedge);
+        AtomicInteger calls = new AtomicInteger();
+        return () -> attempts.get(calls.getAndIncrement());
+    }
+
+    private double hedges(String outcome) {
+        return registry.counter("clinica.supabase.hedges", "call", "test", "outcome", outcome).count();
+    }
+
+    @Test
+    void hedgeThatWinsAndThenFailsPropagatesTheError() {
+        Flux<String> hedge = Flux.concat(Flux.just("fila"), Flux.error(new IllegalStateException("cuerpo cortado")));
+
+        StepVerifier.create(hedging.get("test", attempts(Flux.never(), hedge)))
+                .expectNext("fila")
+                .expectErrorMessage("cuerpo cortado")
+                .verify(VERIFY);
+
+        assertThat(hedges("won")).isEqualTo(1);
+        assertThat(hedges("failed")).isZero();
+    }
+
+    @Test
+    void hedgeThatFailsBeforeWinningLeavesThePrimaryInCharge() {
+        Flux<String> primary = Mono.delay(Duration.ofMillis(200)).thenMany(Flux.just("original"));
+
+        StepVerifier.create(hedging.get("test", attempts(primary, Flux.error(new IllegalStateException("502")))))
+                .expectNext("original")
+                .verifyComplete();
+
+        assertThat(hedges("failed")).isEqualTo(1);
+        assertThat(hedges("won")).isZero();
+    }
+
+    @Test
+    void fastPrimaryIsNotHedged() {
+        StepVerifier.create(hedging.get("test", attempts(Flux.just("a", "b"), Flux.just("duplicada"))))
+                .expectNext("a", "b")
+                .verifyComplete();
+
+        assertThat(hedges("sent")).isZero();
+    }
+}
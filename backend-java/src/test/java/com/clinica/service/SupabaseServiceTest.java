@@ -0,0 +1,96 @@
+package com.clinica.service;
+
+import com.clinica.model.AppointmentDTO;
+import com.clinica.service.SupabaseService.AppointmentCursor;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.clinica.config.SupabaseClientConfig.CLINIC_ZONE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SupabaseServiceTest {
+
+    private static final Pattern KEYSET = Pattern.compile(
+            "\\(appointment_time\\.lt\\.([^,]+),and\\(appointment_time\\.eq\\.([^,]+),id\\.lt\\.(\\d+)\\)\\)");
+
+    private static AppointmentDTO appointment(long id, LocalDateTime time) {
+        AppointmentDTO appointment = new AppointmentDTO();
+        appointment.setId(id);
+        appointment.setAppointmentTime(time);
+        return appointment;
+    }
+
+    private static Instant instant(AppointmentDTO appointment) {
+        return appointment.getAppointmentTime().atZone(CLINIC_ZONE).toInstant();
+    }
+
+    // Lo que haría PostgREST con el filtro or=(...) del cursor, leído del propio texto
+    private static Predicate<AppointmentDTO> keyset(String filter) {
+        Matcher m = KEYSET.matcher(filter);
+        assertThat(m.matches()).as(filter).isTrue();
+        Instant before = Instant.parse(m.group(1));
+        Instant equal = Instant.parse(m.group(2));
+        long id = Long.parseLong(m.group(3));
+        return a -> instant(a).isBefore(before) || (instant(a).equals(equal) && a.getId() < id);
+    }
+
+    @Test
+    void cursorRoundTripsWithSubSecondTimes() {
+        AppointmentDTO last = appointment(42, LocalDateTime.of(2025, 1, 6, 8, 0, 0, 123_456_000));
+
+        AppointmentCursor cursor = AppointmentCursor.of(last);
+        AppointmentCursor decoded = AppointmentCursor.decode(cursor.encode());
+
+        assertThat(decoded).isEqualTo(cursor);
+        assertThat(decoded.time()).isEqualTo(instant(last));
+        assertThat(decoded.id()).isEqualTo(42);
+    }
+
+    @Test
+    void pagesThroughAppointmentsThatShareATimestamp() {
+        LocalDateTime same = LocalDateTime.of(2025, 1, 6, 8, 30, 0, 500_000);
+        List<AppointmentDTO> all = new ArrayList<>();
+        all.add(appointment(1, same.plusHours(1)));
+        for (long id = 2; id <= 8; id++) {
+            all.add(appointment(id * 7 % 11, same));
+        }
+        all.add(appointment(3, same.minusMinutes(30)));
+        Comparator<AppointmentDTO> order = Comparator.comparing(SupabaseServiceTest::instant)
+                .thenComparing(AppointmentDTO::getId)
+                .reversed();
+        all.sort(order);
+
+        List<AppointmentDTO> seen = new ArrayList<>();
+        String after = null;
+        for (int pages = 0; pages < all.size(); pages++) {
+            Predicate<AppointmentDTO> filter = after == null
+                    ? a -> true
+                    : keyset(AppointmentCursor.decode(after).keyset());
+            List<AppointmentDTO> page = all.stream().filter(filter).limit(2).toList();
+            seen.addAll(page);
+            if (page.size() < 2) {
+                break;
+            }
+            after = AppointmentCursor.of(page.get(page.size() - 1)).encode();
+        }
+
+        assertThat(seen).containsExactlyElementsOf(all);
+    }
+
+    @Test
+    void unreadableCursorIsAnIllegalArgument() {
+        assertThatThrownBy(() -> AppointmentCursor.decode("no-es-un-cursor"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> AppointmentCursor.decode("MjAyNS0wMS0wNlQwODowMDowMFo"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -153,7 +153,7 @@ export class AppointmentService {
   async exportPrescriptionPdf(appointmentId: number) {
   this.loadingService.show();
   try {
-    const response = await fetch(`http://localhost:8080/api/appointments/${appointmentId}/export-pdf`);
+    const response = await fetch(`http://localhost:8080/api/appointments/${appointmentId}/export-pdf?format=pdf`);
     
     if (!response.ok) {
       this.notificationService.showError('No se pudo generar la receta.');
@@ -164,7 +164,7 @@ export class AppointmentService {
     const url = window.URL.createObjectURL(blob);
     const a = document.createElement('a');
     a.href = url;
-    a.download = `receta-monteluz-${appointmentId}.docx`;
+    a.download = `receta-monteluz-${appointmentId}.pdf`;
     document.body.appendChild(a);
     a.click();
     document.body.removeChild(a);